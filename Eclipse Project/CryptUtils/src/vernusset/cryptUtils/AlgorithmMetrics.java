@@ -0,0 +1,155 @@
+package vernusset.cryptUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Metrics of one algorithm: counters, bytes in/out, and latency histogram of each phase.
+ * Recording only updates striped counters, so that concurrent threads do not contend.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class AlgorithmMetrics implements AlgorithmMetricsMXBean {
+
+	/**
+	 * Number of histogram buckets (last one gathers latencies of 2^39 nanoseconds, about 9 minutes, and more).
+	 */
+	private static final int BUCKETS = 40;
+
+
+	/**
+	 * Statistics of a phase.
+	 */
+	private static class PhaseRecorder {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		private final LongAdder bytesIn = new LongAdder();
+		private final LongAdder bytesOut = new LongAdder();
+		private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+		private PhaseRecorder() {
+			for(int i = 0; i < BUCKETS; i++) {
+				this.histogram[i] = new LongAdder();
+			}
+		}
+
+		private void record(long nanos, long bytesIn, long bytesOut) {
+			this.count.increment();
+			this.totalNanos.add(nanos);
+			this.maxNanos.accumulate(nanos);
+			this.bytesIn.add(bytesIn);
+			this.bytesOut.add(bytesOut);
+			this.histogram[Math.min(63 - Long.numberOfLeadingZeros(Math.max(nanos, 1)), BUCKETS - 1)].increment();
+		}
+
+		private PhaseStatistics snapshot() {
+			long[] histogram = new long[BUCKETS];
+			for(int i = 0; i < BUCKETS; i++) {
+				histogram[i] = this.histogram[i].sum();
+			}
+			return new PhaseStatistics(this.count.sum(), this.totalNanos.sum(), this.maxNanos.get(), this.bytesIn.sum(), this.bytesOut.sum(), histogram);
+		}
+
+		private void reset() {
+			this.count.reset();
+			this.totalNanos.reset();
+			this.maxNanos.reset();
+			this.bytesIn.reset();
+			this.bytesOut.reset();
+			for(LongAdder bucket : this.histogram) {
+				bucket.reset();
+			}
+		}
+	}
+
+
+	private final EncryptionAlgorithm algo;
+	private final PhaseRecorder[] phases = new PhaseRecorder[EncryptionMetrics.Phase.values().length];
+	private final LongAdder failures = new LongAdder();
+
+
+	AlgorithmMetrics(EncryptionAlgorithm algo) {
+		this.algo = algo;
+		for(int i = 0; i < this.phases.length; i++) {
+			this.phases[i] = new PhaseRecorder();
+		}
+	}
+
+	void record(EncryptionMetrics.Phase phase, long nanos, long bytesIn, long bytesOut) {
+		this.phases[phase.ordinal()].record(nanos, bytesIn, bytesOut);
+	}
+
+	void recordFailure() {
+		this.failures.increment();
+	}
+
+	/**
+	 * Gives the statistics of a phase.
+	 * @param phase phase
+	 * @return statistics snapshot
+	 */
+	public PhaseStatistics getPhase(EncryptionMetrics.Phase phase) {
+		return this.phases[phase.ordinal()].snapshot();
+	}
+
+	@Override
+	public String getAlgorithm() {
+		return this.algo.toString();
+	}
+
+	@Override
+	public long getEncryptions() {
+		return this.phases[EncryptionMetrics.Phase.ENCRYPTION.ordinal()].count.sum();
+	}
+
+	@Override
+	public long getDecryptions() {
+		return this.phases[EncryptionMetrics.Phase.DECRYPTION.ordinal()].count.sum();
+	}
+
+	@Override
+	public long getFailures() {
+		return this.failures.sum();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return this.phases[EncryptionMetrics.Phase.ENCRYPTION.ordinal()].bytesIn.sum() + this.phases[EncryptionMetrics.Phase.DECRYPTION.ordinal()].bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return this.phases[EncryptionMetrics.Phase.ENCRYPTION.ordinal()].bytesOut.sum() + this.phases[EncryptionMetrics.Phase.DECRYPTION.ordinal()].bytesOut.sum();
+	}
+
+	@Override
+	public Map<String, PhaseStatistics> getPhases() {
+		Map<String, PhaseStatistics> phases = new LinkedHashMap<>();
+		for(EncryptionMetrics.Phase phase : EncryptionMetrics.Phase.values()) {
+			PhaseStatistics statistics = this.getPhase(phase);
+			if(statistics.getCount() > 0) {
+				phases.put(phase.name(), statistics);
+			}
+		}
+		return phases;
+	}
+
+	@Override
+	public void reset() {
+		for(PhaseRecorder phase : this.phases) {
+			phase.reset();
+		}
+		this.failures.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.getClass().getSimpleName() + "]{algorithm=" + this.getAlgorithm() + ", encryptions=" + this.getEncryptions() + ", decryptions=" + this.getDecryptions()
+				+ ", failures=" + this.getFailures() + ", phases=" + this.getPhases() + "}";
+	}
+}
@@ -0,0 +1,54 @@
+package vernusset.cryptUtils;
+
+import java.util.Map;
+
+/**
+ *
+ * Management interface of the metrics of one algorithm, registered by {@link EncryptionMetrics} under
+ * "vernusset.cryptUtils:type=EncryptionMetrics,algorithm=...".
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public interface AlgorithmMetricsMXBean {
+
+	/**
+	 * @return algorithm description
+	 */
+	public String getAlgorithm();
+
+	/**
+	 * @return number of successful encryptions
+	 */
+	public long getEncryptions();
+
+	/**
+	 * @return number of successful decryptions
+	 */
+	public long getDecryptions();
+
+	/**
+	 * @return number of failed encryptions and decryptions
+	 */
+	public long getFailures();
+
+	/**
+	 * @return number of bytes given to cipher (encryption and decryption)
+	 */
+	public long getBytesIn();
+
+	/**
+	 * @return number of bytes produced by cipher (encryption and decryption)
+	 */
+	public long getBytesOut();
+
+	/**
+	 * @return statistics of each phase met at least once, by phase name
+	 */
+	public Map<String, PhaseStatistics> getPhases();
+
+	/**
+	 * Resets every counter and histogram.
+	 */
+	public void reset();
+}
@@ -1,24 +1,46 @@
 package vernusset.cryptUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.util.Base64;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
 
 import vernusset.cryptUtils.encryptableObjects.Encryptable;
 import vernusset.cryptUtils.exceptions.ConflictingAsymmetricEncryptionAlgorithmsException;
 import vernusset.cryptUtils.exceptions.NotEncryptableException;
 
 /**
- *  Asymmetric encryption implementation, using RSA.
+ *  Asymmetric encryption implementation, using RSA, or ECIES over X25519 (Java 11 or later) or secp256r1:
+ *  an ephemeral key agreement with the correspondent public key, HKDF-SHA256, then AES-GCM (always in hybrid mode).
  * 
  * @author Maxime VERNUSSET
  *
@@ -28,7 +50,10 @@ public class AsymmetricEncryptionMethod extends EncryptionMethod {
 	/**
 	 * 
 	 * List of supported asymmetric algorithms and their key pair size.
-	 * Only RSA supported for now.
+	 * RSA algorithms encrypt with the public key itself (or wrap a session key in hybrid mode).
+	 * ECIES algorithms agree an ephemeral key with the public key (X25519 or secp256r1), derive an AES key with HKDF-SHA256,
+	 * and encrypt with AES-GCM: much faster key generation and decryption, and smaller keys and encrypted data.
+	 * ECIES algorithms always encrypt in hybrid mode (X25519 needs Java 11 or later).
 	 */
 	public static enum AsymmetricAlgorithm implements EncryptionAlgorithm {
 
@@ -40,14 +65,26 @@ public class AsymmetricEncryptionMethod extends EncryptionMethod {
 		RSA_ECB_OAEPWithSHA_1AndMGF1Padding_3072 ("RSA/ECB/OAEPWithSHA-1AndMGF1Padding", 3072),
 		RSA_ECB_OAEPWithSHA_256AndMGF1Padding_1024 ("RSA/ECB/OAEPWithSHA-256AndMGF1Padding", 1024),
 		RSA_ECB_OAEPWithSHA_256AndMGF1Padding_2048 ("RSA/ECB/OAEPWithSHA-256AndMGF1Padding", 2048),
-		RSA_ECB_OAEPWithSHA_256AndMGF1Padding_3072 ("RSA/ECB/OAEPWithSHA-256AndMGF1Padding", 3072);
+		RSA_ECB_OAEPWithSHA_256AndMGF1Padding_3072 ("RSA/ECB/OAEPWithSHA-256AndMGF1Padding", 3072),
+		ECIES_X25519_HKDF_SHA256_AES_GCM ("ECIES/X25519/HKDF-SHA256/AES-GCM", "XDH", 255, "XDH", 32),
+		ECIES_SECP256R1_HKDF_SHA256_AES_GCM ("ECIES/secp256r1/HKDF-SHA256/AES-GCM", "EC", 256, "ECDH", 65);
 		
 		private final String name;
+		private final String algo;
 		private final int keySize;
+		private final String keyAgreement;
+		private final int publicKeySize;
 		
 		private AsymmetricAlgorithm(String name, int keySize) {
+			this(name, name.split("/")[0], keySize, null, 0);
+		}
+		
+		private AsymmetricAlgorithm(String name, String algo, int keySize, String keyAgreement, int publicKeySize) {
 			this.name = name;
+			this.algo = algo;
 			this.keySize = keySize;
+			this.keyAgreement = keyAgreement;
+			this.publicKeySize = publicKeySize;
 		}
 
 		@Override
@@ -62,7 +99,39 @@ public class AsymmetricEncryptionMethod extends EncryptionMethod {
 		
 		@Override
 		public String getAlgo() {
-			return this.name.split("/")[0];
+			return this.algo;
+		}
+		
+		/**
+		 * 
+		 * @return true if algo encrypts through key agreement (ECIES)
+		 */
+		public boolean isKeyAgreement() {
+			return this.keyAgreement != null;
+		}
+		
+		/**
+		 * 
+		 * @return key agreement algorithm (null if algo does not use any)
+		 */
+		String getKeyAgreement() {
+			return this.keyAgreement;
+		}
+		
+		/**
+		 * 
+		 * @return size of a raw public key (curve point) in bytes, for key agreement algos
+		 */
+		int getPublicKeySize() {
+			return this.publicKeySize;
+		}
+		
+		/**
+		 * Key agreement algos only use a cipher to encrypt payloads, with AES-GCM.
+		 */
+		@Override
+		public String getTransformation() {
+			return this.isKeyAgreement() ? HYBRID_SESSION_KEY_ALGO.getName() : this.getName();
 		}
 		
 		@Override
@@ -77,12 +146,181 @@ public class AsymmetricEncryptionMethod extends EncryptionMethod {
 	 * Public key to be transmitted to correspondent so he can encrypt messages.
 	 * Private key to keep secret to decrypt messages.
 	 */
-	protected KeyPair keyPair;
+	protected volatile KeyPair keyPair;
 	
 	/**
 	 * Correspondent's public key to be able to encrypt message to his attention.
 	 */
-	protected PublicKey correspondentPublicKey;
+	protected volatile PublicKey correspondentPublicKey;
+	
+	
+	/**
+	 * Symmetric algorithm used for hybrid mode session keys and payload.
+	 */
+	public static final SymmetricEncryptionMethod.SymmetricAlgorithm HYBRID_SESSION_KEY_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_256;
+	
+	/**
+	 * Hybrid mode payload nonce size, in bytes.
+	 */
+	private static final int HYBRID_IV_SIZE = HYBRID_SESSION_KEY_ALGO.getIvSize();
+	
+	/**
+	 * Hybrid mode payload authentication tag size, in bits.
+	 */
+	private static final int HYBRID_TAG_SIZE = HYBRID_SESSION_KEY_ALGO.getTagSize();
+	
+	/**
+	 * Maximum number of unwrapped session keys kept on the receiving side.
+	 */
+	private static final int MAX_UNWRAPPED_SESSION_KEYS = 256;
+	
+	/**
+	 * Default session mode limits.
+	 */
+	public static final long DEFAULT_SESSION_MAX_MESSAGES = 1L << 20, DEFAULT_SESSION_MAX_BYTES = 1L << 32, DEFAULT_SESSION_MAX_AGE_MILLIS = 3600000;
+	
+	/**
+	 * Maximum number of session mode receiving methods (one per sender session epoch) kept.
+	 */
+	private static final int MAX_RECEIVING_METHODS = 64;
+	
+	private static final SecureRandom RANDOM = new SecureRandom();
+	
+	/**
+	 * True if hybrid (envelope) mode is enabled.
+	 */
+	private volatile boolean hybrid;
+	
+	/**
+	 * Maximum number of messages encrypted with a same session key (1 means a fresh key per message).
+	 */
+	private volatile int sessionKeyMaxMessages = 1;
+	
+	/**
+	 * Maximum age of a session key, in milliseconds (0 means no age limit).
+	 */
+	private volatile long sessionKeyMaxAgeMillis;
+	
+	/**
+	 * True if session mode is enabled.
+	 */
+	private volatile boolean sessionMode;
+	
+	/**
+	 * Session mode limits: messages and bytes per epoch, session lifetime in milliseconds.
+	 */
+	private volatile long sessionMaxMessages = DEFAULT_SESSION_MAX_MESSAGES, sessionMaxBytes = DEFAULT_SESSION_MAX_BYTES, sessionMaxAgeMillis = DEFAULT_SESSION_MAX_AGE_MILLIS;
+	
+	/**
+	 * Session mode sending sessions, per correspondent public key.
+	 */
+	private final Map<PublicKey, KeyAgreementSession> sessions = new ConcurrentHashMap<>();
+	
+	/**
+	 * Session mode receiving side: key agreement with correspondent public key (null until first message received).
+	 */
+	private volatile ReceivingAgreement receivingAgreement;
+	
+	/**
+	 * Session mode receiving methods, per message header (least recently used evicted first).
+	 */
+	private final Map<ByteBuffer, SymmetricEncryptionMethod> receivingMethods = Collections.synchronizedMap(new LinkedHashMap<ByteBuffer, SymmetricEncryptionMethod>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SymmetricEncryptionMethod> eldest) {
+			return this.size() > MAX_RECEIVING_METHODS;
+		}
+	});
+	
+	/**
+	 * Reusable session keys, per correspondent public key.
+	 */
+	private final Map<PublicKey, SessionKey> sessionKeys = new ConcurrentHashMap<>();
+	
+	/**
+	 * Already unwrapped session keys, per wrapped session key (own copy, least recently used evicted first).
+	 */
+	private final Map<ByteBuffer, SecretKey> unwrappedSessionKeys = Collections.synchronizedMap(new LinkedHashMap<ByteBuffer, SecretKey>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, SecretKey> eldest) {
+			return this.size() > MAX_UNWRAPPED_SESSION_KEYS;
+		}
+	});
+	
+	/**
+	 * Per-thread hybrid mode payload ciphers.
+	 */
+	private final ThreadLocal<Cipher> payloadCiphers = ThreadLocal.withInitial(() -> newCipher(HYBRID_SESSION_KEY_ALGO));
+	
+	
+	/**
+	 * Session key used in hybrid mode, along with its wrapped form and usage.
+	 */
+	private static class SessionKey {
+		private final SecretKey key;
+		private final byte[] wrappedKey;
+		private final long expiration;
+		private final AtomicInteger remainingUses;
+		
+		private SessionKey(SecretKey key, byte[] wrappedKey, int maxUses, long maxAgeMillis) {
+			this.key = key;
+			this.wrappedKey = wrappedKey;
+			this.expiration = maxAgeMillis > 0 ? System.currentTimeMillis() + maxAgeMillis : Long.MAX_VALUE;
+			this.remainingUses = new AtomicInteger(maxUses);
+		}
+		
+		private boolean acquire() {
+			return System.currentTimeMillis() < this.expiration && this.remainingUses.getAndDecrement() > 0;
+		}
+	}
+	
+	
+	/**
+	 * Asymmetric cipher along with the mode and public key it is initialized with, 
+	 * so that callers keeping ciphers ready to use (see {@link CorrespondentRegistry}) initialize them only when needed.
+	 * Used by one thread at a time.
+	 */
+	static class CipherState {
+		final Cipher cipher;
+		private int mode; //0 if not initialized
+		private PublicKey publicKey;
+		
+		CipherState(Cipher cipher) {
+			this.cipher = cipher;
+		}
+		
+		/**
+		 * Initializes the cipher with the given mode and public key, unless already done.
+		 */
+		void initialize(int mode, PublicKey publicKey, EncryptionAlgorithm algo) throws InvalidKeyException {
+			if(this.mode == mode && publicKey.equals(this.publicKey)) return;
+			this.mode = 0; //Until initialization succeeds
+			long start = EncryptionMetrics.start();
+			this.cipher.init(mode, publicKey);
+			EncryptionMetrics.end(algo, EncryptionMetrics.Phase.CIPHER_INIT, start, 0, 0);
+			this.mode = mode;
+			this.publicKey = publicKey;
+		}
+	}
+	
+	
+	/**
+	 * Session mode key agreement with the correspondent, to derive receiving keys.
+	 */
+	private static class ReceivingAgreement {
+		private final PublicKey peer;
+		private final byte[] secret;
+		private final byte[] info;
+		
+		private ReceivingAgreement(PublicKey peer, byte[] secret, byte[] info) {
+			this.peer = peer;
+			this.secret = secret;
+			this.info = info;
+		}
+	}
 	
 	
 	/**
@@ -99,6 +337,7 @@ public class AsymmetricEncryptionMethod extends EncryptionMethod {
 			if(algo.getAlgo().equals(correspondentPublicKey.getAlgorithm())) {
 				this.keyPair = keyPair;
 				this.correspondentPublicKey = correspondentPublicKey;
+				this.hybrid = algo.isKeyAgreement();
 			} else {
 				throw new ConflictingAsymmetricEncryptionAlgorithmsException("The given correspondent public key does not match with the desired algorithm. Desired algorithm: " + algo.getAlgo() + ", correspondent public key algorithm: " + correspondentPublicKey.getAlgorithm());
 			}
@@ -107,6 +346,11 @@ public class AsymmetricEncryptionMethod extends EncryptionMethod {
 		}
 	}
 
+	@Override
+	public AsymmetricAlgorithm getAlgorithm() {
+		return (AsymmetricAlgorithm)super.getAlgorithm();
+	}
+
 	/**
 	 * Getter.
 	 * @return the public key from the key pair
@@ -145,17 +389,155 @@ public class AsymmetricEncryptionMethod extends EncryptionMethod {
 	 */
 	public void setKeyPair(KeyPair keyPair) {
 		this.keyPair = keyPair;
+		this.clearSessions();
+	}
+	
+	/**
+	 * Enables or disables hybrid (envelope) mode.
+	 * In hybrid mode, payload is encrypted with AES-GCM under a session key, and only that session key is encrypted (wrapped) with the asymmetric algorithm.
+	 * Objects of any size can then be encrypted. 
+	 * Hybrid and non hybrid encrypted data are not interchangeable: both correspondents must use the same mode.
+	 * Key agreement (ECIES) algorithms always use hybrid mode, the session key being agreed instead of wrapped.
+	 * @param hybrid true to enable hybrid mode
+	 */
+	public void setHybrid(boolean hybrid) {
+		this.hybrid = hybrid || this.getAlgorithm().isKeyAgreement();
+	}
+	
+	/**
+	 * Getter.
+	 * @return true if hybrid mode is enabled
+	 */
+	public boolean isHybrid() {
+		return this.hybrid;
+	}
+	
+	/**
+	 * Sets how long a hybrid mode session key is reused for a same correspondent public key, 
+	 * thus sparing the asymmetric encryption (and decryption on correspondent's side) of a new session key on every message.
+	 * By default, a fresh session key is used for each message.
+	 * When reuse is enabled, received session keys are also kept once unwrapped, sparing the asymmetric decryption of already known session keys.
+	 * @param maxMessages maximum number of messages encrypted with a same session key (1 to disable reuse)
+	 * @param maxAgeMillis maximum age of a session key, in milliseconds (0 for no age limit)
+	 */
+	public void setSessionKeyReuse(int maxMessages, long maxAgeMillis) {
+		if(maxMessages < 1 || maxAgeMillis < 0) {
+			throw new IllegalArgumentException("Session key reuse limits must be positive. Given: " + maxMessages + " messages, " + maxAgeMillis + " ms");
+		}
+		this.sessionKeyMaxMessages = maxMessages;
+		this.sessionKeyMaxAgeMillis = maxAgeMillis;
+		this.clearSessionKeys();
+	}
+	
+	/**
+	 * Forgets all cached hybrid mode session keys (both reusable and already unwrapped ones).
+	 */
+	public void clearSessionKeys() {
+		this.sessionKeys.clear();
+		this.unwrappedSessionKeys.clear();
+	}
+	
+	/**
+	 * Forgets the reusable hybrid mode session key of a correspondent.
+	 * @param publicKey correspondent public key
+	 */
+	void clearSessionKey(PublicKey publicKey) {
+		this.sessionKeys.remove(publicKey);
+	}
+	
+	/**
+	 * Enables or disables session mode, for long-lived conversations (key agreement algorithms only).
+	 * In session mode, one key agreement is run with each correspondent public key, 
+	 * and messages are encrypted with AES-GCM only, under keys derived from it (see {@link KeyAgreementSession}).
+	 * Keys change after a number of messages or bytes, and a new session (new key agreement) starts after a period of time: 
+	 * see {@link #setSessionLimits(long, long, long) setSessionLimits}.
+	 * Messages are decrypted with keys derived from the agreement with correspondent public key, which must then be the sender one.
+	 * Session mode encrypted data is not interchangeable with other modes: both correspondents must use it.
+	 * @param sessionMode true to enable session mode
+	 * @throws IllegalStateException if algorithm does not use key agreement
+	 */
+	public void setSessionMode(boolean sessionMode) {
+		if(sessionMode && !this.getAlgorithm().isKeyAgreement()) {
+			throw new IllegalStateException("Session mode needs a key agreement algorithm. Given: " + this.getAlgorithm());
+		}
+		this.sessionMode = sessionMode;
+	}
+	
+	/**
+	 * Getter.
+	 * @return true if session mode is enabled
+	 */
+	public boolean isSessionMode() {
+		return this.sessionMode;
+	}
+	
+	/**
+	 * Sets session mode limits. 
+	 * Defaults are {@value #DEFAULT_SESSION_MAX_MESSAGES} messages, {@value #DEFAULT_SESSION_MAX_BYTES} bytes, and one hour.
+	 * @param maxMessages number of messages after which session keys change
+	 * @param maxBytes number of encrypted bytes after which session keys change
+	 * @param maxAgeMillis session lifetime, in milliseconds, after which a new key agreement is run (0 for no limit)
+	 */
+	public void setSessionLimits(long maxMessages, long maxBytes, long maxAgeMillis) {
+		if(maxMessages < 1 || maxBytes < 1 || maxAgeMillis < 0) {
+			throw new IllegalArgumentException("Session limits must be positive. Given: " + maxMessages + " messages, " + maxBytes + " bytes, " + maxAgeMillis + " ms");
+		}
+		this.sessionMaxMessages = maxMessages;
+		this.sessionMaxBytes = maxBytes;
+		this.sessionMaxAgeMillis = maxAgeMillis;
+		this.sessions.clear();
+	}
+	
+	/**
+	 * Gives the current sending session with a correspondent, starting a new one if none or expired.
+	 * @param publicKey correspondent public key
+	 * @return sending session
+	 * @throws InvalidKeyException if public key does not match algorithm
+	 * @throws IllegalStateException if algorithm does not use key agreement
+	 */
+	public KeyAgreementSession getSession(PublicKey publicKey) throws InvalidKeyException {
+		if(!this.getAlgorithm().isKeyAgreement()) {
+			throw new IllegalStateException("Sessions need a key agreement algorithm. Given: " + this.getAlgorithm());
+		}
+		KeyAgreementSession session = this.sessions.get(publicKey);
+		if(session == null || session.isExpired()) {
+			long start = EncryptionMetrics.start();
+			session = new KeyAgreementSession(this.getAlgorithm(), this.keyPair, publicKey, this.sessionMaxMessages, this.sessionMaxBytes, this.sessionMaxAgeMillis);
+			EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.CIPHER_INIT, start, 0, 0);
+			this.sessions.put(publicKey, session);
+		}
+		return session;
+	}
+	
+	/**
+	 * Forgets all session mode sessions, sending and receiving ones.
+	 */
+	public void clearSessions() {
+		this.sessions.clear();
+		this.receivingAgreement = null;
+		this.receivingMethods.clear();
 	}
 	
 	/**
 	 * Static method to build a private/public key pair, if needed some.
+	 * Key pair is taken from the {@link KeyMaterialPool#getDefault() default key material pool} if one is installed.
 	 * @param algo algorithm for which the key pair is desired
 	 * @return private/public key pair
 	 */
 	public static KeyPair buildKeyPair(AsymmetricAlgorithm algo) {
+		KeyMaterialPool pool = KeyMaterialPool.getDefault();
+		return pool != null ? pool.takeKeyPair(algo) : generateKeyPair(algo);
+	}
+	
+	/**
+	 * Generates a new private/public key pair.
+	 * @param algo algorithm for which the key pair is desired
+	 * @return private/public key pair
+	 */
+	static KeyPair generateKeyPair(AsymmetricAlgorithm algo) {
 		KeyPairGenerator keyPairGen;
 		try {
-			keyPairGen = KeyPairGenerator.getInstance(algo.getAlgo());
+			keyPairGen = CipherFactory.newKeyPairGenerator(algo.getAlgo());
 			keyPairGen.initialize(algo.getKeySize());
 			return keyPairGen.genKeyPair();
 		} catch (NoSuchAlgorithmException e) {
@@ -166,16 +548,240 @@ public class AsymmetricEncryptionMethod extends EncryptionMethod {
 	
 	/**
 	 * Asymmetric implementation of the method defined in {@link vernusset.cryptUtils.EncryptionMethod EncryptionMethod}.
+	 * Initialization is skipped for an already initialized cipher, unless in hybrid mode.
 	 * @throws InvalidKeyException 
-	 * @throws NotEncryptableException 
-	 * @throws IOException 
 	 * @throws BadPaddingException 
 	 * @throws IllegalBlockSizeException 
 	 */
 	@Override
-	protected byte[] encrypt(Encryptable data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
-    	super.cipher.init(Cipher.ENCRYPT_MODE, this.correspondentPublicKey);
-        return super.cipher.doFinal(super.serialize(data));
+	protected byte[] encryptSerialized(Cipher cipher, byte[] data, int length, boolean initialized) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		CipherState state = new CipherState(cipher);
+		if(initialized && !this.hybrid) { //In hybrid mode, a previous successful call may have reused a session key without initializing cipher
+			state.mode = Cipher.ENCRYPT_MODE;
+			state.publicKey = this.correspondentPublicKey;
+		}
+		return this.encryptSerializedFor(state, this.correspondentPublicKey, data, length);
+	}
+	
+	/**
+	 * Encrypts serialized data to the attention of the given correspondent.
+	 * The cipher is initialized only if not already in the needed mode (encryption, or wrapping in hybrid mode) for the public key,
+	 * and is not used in session mode.
+	 * @param state cipher to use, along with its initialization (null in session mode)
+	 * @param publicKey correspondent public key
+	 * @param data serialized data
+	 * @param length number of bytes to encrypt from data start
+	 * @return encrypted data
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	byte[] encryptSerializedFor(CipherState state, PublicKey publicKey, byte[] data, int length) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		if(this.sessionMode) {
+			return this.getSession(publicKey).encrypt(data, length);
+		}
+		if(this.hybrid) {
+			return this.encryptHybrid(state, publicKey, data, length);
+		}
+		state.initialize(Cipher.ENCRYPT_MODE, publicKey, this.algo);
+        return state.cipher.doFinal(data, 0, length);
+	}
+
+	/**
+	 * Hybrid mode encryption.
+	 * Output format: wrapped session key length (2 bytes), wrapped session key, nonce, AES-GCM encrypted payload.
+	 * With key agreement algorithms, the wrapped session key is the encapsulated (ephemeral public) key.
+	 * @param state asymmetric cipher, to wrap session key
+	 * @param publicKey correspondent public key
+	 * @param plaintext serialized object
+	 * @param length number of bytes to encrypt from plaintext start
+	 * @return encrypted data
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	private byte[] encryptHybrid(CipherState state, PublicKey publicKey, byte[] plaintext, int length) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		SessionKey sessionKey = this.acquireSessionKey(state, publicKey);
+		
+		byte[] iv = new byte[HYBRID_IV_SIZE];
+		RANDOM.nextBytes(iv);
+		Cipher payloadCipher = this.initPayloadCipher(Cipher.ENCRYPT_MODE, sessionKey.key, iv);
+		
+		ByteBuffer out = ByteBuffer.allocate(2 + sessionKey.wrappedKey.length + HYBRID_IV_SIZE + payloadCipher.getOutputSize(length));
+		out.putShort((short)sessionKey.wrappedKey.length).put(sessionKey.wrappedKey).put(iv);
+		try {
+			payloadCipher.doFinal(ByteBuffer.wrap(plaintext, 0, length), out);
+		} catch (ShortBufferException e) {
+			throw new IllegalBlockSizeException(e.getMessage());
+		}
+		return out.array();
+	}
+	
+	/**
+	 * Session mode decryption, with the key derived for the sender session and epoch given by message header.
+	 * @param encryptedData data encrypted in session mode
+	 * @return serialized object
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	private byte[] decryptInSession(byte[] encryptedData) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		if(encryptedData.length < KeyAgreementSession.HEADER_SIZE) {
+			throw new IllegalBlockSizeException("Malformed session encrypted data");
+		}
+		SymmetricEncryptionMethod method = this.getReceivingMethod(ByteBuffer.wrap(Arrays.copyOf(encryptedData, KeyAgreementSession.HEADER_SIZE)));
+		ByteBuffer out = ByteBuffer.allocate(encryptedData.length - KeyAgreementSession.HEADER_SIZE);
+		try {
+			method.decrypt(ByteBuffer.wrap(encryptedData, KeyAgreementSession.HEADER_SIZE, out.capacity()), out);
+		} catch (ShortBufferException e) {
+			throw new IllegalBlockSizeException(e.getMessage());
+		}
+		return Arrays.copyOf(out.array(), out.position());
+	}
+	
+	/**
+	 * Gives the session mode receiving method for a message header, deriving it only if not already known.
+	 * @param header message header (session id and epoch)
+	 * @return symmetric method of the sender session epoch
+	 * @throws InvalidKeyException
+	 */
+	private SymmetricEncryptionMethod getReceivingMethod(ByteBuffer header) throws InvalidKeyException {
+		PublicKey peer = this.correspondentPublicKey;
+		ReceivingAgreement agreement = this.receivingAgreement;
+		if(agreement == null || !agreement.peer.equals(peer)) {
+			long start = EncryptionMetrics.start();
+			agreement = new ReceivingAgreement(peer, KeyAgreementKem.agree(this.getAlgorithm(), this.getPrivateKey(), peer), KeyAgreementSession.info(peer, this.getPublicKey()));
+			EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.CIPHER_INIT, start, 0, 0);
+			this.receivingMethods.clear();
+			this.receivingAgreement = agreement;
+		}
+		SymmetricEncryptionMethod method = this.receivingMethods.get(header);
+		if(method == null) {
+			method = KeyAgreementSession.deriveMethod(agreement.secret, agreement.info, header.getLong(0), header.getInt(8));
+			this.receivingMethods.put(header, method);
+		}
+		return method;
+	}
+	
+	/**
+	 * Hybrid mode decryption.
+	 * @param cipher asymmetric cipher, to unwrap session key
+	 * @param encryptedData data encrypted in hybrid mode
+	 * @return serialized object
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	private byte[] decryptHybrid(Cipher cipher, byte[] encryptedData) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		ByteBuffer in = ByteBuffer.wrap(encryptedData);
+		int wrappedKeyLength = in.remaining() >= 2 ? in.getShort() & 0xFFFF : -1;
+		if(wrappedKeyLength < 0 || in.remaining() < wrappedKeyLength + HYBRID_IV_SIZE) {
+			throw new IllegalBlockSizeException("Malformed hybrid encrypted data");
+		}
+		
+		SecretKey key = this.resolveSessionKey(cipher, ByteBuffer.wrap(encryptedData, 2, wrappedKeyLength).slice());
+		int ivOffset = 2 + wrappedKeyLength;
+		Cipher payloadCipher = this.initPayloadCipher(Cipher.DECRYPT_MODE, key, Arrays.copyOfRange(encryptedData, ivOffset, ivOffset + HYBRID_IV_SIZE));
+		return payloadCipher.doFinal(encryptedData, ivOffset + HYBRID_IV_SIZE, encryptedData.length - ivOffset - HYBRID_IV_SIZE);
+	}
+	
+	/**
+	 * Gives a session key to encrypt a message for the given correspondent, reusing the current one if still valid.
+	 * @param state asymmetric cipher, to wrap a new session key (unused with key agreement algorithms), 
+	 * 		initialized for wrapping only if not already with the public key
+	 * @param publicKey correspondent public key
+	 * @return session key and its wrapped form
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 */
+	private SessionKey acquireSessionKey(CipherState state, PublicKey publicKey) throws InvalidKeyException, IllegalBlockSizeException {
+		if(this.sessionKeyMaxMessages > 1) {
+			SessionKey sessionKey = this.sessionKeys.get(publicKey);
+			if(sessionKey != null && sessionKey.acquire()) {
+				return sessionKey;
+			}
+		}
+		
+		SessionKey sessionKey;
+		if(this.getAlgorithm().isKeyAgreement()) {
+			long start = EncryptionMetrics.start();
+			KeyAgreementKem.Encapsulation encapsulation = KeyAgreementKem.encapsulate(this.getAlgorithm(), publicKey);
+			EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.CIPHER_INIT, start, 0, 0);
+			sessionKey = new SessionKey(encapsulation.key, encapsulation.encapsulatedKey, this.sessionKeyMaxMessages - 1, this.sessionKeyMaxAgeMillis);
+		} else {
+			SecretKey key = SymmetricEncryptionMethod.buildSecretKey(HYBRID_SESSION_KEY_ALGO);
+			state.initialize(Cipher.WRAP_MODE, publicKey, this.algo);
+			sessionKey = new SessionKey(key, state.cipher.wrap(key), this.sessionKeyMaxMessages - 1, this.sessionKeyMaxAgeMillis);
+		}
+		if(this.sessionKeyMaxMessages > 1) {
+			this.sessionKeys.put(publicKey, sessionKey);
+		}
+		return sessionKey;
+	}
+	
+	/**
+	 * Gives the session key corresponding to the given wrapped one, unwrapping it only if not already known.
+	 * @param cipher asymmetric cipher, to unwrap session key if needed
+	 * @param wrappedKey wrapped session key (possibly a view of caller's data, copied before being kept)
+	 * @return session key
+	 * @throws InvalidKeyException
+	 */
+	private SecretKey resolveSessionKey(Cipher cipher, ByteBuffer wrappedKey) throws InvalidKeyException {
+		SecretKey key = this.unwrappedSessionKeys.get(wrappedKey);
+		if(key == null) {
+			key = this.unwrapSessionKey(cipher, wrappedKey);
+			if(this.sessionKeyMaxMessages > 1) { //Caller's array may be reused or altered, and must not be kept alive
+				byte[] wrapped = new byte[wrappedKey.remaining()];
+				wrappedKey.duplicate().get(wrapped);
+				this.unwrappedSessionKeys.put(ByteBuffer.wrap(wrapped), key);
+			}
+		}
+		return key;
+	}
+	
+	/**
+	 * Decrypts (unwraps) a session key with the private key, or decapsulates it with key agreement algorithms.
+	 * @param cipher asymmetric cipher (unused with key agreement algorithms)
+	 * @param wrappedKey wrapped session key
+	 * @return session key
+	 * @throws InvalidKeyException
+	 */
+	private SecretKey unwrapSessionKey(Cipher cipher, ByteBuffer wrappedKey) throws InvalidKeyException {
+		byte[] wrapped = new byte[wrappedKey.remaining()];
+		wrappedKey.duplicate().get(wrapped);
+		long start = EncryptionMetrics.start();
+		if(this.getAlgorithm().isKeyAgreement()) {
+			SecretKey key = KeyAgreementKem.decapsulate(this.getAlgorithm(), this.keyPair, wrapped);
+			EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.CIPHER_INIT, start, 0, 0);
+			return key;
+		}
+		cipher.init(Cipher.UNWRAP_MODE, this.getPrivateKey());
+		EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.CIPHER_INIT, start, 0, 0);
+		try {
+			return (SecretKey)cipher.unwrap(wrapped, HYBRID_SESSION_KEY_ALGO.getAlgo(), Cipher.SECRET_KEY);
+		} catch (NoSuchAlgorithmException e) {
+			throw new InvalidKeyException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Initializes the calling thread's payload cipher.
+	 * @param mode encryption or decryption mode
+	 * @param key session key
+	 * @param iv nonce
+	 * @return initialized cipher
+	 * @throws InvalidKeyException
+	 */
+	private Cipher initPayloadCipher(int mode, Key key, byte[] iv) throws InvalidKeyException {
+		Cipher payloadCipher = this.payloadCiphers.get();
+		long start = EncryptionMetrics.start();
+		try {
+			payloadCipher.init(mode, key, new GCMParameterSpec(HYBRID_TAG_SIZE, iv));
+		} catch (InvalidAlgorithmParameterException e) {
+			throw new InvalidKeyException(e.getMessage(), e);
+		}
+		EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.CIPHER_INIT, start, 0, 0);
+		return payloadCipher;
 	}
 
 	@Override
@@ -185,22 +791,30 @@ public class AsymmetricEncryptionMethod extends EncryptionMethod {
 
 	@Override
 	public String encryptToBase64String(Encryptable data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
-        return Base64.getEncoder().encodeToString(this.encrypt(data));
+        return this.encodeBase64(this.encrypt(data));
 	}
 
 	/**
 	 * Asymmetric implementation of the method defined in {@link vernusset.cryptUtils.EncryptionMethod EncryptionMethod}.
+	 * Initialization is skipped for an already initialized cipher, unless in hybrid mode.
 	 * @throws InvalidKeyException 
-	 * @throws IOException 
-	 * @throws NotEncryptableException 
 	 * @throws BadPaddingException 
 	 * @throws IllegalBlockSizeException 
-	 * @throws ClassNotFoundException 
 	 */
 	@Override
-	protected Encryptable decrypt(byte[] encryptedData) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException  {
-    	super.cipher.init(Cipher.DECRYPT_MODE, this.getPrivateKey());
-        return super.deserialize(super.cipher.doFinal(encryptedData));
+	protected byte[] decryptSerialized(Cipher cipher, byte[] encryptedData, boolean initialized) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException  {
+		if(this.sessionMode) {
+			return this.decryptInSession(encryptedData);
+		}
+		if(this.hybrid) {
+			return this.decryptHybrid(cipher, encryptedData);
+		}
+		if(!initialized) {
+			long start = EncryptionMetrics.start();
+			cipher.init(Cipher.DECRYPT_MODE, this.getPrivateKey());
+			EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.CIPHER_INIT, start, 0, 0);
+		}
+        return cipher.doFinal(encryptedData);
 	}
 
 	@Override
@@ -210,6 +824,131 @@ public class AsymmetricEncryptionMethod extends EncryptionMethod {
 
 	@Override
 	public Encryptable decryptFromBase64String(String encryptedData) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException  {
-    	return this.decrypt(Base64.getDecoder().decode(encryptedData));
+    	return this.decrypt(this.decodeBase64(encryptedData, Base64Codec.STANDARD));
+	}
+	
+	/**
+	 * Encrypts an object once for many correspondents (multi-recipient envelope): 
+	 * payload is serialized and encrypted with AES-GCM under a random content key, 
+	 * and only the content key is encrypted with each correspondent public key, in its own key slot.
+	 * Objects of any size can be encrypted, whatever the hybrid mode.
+	 * @param recipients correspondents public keys (each correspondent must know its own index to decrypt)
+	 * @param data object to encrypt
+	 * @return envelope
+	 * @throws InvalidKeyException 
+	 * @throws IllegalBlockSizeException 
+	 * @throws BadPaddingException 
+	 * @throws IOException 
+	 * @throws NotEncryptableException 
+	 */
+	public byte[] encryptForAll(List<PublicKey> recipients, Encryptable data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+		byte[] serialized = this.serialize(data);
+		Cipher cipher = this.getCipher();
+		return MultiRecipientEnvelope.seal(serialized, serialized.length, recipients.size(), (slot, contentKey) -> {
+			if(this.getAlgorithm().isKeyAgreement()) {
+				return KeyAgreementKem.wrap(this.getAlgorithm(), recipients.get(slot), contentKey);
+			}
+			cipher.init(Cipher.ENCRYPT_MODE, recipients.get(slot));
+			return cipher.doFinal(contentKey);
+		});
+	}
+	
+	/**
+	 * Decrypts a multi-recipient envelope built by {@link #encryptForAll(List, Encryptable) encryptForAll}, 
+	 * using only the key slot at the given index (other correspondents' slots are never read).
+	 * @param envelope multi-recipient envelope
+	 * @param slot index of this instance's public key among envelope recipients
+	 * @return decrypted object
+	 * @throws InvalidKeyException 
+	 * @throws ClassNotFoundException 
+	 * @throws IllegalBlockSizeException if envelope is malformed, or has no such slot
+	 * @throws BadPaddingException if key slot is not this instance's one, or envelope has been altered
+	 * @throws NotEncryptableException 
+	 * @throws IOException 
+	 */
+	public Encryptable decryptFromEnvelope(byte[] envelope, int slot) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException {
+		Cipher cipher = this.getCipher();
+		return this.deserialize(MultiRecipientEnvelope.open(envelope, slot, encryptedKey -> {
+			if(this.getAlgorithm().isKeyAgreement()) {
+				return KeyAgreementKem.unwrap(this.getAlgorithm(), this.keyPair, encryptedKey);
+			}
+			cipher.init(Cipher.DECRYPT_MODE, this.getPrivateKey());
+			return cipher.doFinal(encryptedKey);
+		}));
+	}
+	
+	/**
+	 * In hybrid and session modes, payload is encrypted in bounded chunks. 
+	 * Otherwise, data is buffered until closing, which is bounded anyway by the asymmetric key size.
+	 */
+	@Override
+	protected OutputStream openEncryptionStream(final OutputStream out) throws InvalidKeyException, IOException {
+		if(this.sessionMode) {
+			return this.getSession(this.correspondentPublicKey).openEncryptionStream(out);
+		}
+		if(this.hybrid) {
+			SessionKey sessionKey;
+			try {
+				sessionKey = this.acquireSessionKey(new CipherState(super.getCipher()), this.correspondentPublicKey);
+			} catch (IllegalBlockSizeException e) {
+				throw new InvalidKeyException(e.getMessage(), e);
+			}
+			byte[] iv = new byte[HYBRID_IV_SIZE];
+			RANDOM.nextBytes(iv);
+			
+			DataOutputStream header = new DataOutputStream(out);
+			header.writeShort(sessionKey.wrappedKey.length);
+			header.write(sessionKey.wrappedKey);
+			header.write(iv);
+			return new CipherOutputStream(out, this.initPayloadCipher(Cipher.ENCRYPT_MODE, sessionKey.key, iv));
+		}
+		
+		final Cipher cipher = super.getCipher();
+		cipher.init(Cipher.ENCRYPT_MODE, this.correspondentPublicKey);
+		return new ByteArrayOutputStream() {
+			@Override
+			public void close() throws IOException {
+				try {
+					out.write(cipher.doFinal(this.buf, 0, this.count));
+				} catch (IllegalBlockSizeException | BadPaddingException e) {
+					throw new IOException(e);
+				} finally {
+					out.close();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * In hybrid and session modes, note that AES-GCM authenticates the whole payload before releasing any decrypted data.
+	 */
+	@Override
+	protected InputStream openDecryptionStream(InputStream in) throws InvalidKeyException, IOException {
+		if(this.sessionMode) {
+			byte[] header = new byte[KeyAgreementSession.HEADER_SIZE];
+			new DataInputStream(in).readFully(header);
+			return this.getReceivingMethod(ByteBuffer.wrap(header)).openDecryptionStream(in);
+		}
+		if(this.hybrid) {
+			DataInputStream header = new DataInputStream(in);
+			byte[] wrappedKey = new byte[header.readUnsignedShort()];
+			header.readFully(wrappedKey);
+			byte[] iv = new byte[HYBRID_IV_SIZE];
+			header.readFully(iv);
+			return new CipherInputStream(in, this.initPayloadCipher(Cipher.DECRYPT_MODE, this.resolveSessionKey(super.getCipher(), ByteBuffer.wrap(wrappedKey)), iv));
+		}
+		
+		Cipher cipher = super.getCipher();
+		cipher.init(Cipher.DECRYPT_MODE, this.getPrivateKey());
+		ByteArrayOutputStream encryptedData = new ByteArrayOutputStream();
+		byte[] chunk = new byte[STREAM_CHUNK_SIZE];
+		for(int read; (read = in.read(chunk)) >= 0; ) {
+			encryptedData.write(chunk, 0, read);
+		}
+		try {
+			return new ByteArrayInputStream(cipher.doFinal(encryptedData.toByteArray()));
+		} catch (IllegalBlockSizeException | BadPaddingException e) {
+			throw new IOException(e);
+		}
 	}
 }
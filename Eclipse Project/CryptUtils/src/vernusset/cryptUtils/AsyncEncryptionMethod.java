@@ -0,0 +1,278 @@
+package vernusset.cryptUtils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+
+
+/**
+ *
+ * Asynchronous facade of an encryption method: every encryption/decryption is run in an executor,
+ * and gives a CompletableFuture completed with its result, or exceptionally with the exception it raised.
+ * At most a given number of operations run at the same time: others are queued (without blocking any thread)
+ * until a running one completes, so that bursts of costly operations (asymmetric ones) do not overload processors.
+ *
+ * Default executor is a shared pool of daemon threads, one per available processor (the default maximum number of operations in flight):
+ * ciphers, hybrid payload ciphers and compression states of thread safe methods are kept per thread, and thus reused across operations.
+ * With a virtual thread per task executor, each operation would run on a fresh thread, building all of them again
+ * (including native deflaters/inflaters, released only by garbage collection): virtual threads bring nothing
+ * to these CPU bound operations, whose concurrency is already bounded.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class AsyncEncryptionMethod {
+
+	/**
+	 * Default maximum number of operations running at the same time: one per available processor, operations being CPU bound.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = Runtime.getRuntime().availableProcessors();
+
+
+	/**
+	 * Asynchronous operation.
+	 * @param <T> type of result
+	 */
+	private interface Operation<T> {
+		T run() throws Exception;
+	}
+
+	/**
+	 * Lazily built default executor.
+	 */
+	private static class DefaultExecutor {
+		private static final Executor INSTANCE = build();
+
+		private static Executor build() {
+			AtomicInteger threadCount = new AtomicInteger();
+			return Executors.newFixedThreadPool(DEFAULT_MAX_IN_FLIGHT, runnable -> {
+				Thread thread = new Thread(runnable, "CryptUtils-async-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+
+	private final EncryptionMethod method;
+	private final Executor executor;
+	private final int maxInFlight;
+
+	private final Queue<PendingOperation<?>> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+
+	/**
+	 * Constructor.
+	 * Uses default executor and maximum number of operations in flight.
+	 * @param method encryption method to run asynchronously (switched to thread safe mode)
+	 */
+	public AsyncEncryptionMethod(EncryptionMethod method) {
+		this(method, DefaultExecutor.INSTANCE, DEFAULT_MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * Constructor.
+	 * @param method encryption method to run asynchronously (switched to thread safe mode)
+	 * @param executor executor to run operations in, preferably with long lived threads (per-thread ciphers being built on each new thread)
+	 * @param maxInFlight maximum number of operations running at the same time
+	 */
+	public AsyncEncryptionMethod(EncryptionMethod method, Executor executor, int maxInFlight) {
+		if(maxInFlight <= 0) {
+			throw new IllegalArgumentException("Maximum number of operations in flight must be positive. Given: " + maxInFlight);
+		}
+		method.setThreadSafe(true);
+		this.method = method;
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Getter.
+	 * @return wrapped encryption method
+	 */
+	public EncryptionMethod getEncryptionMethod() {
+		return this.method;
+	}
+
+	/**
+	 * Getter.
+	 * @return maximum number of operations running at the same time
+	 */
+	public int getMaxInFlight() {
+		return this.maxInFlight;
+	}
+
+	/**
+	 * Getter.
+	 * @return number of operations currently running
+	 */
+	public int getInFlightCount() {
+		return this.inFlight.get();
+	}
+
+	/**
+	 * Getter.
+	 * @return number of operations waiting for a running one to complete
+	 */
+	public int getPendingCount() {
+		return this.pending.size();
+	}
+
+
+	/**
+	 * Asynchronous version of {@link EncryptionMethod#encryptToBytesArray(Encryptable)}.
+	 * @param data object to encrypt
+	 * @return future bytes array encrypted data
+	 */
+	public CompletableFuture<byte[]> encryptToBytesArray(Encryptable data) {
+		return this.submit(() -> this.method.encryptToBytesArray(data));
+	}
+
+	/**
+	 * Asynchronous version of {@link EncryptionMethod#encryptToBase64String(Encryptable)}.
+	 * @param data object to encrypt
+	 * @return future Base64 encrypted data
+	 */
+	public CompletableFuture<String> encryptToBase64String(Encryptable data) {
+		return this.submit(() -> this.method.encryptToBase64String(data));
+	}
+
+	/**
+	 * Asynchronous version of {@link EncryptionMethod#decryptFromBytesArray(byte[])}.
+	 * @param encryptedData bytes array encrypted data
+	 * @return future decrypted object
+	 */
+	public CompletableFuture<Encryptable> decryptFromBytesArray(byte[] encryptedData) {
+		return this.submit(() -> this.method.decryptFromBytesArray(encryptedData));
+	}
+
+	/**
+	 * Asynchronous version of {@link EncryptionMethod#decryptFromBase64String(String)}.
+	 * @param encryptedData Base64 encrypted data
+	 * @return future decrypted object
+	 */
+	public CompletableFuture<Encryptable> decryptFromBase64String(String encryptedData) {
+		return this.submit(() -> this.method.decryptFromBase64String(encryptedData));
+	}
+
+	/**
+	 * Asynchronous version of {@link EncryptionMethod#encryptTo(Encryptable, OutputStream)}.
+	 * Stream must not be used until future completes.
+	 * @param data object to encrypt
+	 * @param out stream to write encrypted data to (not closed)
+	 * @return future completed once encrypted data is written
+	 */
+	public CompletableFuture<Void> encryptTo(Encryptable data, OutputStream out) {
+		return this.submit(() -> {
+			this.method.encryptTo(data, out);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link EncryptionMethod#decryptFrom(InputStream)}.
+	 * Stream must not be used until future completes.
+	 * @param in stream to read encrypted data from (not closed)
+	 * @return future decrypted object
+	 */
+	public CompletableFuture<Encryptable> decryptFrom(InputStream in) {
+		return this.submit(() -> this.method.decryptFrom(in));
+	}
+
+	/**
+	 * Asynchronous version of {@link EncryptionMethod#encryptAll(List)}: the whole batch counts as one operation in flight.
+	 * @param data objects to encrypt
+	 * @return future encryption results (encrypted data or error), in input order
+	 */
+	public CompletableFuture<List<BatchResult<byte[]>>> encryptAll(List<? extends Encryptable> data) {
+		return this.submit(() -> this.method.encryptAll(data));
+	}
+
+	/**
+	 * Asynchronous version of {@link EncryptionMethod#decryptAll(List)}: the whole batch counts as one operation in flight.
+	 * @param encryptedData bytes arrays encrypted data
+	 * @return future decryption results (decrypted object or error), in input order
+	 */
+	public CompletableFuture<List<BatchResult<Encryptable>>> decryptAll(List<byte[]> encryptedData) {
+		return this.submit(() -> this.method.decryptAll(encryptedData));
+	}
+
+
+	/**
+	 * Queues an operation, then runs as many queued operations as allowed.
+	 * @param operation operation to run
+	 * @return future result of operation
+	 */
+	private <T> CompletableFuture<T> submit(Operation<T> operation) {
+		PendingOperation<T> pending = new PendingOperation<>(operation);
+		this.pending.add(pending);
+		this.drain();
+		return pending.future;
+	}
+
+	/**
+	 * Hands queued operations to executor while less than the maximum number are in flight.
+	 */
+	private void drain() {
+		while(true) {
+			int current = this.inFlight.get();
+			if(current >= this.maxInFlight) {
+				return; //A running operation will drain queue on completion
+			}
+			if(!this.inFlight.compareAndSet(current, current + 1)) {
+				continue;
+			}
+			PendingOperation<?> operation = this.pending.poll();
+			if(operation == null) {
+				this.inFlight.decrementAndGet();
+				if(this.pending.isEmpty()) {
+					return;
+				}
+				continue; //Queued meanwhile by a thread which saw no free slot
+			}
+			try {
+				this.executor.execute(operation);
+			} catch (RuntimeException e) { //Rejected by executor
+				operation.future.completeExceptionally(e);
+				this.inFlight.decrementAndGet();
+			}
+		}
+	}
+
+
+	/**
+	 * Queued operation, and its future result.
+	 * @param <T> type of result
+	 */
+	private class PendingOperation<T> implements Runnable {
+		private final Operation<T> operation;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+
+		private PendingOperation(Operation<T> operation) {
+			this.operation = operation;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if(!this.future.isDone()) { //Skipped if cancelled while queued
+					this.future.complete(this.operation.run());
+				}
+			} catch (Throwable e) {
+				this.future.completeExceptionally(e);
+			} finally {
+				AsyncEncryptionMethod.this.inFlight.decrementAndGet();
+				AsyncEncryptionMethod.this.drain();
+			}
+		}
+	}
+}
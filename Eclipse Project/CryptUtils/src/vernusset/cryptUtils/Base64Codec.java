@@ -0,0 +1,402 @@
+package vernusset.cryptUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+
+/**
+ *
+ * Base64 encoder/decoder working on caller supplied buffers:
+ * encodes to a bytes array, a ByteBuffer or any Appendable (StringBuilder, Writer...),
+ * and decodes straight from a CharSequence or a ByteBuffer, without any intermediate copy.
+ * Standard (RFC 4648 section 4) or URL safe (section 5) alphabet, with or without padding.
+ * Encoded and decoded sizes are given exactly, so that buffers can be sized beforehand.
+ *
+ * As with {@link java.util.Base64}, decoding accepts input with or without padding,
+ * and rejects characters outside of the alphabet (line separators included).
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public final class Base64Codec {
+
+	/**
+	 * Standard alphabet, with padding (same output as {@link java.util.Base64#getEncoder()}).
+	 */
+	public static final Base64Codec STANDARD = new Base64Codec(false, true);
+
+	/**
+	 * Standard alphabet, without padding.
+	 */
+	public static final Base64Codec STANDARD_NO_PADDING = new Base64Codec(false, false);
+
+	/**
+	 * URL and file name safe alphabet, with padding.
+	 */
+	public static final Base64Codec URL_SAFE = new Base64Codec(true, true);
+
+	/**
+	 * URL and file name safe alphabet, without padding.
+	 */
+	public static final Base64Codec URL_SAFE_NO_PADDING = new Base64Codec(true, false);
+
+	private static final byte PAD = '=';
+
+	private final boolean urlSafe;
+	private final boolean padding;
+	private final byte[] alphabet;
+	private final int[] values = new int[128];
+
+
+	private Base64Codec(boolean urlSafe, boolean padding) {
+		this.urlSafe = urlSafe;
+		this.padding = padding;
+		this.alphabet = ("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789" + (urlSafe ? "-_" : "+/")).getBytes(StandardCharsets.US_ASCII);
+		Arrays.fill(this.values, -1);
+		for(int i = 0; i < this.alphabet.length; i++) {
+			this.values[this.alphabet[i]] = i;
+		}
+	}
+
+	/**
+	 * Gives one of the predefined codecs.
+	 * @param urlSafe true for URL and file name safe alphabet, false for standard one
+	 * @param padding true to pad encoded data with '=' characters
+	 * @return codec
+	 */
+	public static Base64Codec of(boolean urlSafe, boolean padding) {
+		return urlSafe ? (padding ? URL_SAFE : URL_SAFE_NO_PADDING) : (padding ? STANDARD : STANDARD_NO_PADDING);
+	}
+
+	/**
+	 * Getter.
+	 * @return true if URL and file name safe alphabet is used
+	 */
+	public boolean isUrlSafe() {
+		return this.urlSafe;
+	}
+
+	/**
+	 * Getter.
+	 * @return true if encoded data is padded
+	 */
+	public boolean isPadding() {
+		return this.padding;
+	}
+
+
+	/**
+	 * Gives the exact size of encoded data.
+	 * @param length length of data to encode, in bytes
+	 * @return number of characters of encoded data
+	 */
+	public int encodedLength(int length) {
+		long encoded = this.padding ? (length + 2L) / 3 * 4 : (length * 4L + 2) / 3;
+		if(encoded > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Encoded length exceeds maximum array size: " + encoded);
+		}
+		return (int)encoded;
+	}
+
+	/**
+	 * Gives the exact size of decoded data.
+	 * @param src encoded data
+	 * @return length of decoded data, in bytes
+	 * @throws IllegalArgumentException if encoded data length is not valid
+	 */
+	public int decodedLength(CharSequence src) {
+		int length = src.length();
+		if(length > 0 && src.charAt(length - 1) == PAD) {
+			length -= length > 1 && src.charAt(length - 2) == PAD ? 2 : 1;
+		}
+		return this.unpaddedDecodedLength(length);
+	}
+
+	/**
+	 * Gives the exact size of decoded data.
+	 * @param src encoded data (remaining bytes), left untouched
+	 * @return length of decoded data, in bytes
+	 * @throws IllegalArgumentException if encoded data length is not valid
+	 */
+	public int decodedLength(ByteBuffer src) {
+		int length = src.remaining(), last = src.limit() - 1;
+		if(length > 0 && src.get(last) == PAD) {
+			length -= length > 1 && src.get(last - 1) == PAD ? 2 : 1;
+		}
+		return this.unpaddedDecodedLength(length);
+	}
+
+	private int unpaddedDecodedLength(int length) {
+		if(length % 4 == 1) {
+			throw new IllegalArgumentException("Invalid Base64 encoded length: " + length + " characters without padding");
+		}
+		return length / 4 * 3 + Math.max(length % 4 - 1, 0);
+	}
+
+
+	/**
+	 * Encodes bytes to a bytes array (ASCII characters).
+	 * @param src data to encode
+	 * @param offset index of first byte to encode
+	 * @param length number of bytes to encode
+	 * @param dst array receiving encoded data, with at least {@link #encodedLength(int) encodedLength(length)} bytes after dstOffset
+	 * @param dstOffset index of first byte written
+	 * @return number of bytes written
+	 * @throws IllegalArgumentException if destination array is too small
+	 */
+	public int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+		int encodedLength = this.encodedLength(length);
+		if(dst.length - dstOffset < encodedLength) {
+			throw new IllegalArgumentException("Destination array too small. Needed: " + encodedLength + " bytes, available: " + (dst.length - dstOffset) + " bytes");
+		}
+		byte[] alphabet = this.alphabet;
+		int end = offset + length / 3 * 3, dp = dstOffset;
+		for(int sp = offset; sp < end; sp += 3) {
+			int bits = (src[sp] & 0xFF) << 16 | (src[sp + 1] & 0xFF) << 8 | (src[sp + 2] & 0xFF);
+			dst[dp++] = alphabet[bits >>> 18];
+			dst[dp++] = alphabet[bits >>> 12 & 0x3F];
+			dst[dp++] = alphabet[bits >>> 6 & 0x3F];
+			dst[dp++] = alphabet[bits & 0x3F];
+		}
+		int remaining = offset + length - end;
+		if(remaining > 0) {
+			int bits = (src[end] & 0xFF) << 16 | (remaining == 2 ? (src[end + 1] & 0xFF) << 8 : 0);
+			dst[dp++] = alphabet[bits >>> 18];
+			dst[dp++] = alphabet[bits >>> 12 & 0x3F];
+			if(remaining == 2) {
+				dst[dp++] = alphabet[bits >>> 6 & 0x3F];
+			} else if(this.padding) {
+				dst[dp++] = PAD;
+			}
+			if(this.padding) {
+				dst[dp++] = PAD;
+			}
+		}
+		return dp - dstOffset;
+	}
+
+	/**
+	 * Encodes remaining bytes of a buffer to another (ASCII characters), heap or direct ones.
+	 * Buffers positions are advanced accordingly.
+	 * @param src data to encode
+	 * @param dst buffer receiving encoded data, with at least {@link #encodedLength(int) encodedLength(src.remaining())} bytes remaining
+	 * @return number of bytes written
+	 * @throws IllegalArgumentException if destination buffer is too small
+	 */
+	public int encode(ByteBuffer src, ByteBuffer dst) {
+		int length = src.remaining(), encodedLength = this.encodedLength(length);
+		if(dst.remaining() < encodedLength) {
+			throw new IllegalArgumentException("Destination buffer too small. Needed: " + encodedLength + " bytes, remaining: " + dst.remaining() + " bytes");
+		}
+		if(src.hasArray() && dst.hasArray() && !dst.isReadOnly()) {
+			this.encode(src.array(), src.arrayOffset() + src.position(), length, dst.array(), dst.arrayOffset() + dst.position());
+			src.position(src.limit());
+			dst.position(dst.position() + encodedLength);
+			return encodedLength;
+		}
+		byte[] alphabet = this.alphabet;
+		for(; length >= 3; length -= 3) {
+			int bits = (src.get() & 0xFF) << 16 | (src.get() & 0xFF) << 8 | (src.get() & 0xFF);
+			dst.put(alphabet[bits >>> 18]).put(alphabet[bits >>> 12 & 0x3F]).put(alphabet[bits >>> 6 & 0x3F]).put(alphabet[bits & 0x3F]);
+		}
+		if(length > 0) {
+			int bits = (src.get() & 0xFF) << 16 | (length == 2 ? (src.get() & 0xFF) << 8 : 0);
+			dst.put(alphabet[bits >>> 18]).put(alphabet[bits >>> 12 & 0x3F]);
+			if(length == 2) {
+				dst.put(alphabet[bits >>> 6 & 0x3F]);
+			} else if(this.padding) {
+				dst.put(PAD);
+			}
+			if(this.padding) {
+				dst.put(PAD);
+			}
+		}
+		return encodedLength;
+	}
+
+	/**
+	 * Encodes bytes, appending characters one by one to the given destination (StringBuilder, Writer...).
+	 * @param src data to encode
+	 * @param offset index of first byte to encode
+	 * @param length number of bytes to encode
+	 * @param dst destination of encoded data
+	 * @return number of characters appended
+	 * @throws IOException if destination fails
+	 */
+	public int encode(byte[] src, int offset, int length, Appendable dst) throws IOException {
+		byte[] alphabet = this.alphabet;
+		int end = offset + length / 3 * 3;
+		for(int sp = offset; sp < end; sp += 3) {
+			int bits = (src[sp] & 0xFF) << 16 | (src[sp + 1] & 0xFF) << 8 | (src[sp + 2] & 0xFF);
+			dst.append((char)alphabet[bits >>> 18]).append((char)alphabet[bits >>> 12 & 0x3F])
+				.append((char)alphabet[bits >>> 6 & 0x3F]).append((char)alphabet[bits & 0x3F]);
+		}
+		int remaining = offset + length - end;
+		if(remaining > 0) {
+			int bits = (src[end] & 0xFF) << 16 | (remaining == 2 ? (src[end + 1] & 0xFF) << 8 : 0);
+			dst.append((char)alphabet[bits >>> 18]).append((char)alphabet[bits >>> 12 & 0x3F]);
+			if(remaining == 2) {
+				dst.append((char)alphabet[bits >>> 6 & 0x3F]);
+			} else if(this.padding) {
+				dst.append((char)PAD);
+			}
+			if(this.padding) {
+				dst.append((char)PAD);
+			}
+		}
+		return this.encodedLength(length);
+	}
+
+	/**
+	 * Encodes bytes to a string.
+	 * @param src data to encode
+	 * @return encoded data
+	 */
+	public String encodeToString(byte[] src) {
+		StringBuilder builder = new StringBuilder(this.encodedLength(src.length));
+		try {
+			this.encode(src, 0, src.length, builder);
+		} catch (IOException e) { //Not raised by StringBuilder
+			throw new IllegalStateException(e);
+		}
+		return builder.toString();
+	}
+
+
+	/**
+	 * Decodes characters to a new bytes array of exact size.
+	 * @param src encoded data
+	 * @return decoded data
+	 * @throws IllegalArgumentException if encoded data is not valid
+	 */
+	public byte[] decode(CharSequence src) {
+		byte[] dst = new byte[this.decodedLength(src)];
+		this.decode(src, dst, 0);
+		return dst;
+	}
+
+	/**
+	 * Decodes characters to a bytes array.
+	 * @param src encoded data
+	 * @param dst array receiving decoded data, with at least {@link #decodedLength(CharSequence) decodedLength(src)} bytes after dstOffset
+	 * @param dstOffset index of first byte written
+	 * @return number of bytes written
+	 * @throws IllegalArgumentException if encoded data is not valid, or destination array is too small
+	 */
+	public int decode(CharSequence src, byte[] dst, int dstOffset) {
+		int decodedLength = this.decodedLength(src);
+		if(dst.length - dstOffset < decodedLength) {
+			throw new IllegalArgumentException("Destination array too small. Needed: " + decodedLength + " bytes, available: " + (dst.length - dstOffset) + " bytes");
+		}
+		int length = this.checkPadding(src.length(), decodedLength);
+		int end = length & ~3, dp = dstOffset;
+		for(int sp = 0; sp < end; sp += 4) {
+			int bits = this.value(src.charAt(sp), sp) << 18 | this.value(src.charAt(sp + 1), sp + 1) << 12
+					| this.value(src.charAt(sp + 2), sp + 2) << 6 | this.value(src.charAt(sp + 3), sp + 3);
+			dst[dp++] = (byte)(bits >> 16);
+			dst[dp++] = (byte)(bits >> 8);
+			dst[dp++] = (byte)bits;
+		}
+		if(length > end) {
+			int bits = this.value(src.charAt(end), end) << 18 | this.value(src.charAt(end + 1), end + 1) << 12
+					| (length - end == 3 ? this.value(src.charAt(end + 2), end + 2) << 6 : 0);
+			dst[dp++] = (byte)(bits >> 16);
+			if(length - end == 3) {
+				dst[dp++] = (byte)(bits >> 8);
+			}
+		}
+		return decodedLength;
+	}
+
+	/**
+	 * Decodes remaining bytes (ASCII characters) of a buffer to another, heap or direct ones.
+	 * Buffers positions are advanced accordingly.
+	 * @param src encoded data
+	 * @param dst buffer receiving decoded data, with at least {@link #decodedLength(ByteBuffer) decodedLength(src)} bytes remaining
+	 * @return number of bytes written
+	 * @throws IllegalArgumentException if encoded data is not valid, or destination buffer is too small
+	 */
+	public int decode(ByteBuffer src, ByteBuffer dst) {
+		int decodedLength = this.decodedLength(src);
+		if(dst.remaining() < decodedLength) {
+			throw new IllegalArgumentException("Destination buffer too small. Needed: " + decodedLength + " bytes, remaining: " + dst.remaining() + " bytes");
+		}
+		int start = src.position(), length = this.checkPadding(src.remaining(), decodedLength);
+		int end = start + (length & ~3);
+		for(int sp = start; sp < end; sp += 4) {
+			int bits = this.value(src.get(sp), sp - start) << 18 | this.value(src.get(sp + 1), sp + 1 - start) << 12
+					| this.value(src.get(sp + 2), sp + 2 - start) << 6 | this.value(src.get(sp + 3), sp + 3 - start);
+			dst.put((byte)(bits >> 16)).put((byte)(bits >> 8)).put((byte)bits);
+		}
+		if(start + length > end) {
+			int bits = this.value(src.get(end), end - start) << 18 | this.value(src.get(end + 1), end + 1 - start) << 12
+					| (start + length - end == 3 ? this.value(src.get(end + 2), end + 2 - start) << 6 : 0);
+			dst.put((byte)(bits >> 16));
+			if(start + length - end == 3) {
+				dst.put((byte)(bits >> 8));
+			}
+		}
+		src.position(src.limit());
+		return decodedLength;
+	}
+
+	/**
+	 * Checks that padded input is complete (padding is optional, but must then fill the last quantum).
+	 * @param length encoded length, padding included
+	 * @param decodedLength decoded length
+	 * @return encoded length without padding
+	 */
+	private int checkPadding(int length, int decodedLength) {
+		int unpadded = (int)((decodedLength * 4L + 2) / 3);
+		if(length != unpadded && length != ((unpadded + 3) & ~3)) {
+			throw new IllegalArgumentException("Invalid Base64 padding");
+		}
+		return unpadded;
+	}
+
+	/**
+	 * @param c encoded character
+	 * @param index character index, for error message
+	 * @return 6 bits value of the character
+	 * @throws IllegalArgumentException if character is not part of alphabet
+	 */
+	private int value(int c, int index) {
+		int value = c >= 0 && c < 128 ? this.values[c] : -1;
+		if(value < 0) {
+			throw new IllegalArgumentException("Illegal Base64 character 0x" + Integer.toHexString(c & 0xFFFF) + " at index " + index);
+		}
+		return value;
+	}
+
+
+	/**
+	 * Wraps an output stream so that bytes written to it are Base64 encoded on the fly.
+	 * Closing the returned stream writes final characters (and padding), then closes the given stream.
+	 * @param out stream to write encoded data to
+	 * @return encoding stream
+	 */
+	public OutputStream wrap(OutputStream out) {
+		Base64.Encoder encoder = this.urlSafe ? Base64.getUrlEncoder() : Base64.getEncoder();
+		return (this.padding ? encoder : encoder.withoutPadding()).wrap(out);
+	}
+
+	/**
+	 * Wraps an input stream so that Base64 encoded data read from it is decoded on the fly.
+	 * @param in stream to read encoded data from
+	 * @return decoding stream
+	 */
+	public InputStream wrap(InputStream in) {
+		return (this.urlSafe ? Base64.getUrlDecoder() : Base64.getDecoder()).wrap(in);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.getClass().getSimpleName() + "]{urlSafe=" + this.urlSafe + ", padding=" + this.padding + "}";
+	}
+}
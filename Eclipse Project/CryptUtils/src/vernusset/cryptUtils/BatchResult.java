@@ -0,0 +1,68 @@
+package vernusset.cryptUtils;
+
+/**
+ *
+ * Outcome of the encryption/decryption of one item of a batch: either a value or the error that prevented it.
+ *
+ * @author Maxime VERNUSSET
+ *
+ * @param <T> type of value (encrypted data or decrypted object)
+ */
+public class BatchResult<T> {
+
+	private final T value;
+	private final Exception error;
+
+
+	private BatchResult(T value, Exception error) {
+		this.value = value;
+		this.error = error;
+	}
+
+	/**
+	 *
+	 * @param value successfully computed value
+	 * @return successful result
+	 */
+	static <T> BatchResult<T> success(T value) {
+		return new BatchResult<>(value, null);
+	}
+
+	/**
+	 *
+	 * @param error error that prevented computing the value
+	 * @return failed result
+	 */
+	static <T> BatchResult<T> failure(Exception error) {
+		return new BatchResult<>(null, error);
+	}
+
+	/**
+	 * Getter.
+	 * @return true if item was successfully encrypted/decrypted
+	 */
+	public boolean isSuccess() {
+		return this.error == null;
+	}
+
+	/**
+	 * Getter.
+	 * @return encrypted data or decrypted object (null if failed)
+	 */
+	public T getValue() {
+		return this.value;
+	}
+
+	/**
+	 * Getter.
+	 * @return error that prevented encryption/decryption (null if succeeded)
+	 */
+	public Exception getError() {
+		return this.error;
+	}
+
+	@Override
+	public String toString() {
+		return ("[" + this.getClass().getSimpleName() + "]{" + (this.isSuccess() ? "value=" + this.value : "error=" + this.error) + "}");
+	}
+}
@@ -0,0 +1,179 @@
+package vernusset.cryptUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+import vernusset.cryptUtils.exceptions.NotEncryptableException;
+import vernusset.cryptUtils.serialization.CompactSerializer;
+import vernusset.cryptUtils.serialization.EncryptableSerializer;
+
+
+/**
+ *
+ * Blind index, for equality search over encrypted values: a keyed HMAC-SHA256 of each value canonical bytes, truncated.
+ * Stored next to encrypted values, blind indexes turn equality lookups into hash table probes,
+ * without decrypting every stored value: only the candidates sharing the index of the searched value are decrypted and compared.
+ *
+ * The index key must be distinct from the encryption key.
+ * Truncation trades leakage against collisions: the shorter the index, the more distinct values share it
+ * (hiding which stored values are equal), but the more candidates are decrypted per lookup
+ * (see {@link #suggestIndexSize(long, double) suggestIndexSize}).
+ *
+ * Canonical bytes are given by a serializer, {@link CompactSerializer} by default (raw UTF-8 for
+ * {@link vernusset.cryptUtils.encryptableObjects.EncryptableString EncryptableString}): equal values must be serialized identically.
+ * Thread safe.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class BlindIndex {
+
+	/**
+	 * MAC algorithm, and algorithm of index keys.
+	 */
+	public static final String MAC_ALGORITHM = Hkdf.MAC_ALGORITHM;
+
+	/**
+	 * Maximum index size (untruncated MAC size), in bytes.
+	 */
+	public static final int MAX_INDEX_SIZE = 32;
+
+	/**
+	 * Default index size, in bytes.
+	 */
+	public static final int DEFAULT_INDEX_SIZE = 8;
+
+	private static final EncryptableSerializer DEFAULT_SERIALIZER = new CompactSerializer();
+
+
+	private final SecretKey indexKey;
+	private final int indexSize;
+	private final EncryptableSerializer serializer;
+
+	/**
+	 * MACs initialized with index key, per thread.
+	 */
+	private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+
+	/**
+	 * Constructor, with {@link #DEFAULT_INDEX_SIZE default index size} and serializer.
+	 * @param indexKey index key (distinct from encryption key), see {@link #buildIndexKey()}
+	 * @throws InvalidKeyException if key is not suitable for HMAC-SHA256
+	 */
+	public BlindIndex(SecretKey indexKey) throws InvalidKeyException {
+		this(indexKey, DEFAULT_INDEX_SIZE, DEFAULT_SERIALIZER);
+	}
+
+	/**
+	 * Constructor.
+	 * @param indexKey index key (distinct from encryption key), see {@link #buildIndexKey()}
+	 * @param indexSize index size, in bytes (1 to {@value #MAX_INDEX_SIZE})
+	 * @param serializer serializer giving values canonical bytes
+	 * @throws InvalidKeyException if key is not suitable for HMAC-SHA256
+	 */
+	public BlindIndex(SecretKey indexKey, int indexSize, EncryptableSerializer serializer) throws InvalidKeyException {
+		if(indexSize < 1 || indexSize > MAX_INDEX_SIZE) {
+			throw new IllegalArgumentException("Index size must be between 1 and " + MAX_INDEX_SIZE + " bytes. Given: " + indexSize);
+		}
+		this.indexKey = indexKey;
+		this.indexSize = indexSize;
+		this.serializer = serializer;
+		this.newMacChecked(); //Fails fast on unsuitable key
+	}
+
+	/**
+	 * Static method to build an index key, if needed some.
+	 * @return index key
+	 */
+	public static SecretKey buildIndexKey() {
+		try {
+			KeyGenerator keyGen = CipherFactory.newKeyGenerator(MAC_ALGORITHM);
+			keyGen.init(MAX_INDEX_SIZE * 8);
+			return keyGen.generateKey();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Gives the smallest index size keeping the expected number of false candidates per lookup under a given rate.
+	 * Each stored value distinct from the searched one shares its index with probability 2^(-8 * size).
+	 * @param distinctValues expected number of distinct stored values
+	 * @param falseCandidatesPerLookup acceptable mean number of false candidates per lookup (such as 0.01)
+	 * @return index size, in bytes
+	 */
+	public static int suggestIndexSize(long distinctValues, double falseCandidatesPerLookup) {
+		if(distinctValues < 1 || falseCandidatesPerLookup <= 0) {
+			throw new IllegalArgumentException("Number of values and false candidates rate must be positive. Given: " + distinctValues + ", " + falseCandidatesPerLookup);
+		}
+		double bits = Math.log(distinctValues / falseCandidatesPerLookup) / Math.log(2);
+		return (int)Math.max(1, Math.min(MAX_INDEX_SIZE, Math.ceil(bits / 8)));
+	}
+
+	/**
+	 * Getter.
+	 * @return index size, in bytes
+	 */
+	public int getIndexSize() {
+		return this.indexSize;
+	}
+
+	/**
+	 * Computes the blind index of a value.
+	 * @param value value
+	 * @return index, of {@link #getIndexSize()} bytes
+	 * @throws IOException
+	 * @throws NotEncryptableException
+	 */
+	public byte[] compute(Encryptable value) throws IOException, NotEncryptableException {
+		ByteArrayOutputStream canonical = new ByteArrayOutputStream();
+		this.serializer.serialize(value, canonical);
+		byte[] mac = this.macs.get().doFinal(canonical.toByteArray());
+		return this.indexSize == mac.length ? mac : Arrays.copyOf(mac, this.indexSize);
+	}
+
+	/**
+	 * Computes the blind index of a value, as a key of hash tables.
+	 * @param value value
+	 * @return index, wrapped in a read only buffer (with value based equals and hashCode)
+	 * @throws IOException
+	 * @throws NotEncryptableException
+	 */
+	public ByteBuffer computeKey(Encryptable value) throws IOException, NotEncryptableException {
+		return ByteBuffer.wrap(this.compute(value)).asReadOnlyBuffer();
+	}
+
+	private Mac newMacChecked() throws InvalidKeyException {
+		Mac mac;
+		try {
+			mac = CipherFactory.newMac(MAC_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		mac.init(this.indexKey);
+		return mac;
+	}
+
+	private Mac newMac() {
+		try {
+			return this.newMacChecked();
+		} catch (InvalidKeyException e) { //Not raised, key being checked by constructor
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.getClass().getSimpleName() + "]{algorithm=" + MAC_ALGORITHM + ", indexSize=" + this.indexSize + "}";
+	}
+}
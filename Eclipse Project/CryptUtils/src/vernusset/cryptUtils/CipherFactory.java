@@ -0,0 +1,316 @@
+package vernusset.cryptUtils;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ *
+ * Factory of ciphers, key generators and other cryptographic services, caching the security provider of each algorithm:
+ * the provider list is only walked on first use of an algorithm, later instances being asked directly to the cached provider.
+ *
+ * Providers can also be chosen by measuring every installed implementation of an algorithm and keeping the fastest,
+ * either explicitly through {@link #selectFastestProviders(EncryptionAlgorithm...)} (typically at application startup),
+ * or lazily on first use of each algorithm when the {@value #SELECT_FASTEST_PROPERTY} system property is set to true.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public final class CipherFactory {
+
+	/**
+	 * System property enabling selection of the fastest provider on first use of each algorithm.
+	 */
+	public static final String SELECT_FASTEST_PROPERTY = "vernusset.cryptUtils.selectFastestProviders";
+
+	/**
+	 * Time spent measuring each provider of an algorithm (after as much warm up), in milliseconds.
+	 */
+	private static final long MEASURE_MILLIS = 100;
+
+	/**
+	 * Size of the payload encrypted when measuring symmetric providers, in bytes.
+	 */
+	private static final int MEASURE_PAYLOAD_SIZE = 1024;
+
+	private static final boolean SELECT_FASTEST = Boolean.getBoolean(SELECT_FASTEST_PROPERTY);
+
+	private static final ConcurrentHashMap<EncryptionAlgorithm, Provider> CIPHER_PROVIDERS = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, Provider> SERVICE_PROVIDERS = new ConcurrentHashMap<>();
+
+
+	private CipherFactory() {
+	}
+
+	/**
+	 * Builds a new cipher for an algorithm, from its cached provider.
+	 * @param algo algorithm
+	 * @return new cipher
+	 * @throws IllegalStateException if algorithm is not available
+	 */
+	public static Cipher newCipher(EncryptionAlgorithm algo) {
+		Provider provider = CIPHER_PROVIDERS.get(algo);
+		try {
+			if(provider != null) {
+				return Cipher.getInstance(algo.getTransformation(), provider);
+			}
+			if(SELECT_FASTEST) {
+				return Cipher.getInstance(algo.getTransformation(), getProvider(algo));
+			}
+			Cipher cipher = Cipher.getInstance(algo.getTransformation());
+			CIPHER_PROVIDERS.putIfAbsent(algo, cipher.getProvider());
+			return cipher;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(algo + " is not available", e);
+		}
+	}
+
+	/**
+	 * Gives the provider used for an algorithm, looking it up on first call.
+	 * @param algo algorithm
+	 * @return provider
+	 * @throws IllegalStateException if algorithm is not available
+	 */
+	public static Provider getProvider(EncryptionAlgorithm algo) {
+		Provider provider = CIPHER_PROVIDERS.get(algo);
+		if(provider == null) {
+			if(SELECT_FASTEST) {
+				synchronized(CipherFactory.class) { //Measured once, even if first used by many threads
+					provider = CIPHER_PROVIDERS.get(algo);
+					if(provider == null) {
+						provider = selectFastestProviders(algo).get(algo);
+					}
+				}
+				if(provider == null) {
+					throw new IllegalStateException(algo + " is not available");
+				}
+			} else {
+				provider = newCipher(algo).getProvider();
+			}
+		}
+		return provider;
+	}
+
+	/**
+	 * Forces the provider used for an algorithm.
+	 * @param algo algorithm
+	 * @param provider provider, or null to look it up again on next use
+	 * @throws IllegalArgumentException if provider does not implement algorithm
+	 */
+	public static void setProvider(EncryptionAlgorithm algo, Provider provider) {
+		if(provider == null) {
+			CIPHER_PROVIDERS.remove(algo);
+			return;
+		}
+		try {
+			Cipher.getInstance(algo.getTransformation(), provider);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalArgumentException(provider.getName() + " does not implement " + algo.getTransformation(), e);
+		}
+		CIPHER_PROVIDERS.put(algo, provider);
+	}
+
+	/**
+	 * Measures the encryption throughput of every installed provider of the given algorithms, and keeps the fastest one for each.
+	 * Takes about {@value #MEASURE_MILLIS} milliseconds twice per provider and algorithm (and generates a key pair for asymmetric algorithms).
+	 * Algorithms that are not available are skipped.
+	 * @param algos algorithms
+	 * @return selected provider of each available algorithm
+	 */
+	public static Map<EncryptionAlgorithm, Provider> selectFastestProviders(EncryptionAlgorithm... algos) {
+		Map<EncryptionAlgorithm, Provider> selected = new LinkedHashMap<>();
+		for(EncryptionAlgorithm algo : algos) {
+			Provider fastest = null;
+			double fastestRate = 0;
+			for(Provider provider : Security.getProviders()) {
+				try {
+					double rate = measure(algo, provider);
+					if(fastest == null || rate > fastestRate) {
+						fastest = provider;
+						fastestRate = rate;
+					}
+				} catch (GeneralSecurityException | RuntimeException e) {
+					//Provider does not implement algorithm (or rejects generated keys)
+				}
+			}
+			if(fastest != null) {
+				CIPHER_PROVIDERS.put(algo, fastest);
+				selected.put(algo, fastest);
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Forgets every cached provider.
+	 */
+	public static void clear() {
+		CIPHER_PROVIDERS.clear();
+		SERVICE_PROVIDERS.clear();
+	}
+
+	/**
+	 * Builds a new secret key generator, from the cached provider of the key algorithm.
+	 * @param algorithm key algorithm (such as "AES")
+	 * @return new key generator
+	 * @throws NoSuchAlgorithmException
+	 */
+	static KeyGenerator newKeyGenerator(String algorithm) throws NoSuchAlgorithmException {
+		return newService("KeyGenerator", algorithm, provider -> provider != null ? KeyGenerator.getInstance(algorithm, provider) : KeyGenerator.getInstance(algorithm), KeyGenerator::getProvider);
+	}
+
+	/**
+	 * Builds a new key pair generator, from the cached provider of the key algorithm.
+	 * @param algorithm key algorithm (such as "RSA")
+	 * @return new key pair generator
+	 * @throws NoSuchAlgorithmException
+	 */
+	static KeyPairGenerator newKeyPairGenerator(String algorithm) throws NoSuchAlgorithmException {
+		return newService("KeyPairGenerator", algorithm, provider -> provider != null ? KeyPairGenerator.getInstance(algorithm, provider) : KeyPairGenerator.getInstance(algorithm), KeyPairGenerator::getProvider);
+	}
+
+	/**
+	 * Builds a new key agreement, from the cached provider of the agreement algorithm.
+	 * @param algorithm agreement algorithm (such as "ECDH")
+	 * @return new key agreement
+	 * @throws NoSuchAlgorithmException
+	 */
+	static KeyAgreement newKeyAgreement(String algorithm) throws NoSuchAlgorithmException {
+		return newService("KeyAgreement", algorithm, provider -> provider != null ? KeyAgreement.getInstance(algorithm, provider) : KeyAgreement.getInstance(algorithm), KeyAgreement::getProvider);
+	}
+
+	/**
+	 * Builds a new key factory, from the cached provider of the key algorithm.
+	 * @param algorithm key algorithm (such as "EC")
+	 * @return new key factory
+	 * @throws NoSuchAlgorithmException
+	 */
+	static KeyFactory newKeyFactory(String algorithm) throws NoSuchAlgorithmException {
+		return newService("KeyFactory", algorithm, provider -> provider != null ? KeyFactory.getInstance(algorithm, provider) : KeyFactory.getInstance(algorithm), KeyFactory::getProvider);
+	}
+
+	/**
+	 * Builds a new message authentication code, from the cached provider of the algorithm.
+	 * @param algorithm MAC algorithm (such as "HmacSHA256")
+	 * @return new MAC
+	 * @throws NoSuchAlgorithmException
+	 */
+	static Mac newMac(String algorithm) throws NoSuchAlgorithmException {
+		return newService("Mac", algorithm, provider -> provider != null ? Mac.getInstance(algorithm, provider) : Mac.getInstance(algorithm), Mac::getProvider);
+	}
+
+	/**
+	 * Lookup of a service instance.
+	 */
+	private interface ServiceLookup<T> {
+		/**
+		 * @param provider provider, or null to walk the provider list
+		 * @return new service instance
+		 */
+		T getInstance(Provider provider) throws NoSuchAlgorithmException;
+	}
+
+	/**
+	 * Builds a new service instance, from the cached provider of its type and algorithm.
+	 * @param type service type
+	 * @param algorithm service algorithm
+	 * @param lookup service instance lookup
+	 * @param providerOf provider of a service instance
+	 * @return new service instance
+	 * @throws NoSuchAlgorithmException
+	 */
+	private static <T> T newService(String type, String algorithm, ServiceLookup<T> lookup, Function<T, Provider> providerOf) throws NoSuchAlgorithmException {
+		String key = type + "." + algorithm;
+		Provider provider = SERVICE_PROVIDERS.get(key);
+		if(provider != null) {
+			return lookup.getInstance(provider);
+		}
+		T service = lookup.getInstance(null);
+		SERVICE_PROVIDERS.putIfAbsent(key, providerOf.apply(service));
+		return service;
+	}
+
+	/**
+	 * Measures the throughput of a provider for an algorithm.
+	 * Symmetric algorithms encrypt a {@value #MEASURE_PAYLOAD_SIZE} bytes payload, with a fresh nonce for each message if needed;
+	 * asymmetric algorithms encrypt then decrypt a session key sized payload, 
+	 * except key agreement ones whose cipher only encrypts payloads (as a symmetric one).
+	 * @param algo algorithm
+	 * @param provider provider
+	 * @return operations per second
+	 * @throws GeneralSecurityException if provider does not implement algorithm
+	 */
+	private static double measure(EncryptionAlgorithm algo, Provider provider) throws GeneralSecurityException {
+		if(algo instanceof AsymmetricEncryptionMethod.AsymmetricAlgorithm && ((AsymmetricEncryptionMethod.AsymmetricAlgorithm)algo).isKeyAgreement()) {
+			return measure(AsymmetricEncryptionMethod.HYBRID_SESSION_KEY_ALGO, provider);
+		}
+		Cipher cipher = Cipher.getInstance(algo.getTransformation(), provider);
+		SecureRandom random = new SecureRandom();
+		Operation operation;
+		if(algo instanceof SymmetricEncryptionMethod.SymmetricAlgorithm) {
+			SymmetricEncryptionMethod.SymmetricAlgorithm symmetricAlgo = (SymmetricEncryptionMethod.SymmetricAlgorithm)algo;
+			byte[] keyBytes = new byte[algo.getKeySize() / 8];
+			random.nextBytes(keyBytes);
+			SecretKeySpec key = new SecretKeySpec(keyBytes, algo.getAlgo());
+			byte[] payload = new byte[MEASURE_PAYLOAD_SIZE];
+			byte[] iv = new byte[symmetricAlgo.getIvSize()];
+			operation = () -> {
+				if(iv.length > 0) {
+					for(int i = 0; i < iv.length && ++iv[i] == 0; i++); //Fresh nonce: GCM and ChaCha20-Poly1305 refuse to reuse one with the same key
+					cipher.init(Cipher.ENCRYPT_MODE, key, symmetricAlgo.getParameterSpec(iv, 0));
+				} else {
+					cipher.init(Cipher.ENCRYPT_MODE, key);
+				}
+				cipher.doFinal(payload);
+			};
+		} else if(algo instanceof AsymmetricEncryptionMethod.AsymmetricAlgorithm) {
+			KeyPair keyPair = AsymmetricEncryptionMethod.generateKeyPair((AsymmetricEncryptionMethod.AsymmetricAlgorithm)algo);
+			byte[] payload = new byte[32];
+			operation = () -> {
+				cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+				byte[] encrypted = cipher.doFinal(payload);
+				cipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+				cipher.doFinal(encrypted);
+			};
+		} else {
+			throw new NoSuchAlgorithmException("No measure defined for " + algo);
+		}
+
+		run(operation, MEASURE_MILLIS); //Warm up
+		long start = System.nanoTime();
+		long count = run(operation, MEASURE_MILLIS);
+		return count * 1e9 / (System.nanoTime() - start);
+	}
+
+	/**
+	 * Operation measured.
+	 */
+	private interface Operation {
+		void run() throws GeneralSecurityException;
+	}
+
+	private static long run(Operation operation, long millis) throws GeneralSecurityException {
+		long end = System.nanoTime() + millis * 1_000_000, count = 0;
+		do {
+			operation.run();
+			count++;
+		} while(System.nanoTime() < end);
+		return count;
+	}
+}
@@ -0,0 +1,263 @@
+package vernusset.cryptUtils;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+import vernusset.cryptUtils.exceptions.ConflictingAsymmetricEncryptionAlgorithmsException;
+import vernusset.cryptUtils.exceptions.NotEncryptableException;
+
+
+/**
+ *
+ * Registry of correspondents public keys, identified by key ids (their fingerprint by default), 
+ * to encrypt messages to the attention of many correspondents with a single encryption method.
+ * Ciphers initialized with the public keys of the most recently used correspondents are kept (up to a maximum number),
+ * so that messages to hot correspondents are encrypted without any cipher initialization:
+ * each kept cipher remembers its mode, encryption (direct mode, and multi-recipient envelopes) or session key wrapping (hybrid mode),
+ * and is initialized again only when used in the other mode.
+ * In session mode, no cipher is kept: the key agreement session of each correspondent is the ready to use state.
+ * Thread safe: a cached cipher is used by one thread at a time, concurrent messages to a same correspondent using extra ciphers.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class CorrespondentRegistry {
+
+	private final AsymmetricEncryptionMethod method;
+	private final Map<String, PublicKey> publicKeys = new ConcurrentHashMap<>();
+
+	/**
+	 * Idle initialized ciphers, along with their mode, per public key (least recently used evicted first).
+	 */
+	private final Map<PublicKey, AsymmetricEncryptionMethod.CipherState> ciphers;
+
+
+	/**
+	 * Constructor.
+	 * @param method encryption method whose algorithm, mode (hybrid or not) and serializer are used
+	 * @param maxCachedCiphers maximum number of initialized ciphers kept
+	 */
+	public CorrespondentRegistry(AsymmetricEncryptionMethod method, int maxCachedCiphers) {
+		if(maxCachedCiphers < 0) {
+			throw new IllegalArgumentException("Maximum number of cached ciphers must not be negative. Given: " + maxCachedCiphers);
+		}
+		this.method = method;
+		this.ciphers = new LinkedHashMap<PublicKey, AsymmetricEncryptionMethod.CipherState>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<PublicKey, AsymmetricEncryptionMethod.CipherState> eldest) {
+				return this.size() > maxCachedCiphers;
+			}
+		};
+	}
+
+	/**
+	 * Computes a public key fingerprint: Base64 (URL safe, without padding) SHA-256 digest of its encoded form.
+	 * @param publicKey public key
+	 * @return fingerprint
+	 */
+	public static String fingerprint(PublicKey publicKey) {
+		try {
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(MessageDigest.getInstance("SHA-256").digest(publicKey.getEncoded()));
+		} catch (NoSuchAlgorithmException e) { //SHA-256 is available on every JVM
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Registers a correspondent, identified by its public key fingerprint.
+	 * @param publicKey correspondent public key
+	 * @return key id (fingerprint)
+	 * @throws ConflictingAsymmetricEncryptionAlgorithmsException
+	 */
+	public String register(PublicKey publicKey) throws ConflictingAsymmetricEncryptionAlgorithmsException {
+		String keyId = fingerprint(publicKey);
+		this.register(keyId, publicKey);
+		return keyId;
+	}
+
+	/**
+	 * Registers a correspondent, replacing any public key already registered with the same key id.
+	 * @param keyId key id
+	 * @param publicKey correspondent public key
+	 * @throws ConflictingAsymmetricEncryptionAlgorithmsException
+	 */
+	public void register(String keyId, PublicKey publicKey) throws ConflictingAsymmetricEncryptionAlgorithmsException {
+		String algo = this.method.getAlgorithm().getAlgo();
+		if(!algo.equals(publicKey.getAlgorithm())) {
+			throw new ConflictingAsymmetricEncryptionAlgorithmsException("The given correspondent public key does not match with the desired algorithm. Desired algorithm: " + algo + ", correspondent public key algorithm: " + publicKey.getAlgorithm());
+		}
+		PublicKey previous = this.publicKeys.put(keyId, publicKey);
+		if(previous != null && !previous.equals(publicKey)) {
+			this.forget(previous);
+		}
+	}
+
+	/**
+	 * Unregisters a correspondent, and forgets its cached cipher and session key.
+	 * @param keyId key id
+	 * @return true if correspondent was registered
+	 */
+	public boolean unregister(String keyId) {
+		PublicKey previous = this.publicKeys.remove(keyId);
+		if(previous != null) {
+			this.forget(previous);
+		}
+		return previous != null;
+	}
+
+	/**
+	 * Getter.
+	 * @param keyId key id
+	 * @return correspondent public key (null if not registered)
+	 */
+	public PublicKey getPublicKey(String keyId) {
+		return this.publicKeys.get(keyId);
+	}
+
+	/**
+	 * Getter.
+	 * @return number of registered correspondents
+	 */
+	public int getCorrespondentCount() {
+		return this.publicKeys.size();
+	}
+
+	/**
+	 * Getter.
+	 * @return number of idle initialized ciphers currently kept
+	 */
+	public int getCachedCipherCount() {
+		synchronized(this.ciphers) {
+			return this.ciphers.size();
+		}
+	}
+
+	/**
+	 * Encrypts an object to the attention of a registered correspondent.
+	 * @param keyId correspondent key id
+	 * @param data object to encrypt
+	 * @return bytes array encrypted data
+	 * @throws InvalidKeyException if no correspondent is registered with the given key id
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 * @throws NotEncryptableException
+	 */
+	public byte[] encryptFor(String keyId, Encryptable data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+		PublicKey publicKey = this.publicKeys.get(keyId);
+		if(publicKey == null) {
+			throw new InvalidKeyException("No correspondent registered with key id " + keyId);
+		}
+		byte[] serialized = this.method.serialize(data);
+		if(this.method.isSessionMode()) { //Cipher not used
+			return this.method.encryptSerializedFor(null, publicKey, serialized, serialized.length);
+		}
+
+		AsymmetricEncryptionMethod.CipherState cipher = this.checkout(publicKey);
+		byte[] encrypted = this.method.encryptSerializedFor(cipher, publicKey, serialized, serialized.length);
+		this.checkin(keyId, publicKey, cipher);
+		return encrypted;
+	}
+
+	/**
+	 * Encrypts an object to the attention of a registered correspondent.
+	 * @param keyId correspondent key id
+	 * @param data object to encrypt
+	 * @return Base64 encrypted data
+	 * @throws InvalidKeyException if no correspondent is registered with the given key id
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 * @throws NotEncryptableException
+	 */
+	public String encryptToBase64StringFor(String keyId, Encryptable data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+		return Base64.getEncoder().encodeToString(this.encryptFor(keyId, data));
+	}
+
+	/**
+	 * Encrypts an object once for many registered correspondents (multi-recipient envelope, 
+	 * see {@link AsymmetricEncryptionMethod#encryptForAll(List, Encryptable)}), 
+	 * encrypting the content key with the cached ciphers of hot correspondents.
+	 * @param keyIds correspondents key ids (each correspondent must know its own index to decrypt)
+	 * @param data object to encrypt
+	 * @return envelope
+	 * @throws InvalidKeyException if no correspondent is registered with one of the given key ids
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 * @throws NotEncryptableException
+	 */
+	public byte[] encryptForAll(List<String> keyIds, Encryptable data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+		PublicKey[] recipients = new PublicKey[keyIds.size()];
+		for(int i = 0; i < recipients.length; i++) {
+			recipients[i] = this.publicKeys.get(keyIds.get(i));
+			if(recipients[i] == null) {
+				throw new InvalidKeyException("No correspondent registered with key id " + keyIds.get(i));
+			}
+		}
+		byte[] serialized = this.method.serialize(data);
+		return MultiRecipientEnvelope.seal(serialized, serialized.length, recipients.length, (slot, contentKey) -> {
+			if(this.method.getAlgorithm().isKeyAgreement()) { //Nothing to cache, each slot has its own ephemeral key
+				return KeyAgreementKem.wrap(this.method.getAlgorithm(), recipients[slot], contentKey);
+			}
+			AsymmetricEncryptionMethod.CipherState cipher = this.checkout(recipients[slot]);
+			cipher.initialize(Cipher.ENCRYPT_MODE, recipients[slot], this.method.getAlgorithm());
+			byte[] encryptedKey = cipher.cipher.doFinal(contentKey);
+			this.checkin(keyIds.get(slot), recipients[slot], cipher);
+			return encryptedKey;
+		});
+	}
+
+	/**
+	 * Takes the idle cipher kept for a public key, or a new uninitialized one.
+	 * @param publicKey correspondent public key
+	 * @return cipher along with its mode, to be used by calling thread only
+	 */
+	private AsymmetricEncryptionMethod.CipherState checkout(PublicKey publicKey) {
+		AsymmetricEncryptionMethod.CipherState cipher;
+		synchronized(this.ciphers) {
+			cipher = this.ciphers.remove(publicKey);
+		}
+		return cipher != null ? cipher : new AsymmetricEncryptionMethod.CipherState(EncryptionMethod.newCipher(this.method.getAlgorithm()));
+	}
+
+	/**
+	 * Gives back a cipher after a successful encryption, unless correspondent was unregistered meanwhile.
+	 * @param keyId correspondent key id
+	 * @param publicKey correspondent public key
+	 * @param cipher cipher along with its mode
+	 */
+	private void checkin(String keyId, PublicKey publicKey, AsymmetricEncryptionMethod.CipherState cipher) {
+		synchronized(this.ciphers) {
+			if(publicKey.equals(this.publicKeys.get(keyId))) {
+				this.ciphers.put(publicKey, cipher);
+			}
+		}
+	}
+
+	/**
+	 * Forgets cached cipher and session key of a public key.
+	 * @param publicKey public key
+	 */
+	private void forget(PublicKey publicKey) {
+		synchronized(this.ciphers) {
+			this.ciphers.remove(publicKey);
+		}
+		this.method.clearSessionKey(publicKey);
+	}
+}
@@ -0,0 +1,341 @@
+package vernusset.cryptUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+import vernusset.cryptUtils.exceptions.NotEncryptableException;
+
+
+/**
+ *
+ * Cache of decrypted objects in front of an encryption method, for ciphertexts decrypted over and over (configuration blobs, tokens...):
+ * a hit costs a digest and a comparison of the ciphertext, instead of Base64 decoding, decryption and deserialization.
+ *
+ * Entries are keyed by a fast seeded 64 bits digest of the ciphertext, and keep a copy of it, so that a digest collision is a miss, never a wrong object.
+ * The cache is bounded both by entry count and estimated bytes (ciphertext twice, for the kept copy and the decrypted object, plus entry overhead),
+ * least recently used entries being evicted first, and entries expire after a time to live.
+ * Failed decryptions are not cached.
+ *
+ * Cached objects are shared between callers: they must not be modified.
+ * Thread safe.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class DecryptionCache {
+
+	/**
+	 * Estimated size of an entry besides ciphertext and decrypted object, in bytes.
+	 */
+	public static final int ENTRY_OVERHEAD = 96;
+
+	private static final long C1 = 0x87C37B91114253D5L, C2 = 0x4CF5AD432745937FL;
+
+
+	/**
+	 * Cached object, with the ciphertext it was decrypted from.
+	 */
+	private static class Entry {
+		private final Object ciphertext; //byte[] or String
+		private final Encryptable value;
+		private final long weight;
+		private final long expiry;
+
+		private Entry(Object ciphertext, Encryptable value, long weight, long expiry) {
+			this.ciphertext = ciphertext;
+			this.value = value;
+			this.weight = weight;
+			this.expiry = expiry;
+		}
+
+		private boolean matches(Object ciphertext) {
+			return ciphertext instanceof byte[] ? this.ciphertext instanceof byte[] && Arrays.equals((byte[])this.ciphertext, (byte[])ciphertext) : ciphertext.equals(this.ciphertext);
+		}
+	}
+
+
+	private final EncryptionMethod method;
+	private final int maxEntries;
+	private final long maxBytes;
+	private final long ttlNanos;
+	private final long seed = new SecureRandom().nextLong();
+
+	/**
+	 * Entries per ciphertext digest (least recently used first). Guarded by itself.
+	 */
+	private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes; //Guarded by entries
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+
+	/**
+	 * Constructor.
+	 * @param method encryption method decrypting on misses
+	 * @param maxEntries maximum number of cached objects
+	 * @param maxBytes maximum estimated size of cached entries, in bytes
+	 * @param ttlMillis time to live of entries, in milliseconds (0 for no expiry)
+	 */
+	public DecryptionCache(EncryptionMethod method, int maxEntries, long maxBytes, long ttlMillis) {
+		if(maxEntries < 0 || maxBytes < 0 || ttlMillis < 0) {
+			throw new IllegalArgumentException("Cache bounds and time to live must not be negative. Given: " + maxEntries + " entries, " + maxBytes + " bytes, " + ttlMillis + " ms");
+		}
+		this.method = method;
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.ttlNanos = ttlMillis == 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+	}
+
+	/**
+	 * Decrypts an object from bytes array, or gives it from cache.
+	 * @param encryptedData encrypted data
+	 * @return decrypted object (shared, not to be modified)
+	 * @throws InvalidKeyException
+	 * @throws ClassNotFoundException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws NotEncryptableException
+	 * @throws IOException
+	 */
+	public Encryptable decryptFromBytesArray(byte[] encryptedData) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException {
+		long digest = this.digest(encryptedData);
+		Encryptable cached = this.lookup(digest, encryptedData);
+		if(cached != null) {
+			return cached;
+		}
+		Encryptable value = this.method.decryptFromBytesArray(encryptedData);
+		this.store(digest, encryptedData.clone(), encryptedData.length, value);
+		return value;
+	}
+
+	/**
+	 * Decrypts an object from Base64 string, or gives it from cache (without decoding it).
+	 * @param encryptedData encrypted data, Base64 encoded
+	 * @return decrypted object (shared, not to be modified)
+	 * @throws InvalidKeyException
+	 * @throws ClassNotFoundException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws NotEncryptableException
+	 * @throws IOException
+	 */
+	public Encryptable decryptFromBase64String(String encryptedData) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException {
+		long digest = this.digest(encryptedData);
+		Encryptable cached = this.lookup(digest, encryptedData);
+		if(cached != null) {
+			return cached;
+		}
+		Encryptable value = this.method.decryptFromBase64String(encryptedData);
+		this.store(digest, encryptedData, encryptedData.length(), value);
+		return value;
+	}
+
+	/**
+	 * Removes the cached object decrypted from a ciphertext, if any.
+	 * @param encryptedData encrypted data
+	 */
+	public void invalidate(byte[] encryptedData) {
+		this.invalidate(this.digest(encryptedData), encryptedData);
+	}
+
+	/**
+	 * Removes the cached object decrypted from a Base64 ciphertext, if any.
+	 * @param encryptedData encrypted data, Base64 encoded
+	 */
+	public void invalidate(String encryptedData) {
+		this.invalidate(this.digest(encryptedData), encryptedData);
+	}
+
+	/**
+	 * Removes all cached objects (statistics are kept).
+	 */
+	public void clear() {
+		synchronized(this.entries) {
+			this.entries.clear();
+			this.bytes = 0;
+		}
+	}
+
+	/**
+	 * Getter.
+	 * @return number of cached objects
+	 */
+	public int size() {
+		synchronized(this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	/**
+	 * Getter.
+	 * @return estimated size of cached entries, in bytes
+	 */
+	public long getEstimatedBytes() {
+		synchronized(this.entries) {
+			return this.bytes;
+		}
+	}
+
+	/**
+	 * Getter.
+	 * @return number of decryptions served from cache
+	 */
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * Getter.
+	 * @return number of decryptions not served from cache (including expired entries)
+	 */
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Getter.
+	 * @return number of entries evicted to respect bounds
+	 */
+	public long getEvictionCount() {
+		return this.evictions.sum();
+	}
+
+	/**
+	 * Getter.
+	 * @return ratio of decryptions served from cache (0 if none)
+	 */
+	public double getHitRate() {
+		long hits = this.getHitCount(), total = hits + this.getMissCount();
+		return total == 0 ? 0 : (double)hits / total;
+	}
+
+	/**
+	 * Resets hit, miss and eviction counts.
+	 */
+	public void resetStatistics() {
+		this.hits.reset();
+		this.misses.reset();
+		this.evictions.reset();
+	}
+
+	private Encryptable lookup(long digest, Object ciphertext) {
+		synchronized(this.entries) {
+			Entry entry = this.entries.get(digest);
+			if(entry != null && entry.matches(ciphertext)) {
+				if(System.nanoTime() - entry.expiry < 0) {
+					this.hits.increment();
+					return entry.value;
+				}
+				this.remove(digest);
+			}
+		}
+		this.misses.increment();
+		return null;
+	}
+
+	private void store(long digest, Object ciphertext, int length, Encryptable value) {
+		long weight = ENTRY_OVERHEAD + 2L * length;
+		if(weight > this.maxBytes || this.maxEntries == 0) {
+			return;
+		}
+		Entry entry = new Entry(ciphertext, value, weight, System.nanoTime() + Math.min(this.ttlNanos, Long.MAX_VALUE / 2));
+		synchronized(this.entries) {
+			Entry previous = this.entries.put(digest, entry);
+			if(previous != null) {
+				this.bytes -= previous.weight;
+			}
+			this.bytes += weight;
+			Iterator<Map.Entry<Long, Entry>> eldest = this.entries.entrySet().iterator();
+			while(this.entries.size() > this.maxEntries || this.bytes > this.maxBytes) {
+				this.bytes -= eldest.next().getValue().weight;
+				eldest.remove();
+				this.evictions.increment();
+			}
+		}
+	}
+
+	private void invalidate(long digest, Object ciphertext) {
+		synchronized(this.entries) {
+			Entry entry = this.entries.get(digest);
+			if(entry != null && entry.matches(ciphertext)) {
+				this.remove(digest);
+			}
+		}
+	}
+
+	/**
+	 * Removes an entry. Called while holding entries lock.
+	 */
+	private void remove(long digest) {
+		Entry entry = this.entries.remove(digest);
+		if(entry != null) {
+			this.bytes -= entry.weight;
+		}
+	}
+
+	/**
+	 * Seeded 64 bits digest of bytes (MurmurHash3 style mixing, 8 bytes per round).
+	 */
+	private long digest(byte[] data) {
+		ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		long h = this.seed ^ data.length;
+		int i = 0;
+		for(; i <= data.length - 8; i += 8) {
+			h = mix(h, buffer.getLong(i));
+		}
+		long tail = 0;
+		for(int shift = 0; i < data.length; i++, shift += 8) {
+			tail |= (data[i] & 0xFFL) << shift;
+		}
+		return finish(mix(h, tail));
+	}
+
+	/**
+	 * Seeded 64 bits digest of chars (4 chars per round).
+	 */
+	private long digest(String data) {
+		long h = ~this.seed ^ data.length();
+		int i = 0;
+		for(; i <= data.length() - 4; i += 4) {
+			h = mix(h, data.charAt(i) | (long)data.charAt(i + 1) << 16 | (long)data.charAt(i + 2) << 32 | (long)data.charAt(i + 3) << 48);
+		}
+		long tail = 0;
+		for(int shift = 0; i < data.length(); i++, shift += 16) {
+			tail |= (long)data.charAt(i) << shift;
+		}
+		return finish(mix(h, tail));
+	}
+
+	private static long mix(long h, long k) {
+		h ^= Long.rotateLeft(k * C1, 31) * C2;
+		return Long.rotateLeft(h, 27) * 5 + 0x52DCE729;
+	}
+
+	private static long finish(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.getClass().getSimpleName() + "]{size=" + this.size() + ", estimatedBytes=" + this.getEstimatedBytes() + ", hits=" + this.getHitCount() + ", misses=" + this.getMissCount() + ", evictions=" + this.getEvictionCount() + "}";
+	}
+}
@@ -0,0 +1,380 @@
+package vernusset.cryptUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ *
+ * Seekable encrypted container: plain data is split in fixed size chunks, each one encrypted and authenticated independently with AES-GCM,
+ * so that any range can be read by decrypting only the chunks covering it.
+ * Chunk nonce is made of the container nonce and the chunk number, and chunk additional authenticated data of the container header,
+ * the chunk number and a last chunk flag, so that altered, swapped or truncated chunks are all detected.
+ * Encryption key is derived from a symmetric encryption method secret key.
+ *
+ * Container format: header (magic, chunk size, nonce), encrypted chunks, then chunk index (offset of each chunk),
+ * chunk count and plaintext length.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+class EncryptedContainer {
+
+	/**
+	 * Default chunk size, in bytes.
+	 */
+	static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	private static final int MAGIC = 0x43554331; //"CUC1"
+	private static final int NONCE_SIZE = 8;
+	private static final int HEADER_SIZE = 4 + 4 + NONCE_SIZE;
+	private static final int TRAILER_SIZE = 4 + 8;
+	private static final int TAG_SIZE = 16;
+
+	private static final String CIPHER_TRANSFORMATION = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_256.getName();
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+
+	private final SecretKey encryptionKey;
+
+
+	/**
+	 * Constructor.
+	 * @param key secret key of a symmetric encryption method
+	 * @throws InvalidKeyException
+	 */
+	EncryptedContainer(SecretKey key) throws InvalidKeyException {
+		byte[] keyBytes = key.getEncoded();
+		this.encryptionKey = new SecretKeySpec(MappedFileEncryption.deriveKey(keyBytes, "CryptUtils container encryption"), 0, keyBytes.length, "AES");
+	}
+
+	private static Cipher newCipher() {
+		try {
+			return Cipher.getInstance(CIPHER_TRANSFORMATION);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * Writes a container from a plain stream, which is read until its end (but not closed).
+	 * @param in plain data
+	 * @param out container file (replaced if existing)
+	 * @param chunkSize size of the independently encrypted chunks, in bytes
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 */
+	void write(InputStream in, Path out, int chunkSize) throws IOException, InvalidKeyException {
+		if(chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive. Given: " + chunkSize);
+		}
+		try (FileChannel output = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			byte[] nonce = new byte[NONCE_SIZE];
+			RANDOM.nextBytes(nonce);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(chunkSize).put(nonce).flip();
+			byte[] headerBytes = header.array();
+			writeFully(output, header);
+
+			Cipher cipher = newCipher();
+			ByteBuffer index = ByteBuffer.allocate(1024 * 8);
+			ByteBuffer encrypted = ByteBuffer.allocate(chunkSize + TAG_SIZE);
+			byte[] current = new byte[chunkSize], next = new byte[chunkSize];
+			int currentLength = readChunk(in, current), nextLength;
+			long plainLength = 0;
+			int chunks = 0;
+			do {
+				nextLength = currentLength == chunkSize ? readChunk(in, next) : 0;
+				boolean last = nextLength == 0;
+
+				if(index.remaining() < 8) {
+					index = ByteBuffer.allocate(index.capacity() * 2).put((ByteBuffer)index.flip());
+				}
+				index.putLong(output.position());
+				initCipher(cipher, Cipher.ENCRYPT_MODE, this.encryptionKey, headerBytes, chunks, last);
+				encrypted.clear();
+				try {
+					cipher.doFinal(ByteBuffer.wrap(current, 0, currentLength), encrypted);
+				} catch (GeneralSecurityException e) { //Not raised by encryption
+					throw new IOException(e);
+				}
+				encrypted.flip();
+				writeFully(output, encrypted);
+				plainLength += currentLength;
+				chunks++;
+
+				byte[] swap = current;
+				current = next;
+				next = swap;
+				currentLength = nextLength;
+			} while(currentLength > 0);
+
+			index.flip();
+			writeFully(output, index);
+			ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+			trailer.putInt(chunks).putLong(plainLength).flip();
+			writeFully(output, trailer);
+		}
+	}
+
+	/**
+	 * Opens a container for random access reading.
+	 * Last chunk is authenticated right away, so that a truncated or extended container is rejected on opening.
+	 * @param in container file
+	 * @return read only channel of plain data
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 * @throws BadPaddingException if file is not a valid container, or has been altered
+	 */
+	SeekableByteChannel open(Path in) throws IOException, InvalidKeyException, BadPaddingException {
+		FileChannel input = FileChannel.open(in, StandardOpenOption.READ);
+		try {
+			ContainerChannel channel = new ContainerChannel(input, this.encryptionKey);
+			channel.chunk(channel.chunks - 1);
+			return channel;
+		} catch (IOException | InvalidKeyException | BadPaddingException | RuntimeException e) {
+			input.close();
+			throw e;
+		}
+	}
+
+	private static int readChunk(InputStream in, byte[] chunk) throws IOException {
+		int length = 0, read;
+		while(length < chunk.length && (read = in.read(chunk, length, chunk.length - length)) >= 0) {
+			length += read;
+		}
+		return length;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException, BadPaddingException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				throw new BadPaddingException("Unexpected end of container");
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Initializes a cipher for a given chunk.
+	 * @param cipher cipher to initialize
+	 * @param mode encryption or decryption mode
+	 * @param key container encryption key
+	 * @param header container header
+	 * @param chunk chunk number
+	 * @param last true if chunk is the last one
+	 * @throws InvalidKeyException
+	 */
+	private static void initCipher(Cipher cipher, int mode, SecretKey key, byte[] header, int chunk, boolean last) throws InvalidKeyException {
+		ByteBuffer nonce = ByteBuffer.allocate(NONCE_SIZE + 4);
+		nonce.put(header, HEADER_SIZE - NONCE_SIZE, NONCE_SIZE).putInt(chunk);
+		try {
+			cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, nonce.array()));
+		} catch (InvalidAlgorithmParameterException e) {
+			throw new InvalidKeyException(e.getMessage(), e);
+		}
+		cipher.updateAAD(header);
+		cipher.updateAAD(ByteBuffer.allocate(5).putInt(chunk).put((byte)(last ? 1 : 0)).array());
+	}
+
+
+	/**
+	 *
+	 * Read only channel over a container, decrypting chunks on demand.
+	 * The last decrypted chunk is kept, so that sequential reads decrypt each chunk only once.
+	 *
+	 */
+	private static class ContainerChannel implements SeekableByteChannel {
+
+		private final FileChannel input;
+		private final SecretKey key;
+		private final Cipher cipher = newCipher();
+		private final byte[] header;
+		private final int chunkSize;
+		private final int chunks;
+		private final long plainLength;
+		private final long[] offsets;
+
+		private final ByteBuffer encrypted;
+		private final ByteBuffer plain;
+		private int cachedChunk = -1;
+		private long position;
+		private boolean open = true;
+
+
+		private ContainerChannel(FileChannel input, SecretKey key) throws IOException, BadPaddingException {
+			this.input = input;
+			this.key = key;
+
+			long size = input.size();
+			if(size < HEADER_SIZE + TAG_SIZE + 8 + TRAILER_SIZE) {
+				throw new BadPaddingException("Not an encrypted container");
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(input, header, 0);
+			if(header.getInt() != MAGIC) {
+				throw new BadPaddingException("Not an encrypted container");
+			}
+			this.header = header.array();
+			this.chunkSize = header.getInt();
+
+			ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+			readFully(input, trailer, size - TRAILER_SIZE);
+			this.chunks = trailer.getInt();
+			this.plainLength = trailer.getLong();
+			long indexOffset = size - TRAILER_SIZE - this.chunks * 8L;
+			if(this.chunkSize <= 0 || this.chunks <= 0 || indexOffset < HEADER_SIZE
+					|| this.plainLength > (long)this.chunks * this.chunkSize || (this.chunks > 1 && this.plainLength <= (this.chunks - 1L) * this.chunkSize) || this.plainLength < 0) {
+				throw new BadPaddingException("Invalid encrypted container trailer");
+			}
+
+			ByteBuffer index = ByteBuffer.allocate(this.chunks * 8);
+			readFully(input, index, indexOffset);
+			this.offsets = new long[this.chunks + 1];
+			for(int c = 0; c < this.chunks; c++) {
+				this.offsets[c] = index.getLong();
+			}
+			this.offsets[this.chunks] = indexOffset;
+			for(int c = 0; c < this.chunks; c++) {
+				long length = this.offsets[c + 1] - this.offsets[c];
+				if(this.offsets[c] < HEADER_SIZE || length < TAG_SIZE || length > this.chunkSize + TAG_SIZE) {
+					throw new BadPaddingException("Invalid encrypted container index");
+				}
+			}
+
+			this.encrypted = ByteBuffer.allocate(this.chunkSize + TAG_SIZE);
+			this.plain = ByteBuffer.allocate(this.chunkSize);
+		}
+
+		/**
+		 * Gives a decrypted chunk, decrypting it if not already cached.
+		 * @param chunk chunk number
+		 * @return chunk plain data (shared buffer, from position 0 to chunk length)
+		 * @throws IOException
+		 * @throws InvalidKeyException
+		 * @throws BadPaddingException if chunk has been altered
+		 */
+		private ByteBuffer chunk(int chunk) throws IOException, InvalidKeyException, BadPaddingException {
+			if(this.cachedChunk != chunk) {
+				this.cachedChunk = -1;
+				this.encrypted.clear().limit((int)(this.offsets[chunk + 1] - this.offsets[chunk]));
+				readFully(this.input, this.encrypted, this.offsets[chunk]);
+				initCipher(this.cipher, Cipher.DECRYPT_MODE, this.key, this.header, chunk, chunk == this.chunks - 1);
+				this.plain.clear();
+				try {
+					this.cipher.doFinal(this.encrypted, this.plain);
+				} catch (AEADBadTagException e) {
+					throw new AEADBadTagException("Integrity check failed for chunk n°" + chunk);
+				} catch (GeneralSecurityException e) {
+					throw new BadPaddingException(e.getMessage());
+				}
+				this.plain.flip();
+				long expectedLength = Math.min(this.chunkSize, this.plainLength - (long)chunk * this.chunkSize);
+				if(this.plain.remaining() != expectedLength) {
+					throw new BadPaddingException("Chunk n°" + chunk + " length does not match container length");
+				}
+				this.cachedChunk = chunk;
+			}
+			return this.plain;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			this.ensureOpen();
+			if(this.position >= this.plainLength) {
+				return -1;
+			}
+			int read = 0;
+			while(dst.hasRemaining() && this.position < this.plainLength) {
+				ByteBuffer chunk;
+				try {
+					chunk = this.chunk((int)(this.position / this.chunkSize)).duplicate();
+				} catch (GeneralSecurityException e) {
+					throw new IOException(e);
+				}
+				chunk.position((int)(this.position % this.chunkSize));
+				int length = Math.min(chunk.remaining(), dst.remaining());
+				chunk.limit(chunk.position() + length);
+				dst.put(chunk);
+				this.position += length;
+				read += length;
+			}
+			return read;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long position() throws IOException {
+			this.ensureOpen();
+			return this.position;
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) throws IOException {
+			this.ensureOpen();
+			if(newPosition < 0) {
+				throw new IllegalArgumentException("Negative position: " + newPosition);
+			}
+			this.position = newPosition;
+			return this;
+		}
+
+		@Override
+		public long size() throws IOException {
+			this.ensureOpen();
+			return this.plainLength;
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) throws IOException {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return this.open;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.open = false;
+			this.input.close();
+		}
+
+		private void ensureOpen() throws ClosedChannelException {
+			if(!this.open) {
+				throw new ClosedChannelException();
+			}
+		}
+	}
+}
@@ -0,0 +1,663 @@
+package vernusset.cryptUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+import vernusset.cryptUtils.encryptableObjects.EncryptableString;
+import vernusset.cryptUtils.exceptions.NotEncryptableException;
+import vernusset.cryptUtils.serialization.CompactSerializer;
+
+
+/**
+ *
+ * Embedded persistent key-value store of encryptable objects, each record being encrypted with a symmetric encryption method.
+ *
+ * Records are appended to a log of memory mapped segment files, and encrypted directly into the mapping.
+ * An in-memory index gives the location of the last record of each key, so that reads cost one hash table probe and one decryption.
+ * Keys are indexed by their {@link BlindIndex blind index} (under a key derived from the method secret key), never stored in plain text.
+ *
+ * Writes are made durable by group commit: with a commit interval, a background thread forces the segments written since the last commit
+ * (writes are then durable within the interval, or after {@link #flush()}); without, each write waits for the commit,
+ * concurrent writes sharing the same one.
+ * Segments mostly holding overwritten or removed records are compacted in background: their live records are copied,
+ * still encrypted, to the end of the log, and the segment deleted.
+ * On opening, segments are scanned to rebuild the index, stopping at the first torn record of each segment.
+ *
+ * Record format: length, CRC-32 of the rest of the record, key blind index, record type, then encrypted type, key and serialized value.
+ * The plain header is only covered by the CRC: each record is decrypted on recovery (and on reads) to check that it matches
+ * the encrypted type and key, so that altered headers are detected.
+ * Thread safe.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class EncryptedStore implements Closeable {
+
+	/**
+	 * Default segment size, in bytes.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Default commit interval, in milliseconds.
+	 */
+	public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 10;
+
+	/**
+	 * Ratio of live bytes under which a segment is compacted.
+	 */
+	public static final double COMPACTION_THRESHOLD = 0.5;
+
+	private static final long COMPACTION_INTERVAL_MILLIS = 1000;
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final int INDEX_SIZE = 16;
+	private static final int TYPE_OFFSET = 4 + 4 + INDEX_SIZE;
+	private static final int HEADER_SIZE = TYPE_OFFSET + 1;
+	private static final byte PUT = 1, DELETE = 2;
+
+
+	/**
+	 * Memory mapped segment file.
+	 */
+	private static class Segment {
+		private final int id;
+		private final Path path;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private final AtomicLong liveBytes = new AtomicLong();
+		private volatile int end; //Position of next record
+
+		private Segment(int id, Path path, int size) throws IOException {
+			this.id = id;
+			this.path = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size > 0 ? size : this.channel.size());
+		}
+
+		/**
+		 * @return independent view of a range of the segment
+		 */
+		private ByteBuffer slice(int offset, int length) {
+			ByteBuffer slice = this.buffer.duplicate();
+			slice.limit(offset + length);
+			slice.position(offset);
+			return slice;
+		}
+
+		/**
+		 * @return true if the record at the given offset is complete
+		 */
+		private boolean isValidRecord(int offset) {
+			if(offset > this.buffer.capacity() - HEADER_SIZE) return false;
+			int length = this.buffer.getInt(offset);
+			if(length < HEADER_SIZE || length > this.buffer.capacity() - offset) return false;
+			CRC32 crc = new CRC32();
+			crc.update(this.slice(offset + 8, length - 8));
+			return (int)crc.getValue() == this.buffer.getInt(offset + 4);
+		}
+
+		/**
+		 * @return blind index of the key of the record at the given offset
+		 */
+		private ByteBuffer readIndex(int offset) {
+			byte[] index = new byte[INDEX_SIZE];
+			this.slice(offset + 8, INDEX_SIZE).get(index);
+			return ByteBuffer.wrap(index).asReadOnlyBuffer();
+		}
+	}
+
+
+	private final Path directory;
+	private final SymmetricEncryptionMethod method;
+	private final BlindIndex keyIndex;
+	private final int segmentSize;
+	private final long commitIntervalMillis;
+
+	/**
+	 * Location (segment id and offset) of the last record of each key, per key blind index.
+	 */
+	private final ConcurrentHashMap<ByteBuffer, Long> index = new ConcurrentHashMap<>();
+
+	/**
+	 * Segments, per id.
+	 */
+	private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+	private final Object writeLock = new Object();
+	private final Object commitLock = new Object();
+
+	private Segment active; //Guarded by writeLock
+	private final Set<Segment> dirty = new HashSet<>(); //Guarded by writeLock
+	private long appended; //Guarded by writeLock
+	private volatile long committed;
+	private volatile boolean closed;
+	private volatile Exception backgroundFailure;
+
+	private final ScheduledExecutorService background;
+
+
+	/**
+	 * Constructor, opening (or creating) a store with {@link #DEFAULT_SEGMENT_SIZE default segment size} and {@link #DEFAULT_COMMIT_INTERVAL_MILLIS commit interval}.
+	 * @param directory store directory (created if needed)
+	 * @param method symmetric method encrypting records (set thread safe)
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 */
+	public EncryptedStore(Path directory, SymmetricEncryptionMethod method) throws IOException, InvalidKeyException {
+		this(directory, method, DEFAULT_SEGMENT_SIZE, DEFAULT_COMMIT_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Constructor, opening (or creating) a store.
+	 * @param directory store directory (created if needed)
+	 * @param method symmetric method encrypting records (set thread safe)
+	 * @param segmentSize size of new segment files, in bytes (bounding record size)
+	 * @param commitIntervalMillis interval between background commits, in milliseconds (0 for writes waiting for their commit)
+	 * @throws IOException (caused by a BadPaddingException if a record has been altered)
+	 * @throws InvalidKeyException
+	 */
+	public EncryptedStore(Path directory, SymmetricEncryptionMethod method, int segmentSize, long commitIntervalMillis) throws IOException, InvalidKeyException {
+		if(segmentSize <= HEADER_SIZE || commitIntervalMillis < 0) {
+			throw new IllegalArgumentException("Invalid segment size or commit interval. Given: " + segmentSize + " bytes, " + commitIntervalMillis + " ms");
+		}
+		this.directory = Files.createDirectories(directory);
+		this.method = method;
+		this.method.setThreadSafe(true);
+		byte[] indexKey = MappedFileEncryption.deriveKey(method.key.getEncoded(), "CryptUtils store index");
+		this.keyIndex = new BlindIndex(new SecretKeySpec(indexKey, BlindIndex.MAC_ALGORITHM), INDEX_SIZE, new CompactSerializer());
+		Arrays.fill(indexKey, (byte)0);
+		this.segmentSize = segmentSize;
+		this.commitIntervalMillis = commitIntervalMillis;
+		this.recover();
+
+		this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "EncryptedStore " + directory.getFileName());
+			thread.setDaemon(true);
+			return thread;
+		});
+		if(commitIntervalMillis > 0) {
+			this.background.scheduleWithFixedDelay(() -> this.runInBackground(this::flush), commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+		this.background.scheduleWithFixedDelay(() -> this.runInBackground(this::compact), COMPACTION_INTERVAL_MILLIS, COMPACTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stores an object under a key, replacing the previous one if any.
+	 * @param key key
+	 * @param value object to store
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 * @throws NotEncryptableException
+	 */
+	public void put(String key, Encryptable value) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+		ByteArrayOutputStream plain = this.startRecord(PUT, key);
+		this.method.getSerializer().serialize(value, plain);
+		this.awaitCommit(this.append(this.keyIndex.computeKey(new EncryptableString(key)), PUT, plain));
+	}
+
+	/**
+	 * Gives the object stored under a key.
+	 * @param key key
+	 * @return stored object (null if none)
+	 * @throws InvalidKeyException
+	 * @throws ClassNotFoundException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException if record has been altered (content, or header not matching it)
+	 * @throws IOException
+	 * @throws NotEncryptableException
+	 */
+	public Encryptable get(String key) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+		ByteBuffer indexKey = this.keyIndex.computeKey(new EncryptableString(key));
+		for(;;) {
+			Long location = this.index.get(indexKey);
+			if(location == null) {
+				return null;
+			}
+			Segment segment = this.segments.get(segmentId(location));
+			if(segment == null) {
+				continue; //Compacted meanwhile: index already gives the new location
+			}
+			DataInputStream in = this.decryptRecord(segment, offset(location));
+			if(!Arrays.equals(readKey(in), key.getBytes(StandardCharsets.UTF_8))) {
+				throw new BadPaddingException("Record does not hold the key it is indexed under");
+			}
+			return this.method.getSerializer().deserialize(in);
+		}
+	}
+
+	/**
+	 * Removes the object stored under a key.
+	 * @param key key
+	 * @return true if an object was stored under this key
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 * @throws NotEncryptableException
+	 */
+	public boolean remove(String key) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+		ByteBuffer indexKey = this.keyIndex.computeKey(new EncryptableString(key));
+		if(!this.index.containsKey(indexKey)) {
+			return false;
+		}
+		this.awaitCommit(this.append(indexKey, DELETE, this.startRecord(DELETE, key)));
+		return true;
+	}
+
+	/**
+	 * Getter.
+	 * @return number of stored objects
+	 */
+	public int size() {
+		return this.index.size();
+	}
+
+	/**
+	 * Getter.
+	 * @return number of segment files
+	 */
+	public int getSegmentCount() {
+		return this.segments.size();
+	}
+
+	/**
+	 * Makes all writes done so far durable.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		long sequence;
+		synchronized(this.writeLock) {
+			sequence = this.appended;
+		}
+		this.commit(sequence);
+	}
+
+	/**
+	 * Compacts now the segments whose live bytes ratio is under {@link #COMPACTION_THRESHOLD}, as done in background.
+	 * @return number of compacted segments
+	 * @throws IOException
+	 */
+	public int compact() throws IOException {
+		int compacted = 0;
+		for(Segment segment : this.segments.values()) {
+			synchronized(this.writeLock) {
+				if(this.closed || segment == this.active || segment.liveBytes.get() >= COMPACTION_THRESHOLD * segment.end) continue;
+			}
+			this.compact(segment);
+			compacted++;
+		}
+		return compacted;
+	}
+
+	/**
+	 * Closes the store, after committing all writes.
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(this.writeLock) {
+			if(this.closed) return;
+			this.closed = true;
+		}
+		this.background.shutdown();
+		try {
+			this.background.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.commit(Long.MAX_VALUE);
+		for(Segment segment : this.segments.values()) {
+			segment.channel.close();
+		}
+	}
+
+	/**
+	 * Starts the plain content of a record: type and key.
+	 */
+	private ByteArrayOutputStream startRecord(byte type, String key) throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream plain = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(plain);
+		out.writeByte(type);
+		out.writeInt(keyBytes.length);
+		out.write(keyBytes);
+		out.flush();
+		return plain;
+	}
+
+	/**
+	 * Appends a record to the log, encrypting its plain content directly into the active segment, and updates the index.
+	 * @return sequence number of the write
+	 */
+	private long append(ByteBuffer indexKey, byte type, ByteArrayOutputStream plain) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException {
+		int length = HEADER_SIZE + this.method.getEncryptedSize(plain.size());
+		if(length > this.segmentSize) {
+			throw new IllegalArgumentException("Record of " + length + " bytes exceeds segment size of " + this.segmentSize + " bytes");
+		}
+		synchronized(this.writeLock) {
+			this.checkOpen();
+			Segment segment = this.activeFor(length);
+			int offset = segment.end;
+			ByteBuffer record = segment.slice(offset, length);
+			record.position(offset + 8);
+			record.put(indexKey.duplicate()).put(type);
+			try {
+				this.method.encrypt(ByteBuffer.wrap(plain.toByteArray()), record);
+			} catch (ShortBufferException e) {
+				throw new IllegalBlockSizeException(e.getMessage());
+			}
+			CRC32 crc = new CRC32();
+			crc.update(segment.slice(offset + 8, length - 8));
+			segment.buffer.putInt(offset + 4, (int)crc.getValue());
+			segment.buffer.putInt(offset, length); //Last, so that a torn record is never taken for a complete one
+			segment.end = offset + length;
+
+			Long previous;
+			if(type == PUT) {
+				segment.liveBytes.addAndGet(length);
+				previous = this.index.put(indexKey, location(segment.id, offset));
+			} else {
+				previous = this.index.remove(indexKey);
+			}
+			this.release(previous);
+			this.dirty.add(segment);
+			return ++this.appended;
+		}
+	}
+
+	/**
+	 * Gives the segment to append a record to, rolling to a new one if active one is full. Called under write lock.
+	 */
+	private Segment activeFor(int length) throws IOException {
+		if(this.active == null || this.active.end > this.active.buffer.capacity() - length) {
+			int id = this.active == null ? 0 : this.active.id + 1;
+			Segment segment = new Segment(id, this.directory.resolve(String.format("%010d%s", id, SEGMENT_SUFFIX)), this.segmentSize);
+			this.segments.put(id, segment);
+			this.active = segment;
+		}
+		return this.active;
+	}
+
+	/**
+	 * Deducts an overwritten or removed record from the live bytes of its segment.
+	 */
+	private void release(Long location) {
+		if(location == null) return;
+		Segment segment = this.segments.get(segmentId(location));
+		if(segment != null) {
+			segment.liveBytes.addAndGet(-segment.buffer.getInt(offset(location)));
+		}
+	}
+
+	/**
+	 * Waits for a write to be committed, if writes are not committed in background.
+	 */
+	private void awaitCommit(long sequence) throws IOException {
+		if(this.commitIntervalMillis == 0) {
+			this.commit(sequence);
+		}
+	}
+
+	/**
+	 * Forces the segments written since the last commit, unless a concurrent commit already covered the given write.
+	 * Writers waiting meanwhile are covered by the next commit (group commit).
+	 */
+	private void commit(long sequence) throws IOException {
+		synchronized(this.commitLock) {
+			if(this.committed >= sequence) return;
+			List<Segment> toForce;
+			long target;
+			synchronized(this.writeLock) {
+				toForce = new ArrayList<>(this.dirty);
+				this.dirty.clear();
+				target = this.appended;
+			}
+			for(Segment segment : toForce) {
+				segment.buffer.force();
+			}
+			this.committed = target;
+		}
+	}
+
+	/**
+	 * Copies the live records of a segment to the end of the log (still encrypted), then deletes it.
+	 * Removal records are kept only while an older segment still holds a record putting their key,
+	 * otherwise they would be copied again on each compaction of the segment they were copied to.
+	 */
+	private void compact(Segment segment) throws IOException {
+		Set<ByteBuffer> removed = new HashSet<>();
+		for(int offset = 0; offset < segment.end; offset += segment.buffer.getInt(offset)) {
+			if(segment.buffer.get(offset + TYPE_OFFSET) == DELETE) {
+				removed.add(segment.readIndex(offset));
+			}
+		}
+		Set<ByteBuffer> stillPut = this.stillPutBefore(segment.id, removed);
+		for(int offset = 0; offset < segment.end; ) {
+			int length = segment.buffer.getInt(offset);
+			ByteBuffer indexKey = segment.readIndex(offset);
+			boolean put = segment.buffer.get(offset + TYPE_OFFSET) == PUT;
+			synchronized(this.writeLock) {
+				if(this.closed) return;
+				Long location = location(segment.id, offset);
+				if(put ? location.equals(this.index.get(indexKey)) : !this.index.containsKey(indexKey) && stillPut.contains(indexKey)) {
+					Segment target = this.activeFor(length);
+					ByteBuffer copy = target.slice(target.end, length);
+					copy.put(segment.slice(offset, length));
+					if(put) {
+						target.liveBytes.addAndGet(length);
+						segment.liveBytes.addAndGet(-length);
+						this.index.put(indexKey, location(target.id, target.end));
+					}
+					target.end += length;
+					this.dirty.add(target);
+					this.appended++;
+				}
+			}
+			offset += length;
+		}
+
+		this.flush(); //Copies durable before deleting the segment
+		this.segments.remove(segment.id);
+		segment.channel.close();
+		Files.deleteIfExists(segment.path);
+	}
+
+	/**
+	 * Gives, among the given key blind indexes, the ones put by a record (live or not) of a segment older than the given one.
+	 */
+	private Set<ByteBuffer> stillPutBefore(int segmentId, Set<ByteBuffer> indexKeys) {
+		Set<ByteBuffer> stillPut = new HashSet<>();
+		if(indexKeys.isEmpty()) return stillPut;
+		for(Segment older : this.segments.headMap(segmentId).values()) {
+			for(int offset = 0; offset < older.end; offset += older.buffer.getInt(offset)) {
+				if(older.buffer.get(offset + TYPE_OFFSET) == PUT) {
+					ByteBuffer indexKey = older.readIndex(offset);
+					if(indexKeys.contains(indexKey)) {
+						stillPut.add(indexKey);
+					}
+				}
+			}
+		}
+		return stillPut;
+	}
+
+	/**
+	 * Decrypts a record, checking that its encrypted type matches the type of its header.
+	 * @return decrypted content, positioned on the key
+	 * @throws BadPaddingException if record has been altered
+	 */
+	private DataInputStream decryptRecord(Segment segment, int offset) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException {
+		int length = segment.buffer.getInt(offset);
+		ByteBuffer plain = ByteBuffer.allocate(length - HEADER_SIZE);
+		try {
+			this.method.decrypt(segment.slice(offset + HEADER_SIZE, length - HEADER_SIZE), plain);
+		} catch (ShortBufferException e) {
+			throw new IllegalBlockSizeException(e.getMessage());
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain.array(), 0, plain.position()));
+		if(in.readByte() != segment.buffer.get(offset + TYPE_OFFSET)) {
+			throw new BadPaddingException("Record type does not match its encrypted type");
+		}
+		return in;
+	}
+
+	/**
+	 * Reads the key of a decrypted record.
+	 * @throws BadPaddingException if key length is not consistent with record length
+	 */
+	private static byte[] readKey(DataInputStream in) throws IOException, BadPaddingException {
+		int length = in.readInt();
+		if(length < 0 || length > in.available()) {
+			throw new BadPaddingException("Invalid record key length: " + length);
+		}
+		byte[] key = new byte[length];
+		in.readFully(key);
+		return key;
+	}
+
+	/**
+	 * Checks that a record read on recovery matches its header: encrypted type, and blind index of encrypted key.
+	 * @throws IOException caused by a BadPaddingException if record has been altered
+	 */
+	private void checkRecord(Segment segment, int offset, ByteBuffer indexKey) throws IOException, InvalidKeyException {
+		try {
+			String key = new String(readKey(this.decryptRecord(segment, offset)), StandardCharsets.UTF_8);
+			if(!indexKey.equals(this.keyIndex.computeKey(new EncryptableString(key)))) {
+				throw new BadPaddingException("Record indexed under the blind index of another key");
+			}
+		} catch (BadPaddingException | IllegalBlockSizeException | NotEncryptableException e) {
+			throw new IOException("Altered record in " + segment.path + " at offset " + offset, e);
+		}
+	}
+
+	/**
+	 * Rebuilds the index from the segment files, checking each record against its header.
+	 * @throws IOException caused by a BadPaddingException if a record has been altered
+	 */
+	private void recover() throws IOException, InvalidKeyException {
+		List<Path> paths;
+		try(Stream<Path> files = Files.list(this.directory)) {
+			paths = files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().collect(Collectors.toList());
+		}
+		for(Path path : paths) {
+			String name = path.getFileName().toString();
+			Segment segment = new Segment(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), path, 0);
+			this.segments.put(segment.id, segment);
+			int offset = 0;
+			while(segment.isValidRecord(offset)) {
+				int length = segment.buffer.getInt(offset);
+				ByteBuffer indexKey = segment.readIndex(offset);
+				this.checkRecord(segment, offset, indexKey);
+				Long previous;
+				if(segment.buffer.get(offset + TYPE_OFFSET) == PUT) {
+					segment.liveBytes.addAndGet(length);
+					previous = this.index.put(indexKey, location(segment.id, offset));
+				} else {
+					previous = this.index.remove(indexKey);
+				}
+				this.release(previous);
+				offset += length;
+			}
+			segment.end = offset;
+			this.active = segment;
+		}
+		if(this.active != null) {
+			this.clearTail(this.active);
+		}
+	}
+
+	/**
+	 * Zeroes the active segment after its last valid record, if anything was written there:
+	 * records written after a torn one (reaching disk before the crash) would otherwise be read again
+	 * on next recovery, as soon as new records end where they start.
+	 */
+	private void clearTail(Segment segment) {
+		int capacity = segment.buffer.capacity();
+		int i = segment.end;
+		while(i < capacity && segment.buffer.get(i) == 0) i++;
+		if(i == capacity) return;
+		for(i = segment.end; i < capacity - 8; i += 8) {
+			segment.buffer.putLong(i, 0);
+		}
+		for(; i < capacity; i++) {
+			segment.buffer.put(i, (byte)0);
+		}
+		segment.buffer.force();
+	}
+
+	/**
+	 * Runs a background task, keeping its failure to report it to next writes.
+	 */
+	private void runInBackground(BackgroundTask task) {
+		try {
+			task.run();
+		} catch (Exception e) {
+			this.backgroundFailure = e;
+		}
+	}
+
+	private interface BackgroundTask {
+		void run() throws IOException;
+	}
+
+	private void checkOpen() throws IOException {
+		if(this.closed) {
+			throw new IllegalStateException("Store is closed");
+		}
+		if(this.backgroundFailure != null) {
+			throw new IOException("Background commit or compaction failed", this.backgroundFailure);
+		}
+	}
+
+	private static long location(int segmentId, int offset) {
+		return ((long)segmentId << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	private static int segmentId(long location) {
+		return (int)(location >>> 32);
+	}
+
+	private static int offset(long location) {
+		return (int)location;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.getClass().getSimpleName() + "]{directory=" + this.directory + ", size=" + this.size() + ", segments=" + this.getSegmentCount() + "}";
+	}
+}
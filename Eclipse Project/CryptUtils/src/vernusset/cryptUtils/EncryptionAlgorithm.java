@@ -27,6 +27,14 @@ public interface EncryptionAlgorithm {
 	 */
 	public String getAlgo();
 	
+	/**
+	 * 
+	 * @return cipher transformation used by encryption methods (algo full name by default)
+	 */
+	public default String getTransformation() {
+		return this.getName();
+	}
+	
 	/**
 	 * 
 	 * @return string representation of algo
@@ -1,27 +1,36 @@
 package vernusset.cryptUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.NotSerializableException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 
 import vernusset.cryptUtils.encryptableObjects.Encryptable;
 import vernusset.cryptUtils.exceptions.NotEncryptableException;
+import vernusset.cryptUtils.serialization.EncryptableSerializer;
+import vernusset.cryptUtils.serialization.JavaSerializer;
 
 
 /**
  * 
  * This abstract class wraps a cipher, 
- * allows to serialize/deserialize objects, 
+ * allows to serialize/deserialize objects (through a pluggable serializer), 
  * and defines methods to encrypt/decrypt objects (to be implemented by child classes).
  *
  * @author Maxime VERNUSSET
@@ -29,23 +38,131 @@ import vernusset.cryptUtils.exceptions.NotEncryptableException;
  */
 public abstract class EncryptionMethod {
 	
+	/**
+	 * Size of the chunks piped through the cipher by streaming methods, in bytes.
+	 */
+	protected static final int STREAM_CHUNK_SIZE = 8192;
+	
+	/**
+	 * Number of items under which a batch is not split any further when run in parallel.
+	 */
+	protected static final int BATCH_PARALLEL_THRESHOLD = 256;
+	
+	/**
+	 * Algorithm used by cipher.
+	 */
+	protected final EncryptionAlgorithm algo;
+	
 	/**
 	 * Cipher used to provide encryption/decryption methods.
+	 * Shared by all calls when thread safe mode is disabled (built on first use).
 	 */
 	protected Cipher cipher;
 	
+	/**
+	 * Per-thread ciphers, used instead of the shared one when thread safe mode is enabled (null otherwise).
+	 */
+	private volatile ThreadLocal<Cipher> threadCiphers;
+	
+	/**
+	 * Serializer used to turn objects into bytes before encryption (and back after decryption).
+	 */
+	private volatile EncryptableSerializer serializer = JavaSerializer.INSTANCE;
+	
 	
 	/**
 	 * Constructor.
+	 * Cheap enough to be called per request: provider lookup is cached by {@link CipherFactory}, 
+	 * and the shared cipher is only built on first use.
 	 * @param algo Algorithm to be used by cipher
+	 * @throws IllegalStateException if algorithm is not available
 	 */
 	protected EncryptionMethod(EncryptionAlgorithm algo) {
-  		try {
-			this.cipher = Cipher.getInstance(algo.getName());
-		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-			e.printStackTrace();
-		}
+		this.algo = algo;
+		CipherFactory.getProvider(algo); //Fails fast if algorithm is not available
   	}
+	
+	/**
+	 * Builds a new cipher for the given algorithm.
+	 * @param algo Algorithm to be used by cipher
+	 * @return new cipher
+	 * @throws IllegalStateException if algorithm is not available
+	 */
+	protected static Cipher newCipher(EncryptionAlgorithm algo) {
+		long start = EncryptionMetrics.start();
+		Cipher cipher = CipherFactory.newCipher(algo);
+		EncryptionMetrics.end(algo, EncryptionMetrics.Phase.CIPHER_CREATION, start, 0, 0);
+		return cipher;
+	}
+	
+	/**
+	 * Getter.
+	 * @return algorithm used by cipher
+	 */
+	public EncryptionAlgorithm getAlgorithm() {
+		return this.algo;
+	}
+	
+	/**
+	 * Getter.
+	 * @return serializer used before encryption/after decryption
+	 */
+	public EncryptableSerializer getSerializer() {
+		return this.serializer;
+	}
+	
+	/**
+	 * Setter.
+	 * Default serializer is {@link vernusset.cryptUtils.serialization.JavaSerializer JavaSerializer}; 
+	 * {@link vernusset.cryptUtils.serialization.CompactSerializer CompactSerializer} gives smaller output for supported classes.
+	 * Both correspondents must use the same serializer.
+	 * @param serializer serializer to use before encryption/after decryption
+	 */
+	public void setSerializer(EncryptableSerializer serializer) {
+		this.serializer = serializer;
+	}
+	
+	/**
+	 * Enables or disables thread safe mode.
+	 * When enabled, each calling thread gets its own cipher (lazily built then reused), 
+	 * so a single instance can encrypt/decrypt from many threads without any locking.
+	 * Should be set before sharing the instance between threads.
+	 * @param threadSafe true to enable thread safe mode, false to use a single shared cipher
+	 */
+	public void setThreadSafe(boolean threadSafe) {
+		if(threadSafe) {
+			if(this.threadCiphers == null) {
+				final EncryptionAlgorithm algo = this.algo;
+				this.threadCiphers = ThreadLocal.withInitial(() -> newCipher(algo));
+			}
+		} else {
+			this.threadCiphers = null;
+		}
+	}
+	
+	/**
+	 * Getter.
+	 * @return true if thread safe mode is enabled
+	 */
+	public boolean isThreadSafe() {
+		return this.threadCiphers != null;
+	}
+	
+	/**
+	 * Gives the cipher to use for the current call: 
+	 * calling thread's own cipher in thread safe mode, shared cipher otherwise.
+	 * @return cipher to use
+	 */
+	protected Cipher getCipher() {
+		ThreadLocal<Cipher> threadCiphers = this.threadCiphers;
+		if(threadCiphers != null) {
+			return threadCiphers.get();
+		}
+		if(this.cipher == null) {
+			this.cipher = newCipher(this.algo);
+		}
+		return this.cipher;
+	}
 
 	
   	/**
@@ -56,14 +173,9 @@ public abstract class EncryptionMethod {
   	 * @throws NotEncryptableException 
   	 */
   	protected byte[] serialize(Encryptable object) throws IOException, NotEncryptableException {
-    	try {
-    		ByteArrayOutputStream out = new ByteArrayOutputStream();
-    		ObjectOutputStream os = new ObjectOutputStream(out);
-    		os.writeObject(object);
-    		return out.toByteArray();
-    	} catch (NotSerializableException e) {
-    		throw new NotEncryptableException();
-    	}
+  		ByteArrayOutputStream out = new ByteArrayOutputStream();
+  		this.serializer.serialize(object, out);
+  		return out.toByteArray();
     }
     
   	/**
@@ -75,13 +187,7 @@ public abstract class EncryptionMethod {
   	 * @throws ClassNotFoundException
   	 */
   	protected Encryptable deserialize(byte[] data) throws NotEncryptableException, IOException, ClassNotFoundException   {
-  		try {
-	        ByteArrayInputStream in = new ByteArrayInputStream(data);
-	        ObjectInputStream is = new ObjectInputStream(in);
-	        return (Encryptable)is.readObject();
-  		} catch (NotSerializableException e) {
-    		throw new NotEncryptableException();
-  		}
+  		return this.serializer.deserialize(new ByteArrayInputStream(data));
     }
     
   	/**
@@ -90,7 +196,33 @@ public abstract class EncryptionMethod {
   	 * @param data object to encrypt
   	 * @return bytes array encrypted data
   	 */
-  	protected abstract byte[] encrypt(Encryptable data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException;
+  	protected byte[] encrypt(Encryptable data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+  		long start = EncryptionMetrics.start();
+  		try {
+  			byte[] serialized = this.serialize(data);
+  			start = EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.SERIALIZATION, start, 0, serialized.length);
+  			byte[] encrypted = this.encryptSerialized(this.getCipher(), serialized, serialized.length, false);
+  			EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.ENCRYPTION, start, serialized.length, encrypted.length);
+  			return encrypted;
+  		} catch (Exception e) {
+  			EncryptionMetrics.failure(this.algo);
+  			throw e;
+  		}
+  	}
+  	
+  	/**
+  	 * Encrypts serialized data.
+  	 * @param cipher cipher to use
+  	 * @param data serialized data
+  	 * @param length number of bytes to encrypt from data start
+  	 * @param initialized true if cipher was initialized for encryption by a previous successful call with the same cipher, 
+  	 * 		in which case initialization can be skipped if algorithm allows it
+  	 * @return encrypted data
+  	 * @throws InvalidKeyException
+  	 * @throws IllegalBlockSizeException
+  	 * @throws BadPaddingException
+  	 */
+  	protected abstract byte[] encryptSerialized(Cipher cipher, byte[] data, int length, boolean initialized) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException;
   	
     /**
      * 
@@ -127,7 +259,58 @@ public abstract class EncryptionMethod {
   	 * @throws NotEncryptableException
   	 * @throws IOException
   	 */
-    protected abstract Encryptable decrypt(byte[] encryptedData) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException;
+    protected Encryptable decrypt(byte[] encryptedData) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException {
+    	long start = EncryptionMetrics.start();
+    	try {
+    		byte[] serialized = this.decryptSerialized(this.getCipher(), encryptedData, false);
+    		start = EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.DECRYPTION, start, encryptedData.length, serialized.length);
+    		Encryptable object = this.deserialize(serialized);
+    		EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.DESERIALIZATION, start, serialized.length, 0);
+    		return object;
+    	} catch (Exception e) {
+    		EncryptionMetrics.failure(this.algo);
+    		throw e;
+    	}
+    }
+    
+    /**
+     * Base64 encodes encrypted data (standard alphabet, with padding).
+     * @param encryptedData encrypted data
+     * @return Base64 encoded encrypted data
+     */
+    protected String encodeBase64(byte[] encryptedData) {
+    	long start = EncryptionMetrics.start();
+    	String encoded = Base64.getEncoder().encodeToString(encryptedData);
+    	EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.BASE64_ENCODING, start, encryptedData.length, encoded.length());
+    	return encoded;
+    }
+    
+    /**
+     * Decodes Base64 encoded encrypted data.
+     * @param encryptedData Base64 encoded encrypted data
+     * @param codec Base64 alphabet used by encoded data
+     * @return encrypted data
+     * @throws IllegalArgumentException if encoded data is not valid Base64
+     */
+    protected byte[] decodeBase64(CharSequence encryptedData, Base64Codec codec) {
+    	long start = EncryptionMetrics.start();
+    	byte[] decoded = codec.decode(encryptedData);
+    	EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.BASE64_DECODING, start, encryptedData.length(), decoded.length);
+    	return decoded;
+    }
+    
+    /**
+     * Decrypts data back to its serialized form.
+     * @param cipher cipher to use
+     * @param encryptedData bytes array encrypted data
+  	 * @param initialized true if cipher was initialized for decryption by a previous successful call with the same cipher, 
+  	 * 		in which case initialization can be skipped if algorithm allows it
+     * @return serialized data
+     * @throws InvalidKeyException
+     * @throws IllegalBlockSizeException
+     * @throws BadPaddingException
+     */
+    protected abstract byte[] decryptSerialized(Cipher cipher, byte[] encryptedData, boolean initialized) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException;
     
     /**
      * 
@@ -154,4 +337,351 @@ public abstract class EncryptionMethod {
      * @throws IOException
      */
     public abstract Encryptable decryptFromBase64String(String encryptedData) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException;
+    
+    /**
+     * Streaming encryption: the object is serialized through the cipher in bounded chunks, 
+     * so memory use does not depend on object size.
+     * Output is the same as {@link #encryptToBytesArray(Encryptable) encryptToBytesArray}.
+     * Given output stream is left open.
+     * @param data any object that implements the Encryptable interface
+     * @param out stream to write encrypted data to
+     * @throws InvalidKeyException
+     * @throws IOException
+     * @throws NotEncryptableException
+     */
+    public void encryptTo(Encryptable data, OutputStream out) throws InvalidKeyException, IOException, NotEncryptableException {
+    	OutputStream encryptionStream = this.openEncryptionStream(new UnclosedOutputStream(out));
+    	try (OutputStream os = new BufferedOutputStream(encryptionStream, STREAM_CHUNK_SIZE)) {
+    		this.serializer.serialize(data, os);
+    	}
+    }
+    
+    /**
+     * Streaming decryption: encrypted data is deciphered and deserialized in bounded chunks.
+     * Encrypted data is read until the end of the given stream, which is left open.
+     * @param in stream to read encrypted data from
+     * @return decrypted data
+     * @throws InvalidKeyException
+     * @throws ClassNotFoundException
+     * @throws NotEncryptableException
+     * @throws IOException
+     */
+    public Encryptable decryptFrom(InputStream in) throws InvalidKeyException, ClassNotFoundException, NotEncryptableException, IOException {
+    	InputStream decryptionStream = new BufferedInputStream(this.openDecryptionStream(in), STREAM_CHUNK_SIZE);
+    	Encryptable object = this.serializer.deserialize(decryptionStream);
+    	byte[] trailing = new byte[STREAM_CHUNK_SIZE];
+    	while(decryptionStream.read(trailing) >= 0); //Consumes padding and checks it
+    	return object;
+    }
+    
+    /**
+     * Encrypts an object and appends its Base64 encoded encrypted data to the given destination (StringBuilder, Writer...), 
+     * without any intermediate encoded array or string.
+     * @param data any object that implements the Encryptable interface
+     * @param dst destination of encoded encrypted data
+     * @param codec Base64 alphabet and padding to use
+     * @return number of characters appended
+     * @throws InvalidKeyException
+     * @throws IllegalBlockSizeException
+     * @throws BadPaddingException
+     * @throws IOException
+     * @throws NotEncryptableException
+     */
+    public int encryptToBase64(Encryptable data, Appendable dst, Base64Codec codec) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+    	byte[] encrypted = this.encrypt(data);
+    	long start = EncryptionMetrics.start();
+    	int encodedLength = codec.encode(encrypted, 0, encrypted.length, dst);
+    	EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.BASE64_ENCODING, start, encrypted.length, encodedLength);
+    	return encodedLength;
+    }
+    
+    /**
+     * Encrypts an object and writes its Base64 encoded encrypted data (ASCII characters) to the given buffer, from its position.
+     * Buffer position is advanced accordingly.
+     * @param data any object that implements the Encryptable interface
+     * @param dst buffer receiving encoded encrypted data (heap or direct one)
+     * @param codec Base64 alphabet and padding to use
+     * @return number of bytes written
+     * @throws InvalidKeyException
+     * @throws ShortBufferException if destination buffer is too small (nothing is written)
+     * @throws IllegalBlockSizeException
+     * @throws BadPaddingException
+     * @throws IOException
+     * @throws NotEncryptableException
+     */
+    public int encryptToBase64(Encryptable data, ByteBuffer dst, Base64Codec codec) throws InvalidKeyException, ShortBufferException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+    	byte[] encrypted = this.encrypt(data);
+    	int encodedLength = codec.encodedLength(encrypted.length);
+    	if(dst.remaining() < encodedLength) {
+    		throw new ShortBufferException("Destination buffer too small. Needed: " + encodedLength + " bytes, remaining: " + dst.remaining() + " bytes");
+    	}
+    	long start = EncryptionMetrics.start();
+    	codec.encode(ByteBuffer.wrap(encrypted), dst);
+    	EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.BASE64_ENCODING, start, encrypted.length, encodedLength);
+    	return encodedLength;
+    }
+    
+    /**
+     * Decrypts Base64 encoded encrypted data straight from any character sequence (String, StringBuilder, CharBuffer...).
+     * @param encryptedData Base64 encoded encrypted data
+     * @param codec Base64 alphabet used by encoded data
+     * @return decrypted data
+     * @throws InvalidKeyException
+     * @throws ClassNotFoundException
+     * @throws IllegalBlockSizeException
+     * @throws BadPaddingException
+     * @throws NotEncryptableException
+     * @throws IOException
+     * @throws IllegalArgumentException if encoded data is not valid Base64
+     */
+    public Encryptable decryptFromBase64(CharSequence encryptedData, Base64Codec codec) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException {
+    	return this.decrypt(this.decodeBase64(encryptedData, codec));
+    }
+    
+    /**
+     * Decrypts Base64 encoded encrypted data (ASCII characters) straight from a buffer's remaining bytes.
+     * Buffer position is advanced accordingly.
+     * @param encryptedData buffer holding Base64 encoded encrypted data (heap or direct one)
+     * @param codec Base64 alphabet used by encoded data
+     * @return decrypted data
+     * @throws InvalidKeyException
+     * @throws ClassNotFoundException
+     * @throws IllegalBlockSizeException
+     * @throws BadPaddingException
+     * @throws NotEncryptableException
+     * @throws IOException
+     * @throws IllegalArgumentException if encoded data is not valid Base64
+     */
+    public Encryptable decryptFromBase64(ByteBuffer encryptedData, Base64Codec codec) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException {
+    	long start = EncryptionMetrics.start();
+    	int encodedLength = encryptedData.remaining();
+    	byte[] decoded = new byte[codec.decodedLength(encryptedData)];
+    	codec.decode(encryptedData, ByteBuffer.wrap(decoded));
+    	EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.BASE64_DECODING, start, encodedLength, decoded.length);
+    	return this.decrypt(decoded);
+    }
+    
+    /**
+     * Streaming encryption with Base64 encoded output: the object is serialized, encrypted and encoded in bounded chunks.
+     * Decoded output is the same as {@link #encryptToBytesArray(Encryptable) encryptToBytesArray}.
+     * Given output stream is left open.
+     * @param data any object that implements the Encryptable interface
+     * @param out stream to write Base64 encoded encrypted data to
+     * @param codec Base64 alphabet and padding to use
+     * @throws InvalidKeyException
+     * @throws IOException
+     * @throws NotEncryptableException
+     */
+    public void encryptToBase64Stream(Encryptable data, OutputStream out, Base64Codec codec) throws InvalidKeyException, IOException, NotEncryptableException {
+    	OutputStream encodingStream = codec.wrap(new UnclosedOutputStream(out));
+    	this.encryptTo(data, encodingStream);
+    	encodingStream.close(); //Writes last characters
+    }
+    
+    /**
+     * Streaming decryption of Base64 encoded encrypted data: encrypted data is decoded, deciphered and deserialized in bounded chunks.
+     * Encoded data is read until the end of the given stream, which is left open.
+     * @param in stream to read Base64 encoded encrypted data from
+     * @param codec Base64 alphabet used by encoded data
+     * @return decrypted data
+     * @throws InvalidKeyException
+     * @throws ClassNotFoundException
+     * @throws NotEncryptableException
+     * @throws IOException
+     */
+    public Encryptable decryptFromBase64Stream(InputStream in, Base64Codec codec) throws InvalidKeyException, ClassNotFoundException, NotEncryptableException, IOException {
+    	return this.decryptFrom(codec.wrap(in));
+    }
+    
+    /**
+     * Encrypts a batch of objects, sequentially.
+     * Cipher initialization (when algorithm allows it) and serialization buffer are shared by the whole batch.
+     * @param data objects to encrypt
+     * @return encryption results (encrypted data or error), in input order
+     */
+    public List<BatchResult<byte[]>> encryptAll(List<? extends Encryptable> data) {
+    	return this.encryptAll(data, null);
+    }
+    
+    /**
+     * Encrypts a batch of objects, splitting it between the workers of the given pool if it is large enough.
+     * Cipher initialization (when algorithm allows it) and serialization buffer are shared by each part of the batch.
+     * @param data objects to encrypt
+     * @param pool pool to run encryption in, or null to encrypt sequentially in calling thread
+     * @return encryption results (encrypted data or error), in input order
+     */
+    public List<BatchResult<byte[]>> encryptAll(List<? extends Encryptable> data, ForkJoinPool pool) {
+    	@SuppressWarnings("unchecked")
+    	BatchResult<byte[]>[] results = (BatchResult<byte[]>[])new BatchResult<?>[data.size()];
+    	this.runBatch((cipher, from, to) -> {
+    		ReusableByteArrayOutputStream buffer = new ReusableByteArrayOutputStream();
+    		boolean initialized = false;
+    		for(int i = from; i < to; i++) {
+    			try {
+    				long start = EncryptionMetrics.start();
+    				buffer.reset();
+    				this.serializer.serialize(data.get(i), buffer);
+    				start = EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.SERIALIZATION, start, 0, buffer.size());
+    				byte[] encrypted = this.encryptSerialized(cipher, buffer.array(), buffer.size(), initialized);
+    				EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.ENCRYPTION, start, buffer.size(), encrypted.length);
+    				results[i] = BatchResult.success(encrypted);
+    				initialized = true;
+    			} catch (Exception e) {
+    				EncryptionMetrics.failure(this.algo);
+    				results[i] = BatchResult.failure(e);
+    				initialized = false;
+    			}
+    		}
+    	}, results.length, pool);
+    	return Arrays.asList(results);
+    }
+    
+    /**
+     * Decrypts a batch of encrypted data, sequentially.
+     * Cipher initialization (when algorithm allows it) is shared by the whole batch.
+     * @param encryptedData bytes arrays encrypted data
+     * @return decryption results (decrypted object or error), in input order
+     */
+    public List<BatchResult<Encryptable>> decryptAll(List<byte[]> encryptedData) {
+    	return this.decryptAll(encryptedData, null);
+    }
+    
+    /**
+     * Decrypts a batch of encrypted data, splitting it between the workers of the given pool if it is large enough.
+     * Cipher initialization (when algorithm allows it) is shared by each part of the batch.
+     * @param encryptedData bytes arrays encrypted data
+     * @param pool pool to run decryption in, or null to decrypt sequentially in calling thread
+     * @return decryption results (decrypted object or error), in input order
+     */
+    public List<BatchResult<Encryptable>> decryptAll(List<byte[]> encryptedData, ForkJoinPool pool) {
+    	@SuppressWarnings("unchecked")
+    	BatchResult<Encryptable>[] results = (BatchResult<Encryptable>[])new BatchResult<?>[encryptedData.size()];
+    	this.runBatch((cipher, from, to) -> {
+    		boolean initialized = false;
+    		for(int i = from; i < to; i++) {
+    			byte[] serialized;
+    			long start = EncryptionMetrics.start();
+    			try {
+    				serialized = this.decryptSerialized(cipher, encryptedData.get(i), initialized);
+    				start = EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.DECRYPTION, start, encryptedData.get(i).length, serialized.length);
+    				initialized = true;
+    			} catch (Exception e) {
+    				EncryptionMetrics.failure(this.algo);
+    				results[i] = BatchResult.failure(e);
+    				initialized = false;
+    				continue;
+    			}
+    			try {
+    				results[i] = BatchResult.success(this.deserialize(serialized));
+    				EncryptionMetrics.end(this.algo, EncryptionMetrics.Phase.DESERIALIZATION, start, serialized.length, 0);
+    			} catch (Exception e) {
+    				EncryptionMetrics.failure(this.algo);
+    				results[i] = BatchResult.failure(e);
+    			}
+    		}
+    	}, results.length, pool);
+    	return Arrays.asList(results);
+    }
+    
+    /**
+     * Runs a batch, in calling thread or split between the workers of the given pool.
+     * @param processor batch items processing
+     * @param size number of items
+     * @param pool pool to run batch in, or null to run it in calling thread
+     */
+    private void runBatch(BatchProcessor processor, int size, ForkJoinPool pool) {
+    	if(pool == null) {
+    		processor.process(this.getCipher(), 0, size);
+    	} else {
+    		pool.invoke(new BatchTask(processor, 0, size));
+    	}
+    }
+    
+    /**
+     * Processing of a range of batch items.
+     */
+    private interface BatchProcessor {
+    	/**
+    	 * @param cipher cipher to use (owned by the calling thread for the whole range)
+    	 * @param from first item index
+    	 * @param to index after last item
+    	 */
+    	void process(Cipher cipher, int from, int to);
+    }
+    
+    /**
+     * Batch part, recursively split in halves until small enough.
+     */
+    private class BatchTask extends RecursiveAction {
+    	private static final long serialVersionUID = 1L;
+    	
+    	private final BatchProcessor processor;
+    	private final int from;
+    	private final int to;
+    	
+    	private BatchTask(BatchProcessor processor, int from, int to) {
+    		this.processor = processor;
+    		this.from = from;
+    		this.to = to;
+    	}
+    	
+    	@Override
+    	protected void compute() {
+    		if(this.to - this.from > BATCH_PARALLEL_THRESHOLD) {
+    			int middle = (this.from + this.to) >>> 1;
+    			invokeAll(new BatchTask(this.processor, this.from, middle), new BatchTask(this.processor, middle, this.to));
+    		} else {
+    			//A cipher is needed per worker: thread's own one in thread safe mode, a new one otherwise
+    			Cipher cipher = EncryptionMethod.this.isThreadSafe() ? EncryptionMethod.this.getCipher() : newCipher(EncryptionMethod.this.algo);
+    			this.processor.process(cipher, this.from, this.to);
+    		}
+    	}
+    }
+    
+    /**
+     * Output stream that is only flushed when closed, so that wrapping streams can be closed while leaving the given stream open.
+     */
+    private static class UnclosedOutputStream extends FilterOutputStream {
+    	private UnclosedOutputStream(OutputStream out) {
+    		super(out);
+    	}
+    	
+    	@Override
+    	public void write(byte[] b, int off, int len) throws IOException {
+    		this.out.write(b, off, len);
+    	}
+    	
+    	@Override
+    	public void close() throws IOException {
+    		this.flush();
+    	}
+    }
+    
+    /**
+     * Byte array output stream whose internal buffer can be used directly, to be reused between serializations.
+     */
+    private static class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+    	private byte[] array() {
+    		return this.buf;
+    	}
+    }
+    
+    /**
+     * Wraps an output stream so that everything written to it gets encrypted.
+     * Closing the returned stream must complete encryption and close the given stream.
+     * @param out stream to write encrypted data to
+     * @return encryption stream
+     * @throws InvalidKeyException
+     * @throws IOException
+     */
+    protected abstract OutputStream openEncryptionStream(OutputStream out) throws InvalidKeyException, IOException;
+    
+    /**
+     * Wraps an input stream so that everything read from it gets decrypted.
+     * @param in stream to read encrypted data from
+     * @return decryption stream
+     * @throws InvalidKeyException
+     * @throws IOException
+     */
+    protected abstract InputStream openDecryptionStream(InputStream in) throws InvalidKeyException, IOException;
 }
@@ -0,0 +1,216 @@
+package vernusset.cryptUtils;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ *
+ * Instrumentation of encryption methods: for each algorithm, counters, bytes in/out, and latency histogram of each phase
+ * (cipher creation and initialization, serialization, encryption, Base64, decryption, deserialization).
+ * Metrics of each algorithm are exposed through the platform MBean server, under
+ * "vernusset.cryptUtils:type=EncryptionMetrics,algorithm=..." (see {@link AlgorithmMetricsMXBean}),
+ * and phases can also be emitted as Java Flight Recorder events (JDK 12 and later).
+ *
+ * Disabled by default: encryption methods then only check a static field once per phase.
+ * Single message operations (bytes arrays, Base64) and batches are instrumented; streams and files are not.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public final class EncryptionMetrics {
+
+	/**
+	 * Encryption/decryption phases.
+	 */
+	public static enum Phase {
+		/** Cipher creation (provider lookup). */
+		CIPHER_CREATION,
+		/** Cipher initialization with key and nonce (part of encryption/decryption). */
+		CIPHER_INIT,
+		/** Object serialization. */
+		SERIALIZATION,
+		/** Encryption of serialized object, cipher initialization included. */
+		ENCRYPTION,
+		/** Base64 encoding of encrypted data. */
+		BASE64_ENCODING,
+		/** Base64 decoding of encrypted data. */
+		BASE64_DECODING,
+		/** Decryption to serialized object, cipher initialization included. */
+		DECRYPTION,
+		/** Object deserialization. */
+		DESERIALIZATION;
+	}
+
+	/**
+	 * Domain of registered MBeans.
+	 */
+	public static final String DOMAIN = "vernusset.cryptUtils";
+
+	/**
+	 * Start time of a phase that is not timed, metrics being disabled.
+	 */
+	static final long NOT_TIMED = Long.MIN_VALUE;
+
+	private static volatile EncryptionMetrics current;
+
+
+	private final ConcurrentHashMap<EncryptionAlgorithm, AlgorithmMetrics> algorithms = new ConcurrentHashMap<>();
+	private final MBeanServer server;
+	private final JfrPhaseEvents events;
+
+
+	private EncryptionMetrics(MBeanServer server, JfrPhaseEvents events) {
+		this.server = server;
+		this.events = events;
+	}
+
+	/**
+	 * Enables metrics (if not already enabled).
+	 * @param jfrEvents true to also emit phases as Java Flight Recorder events (ignored if JFR dynamic events are not available)
+	 * @return enabled metrics
+	 */
+	public static synchronized EncryptionMetrics enable(boolean jfrEvents) {
+		if(current == null) {
+			current = new EncryptionMetrics(ManagementFactory.getPlatformMBeanServer(), jfrEvents ? JfrPhaseEvents.create() : null);
+		}
+		return current;
+	}
+
+	/**
+	 * Disables metrics, unregistering their MBeans.
+	 */
+	public static synchronized void disable() {
+		EncryptionMetrics metrics = current;
+		current = null;
+		if(metrics != null) {
+			for(EncryptionAlgorithm algo : metrics.algorithms.keySet()) {
+				try {
+					metrics.server.unregisterMBean(objectName(algo));
+				} catch (JMException e) {
+					//Already unregistered
+				}
+			}
+		}
+	}
+
+	/**
+	 * Getter.
+	 * @return enabled metrics, or null if disabled
+	 */
+	public static EncryptionMetrics getInstance() {
+		return current;
+	}
+
+	/**
+	 * Gives the metrics of an algorithm.
+	 * @param algo algorithm
+	 * @return algorithm metrics, or null if nothing was recorded for it
+	 */
+	public AlgorithmMetrics getMetrics(EncryptionAlgorithm algo) {
+		return this.algorithms.get(algo);
+	}
+
+	/**
+	 * Getter.
+	 * @return true if phases are emitted as Java Flight Recorder events
+	 */
+	public boolean isEmittingEvents() {
+		return this.events != null;
+	}
+
+	/**
+	 * Resets metrics of every algorithm.
+	 */
+	public void reset() {
+		for(AlgorithmMetrics metrics : this.algorithms.values()) {
+			metrics.reset();
+		}
+	}
+
+	/**
+	 * Gives the MBean name of an algorithm metrics.
+	 * @param algo algorithm
+	 * @return MBean name
+	 */
+	public static ObjectName objectName(EncryptionAlgorithm algo) {
+		try {
+			return new ObjectName(DOMAIN + ":type=EncryptionMetrics,algorithm=" + ObjectName.quote(algo.toString()));
+		} catch (JMException e) { //Not raised, value being quoted
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * Starts timing a phase.
+	 * @return start time, or {@link #NOT_TIMED} if metrics are disabled
+	 */
+	static long start() {
+		return current != null ? System.nanoTime() : NOT_TIMED;
+	}
+
+	/**
+	 * Ends timing a phase.
+	 * @param algo algorithm
+	 * @param phase phase
+	 * @param start phase start time, given by {@link #start()}
+	 * @param bytesIn number of bytes processed
+	 * @param bytesOut number of bytes produced
+	 * @return end time, to be used as start time of the next phase (or {@link #NOT_TIMED})
+	 */
+	static long end(EncryptionAlgorithm algo, Phase phase, long start, long bytesIn, long bytesOut) {
+		EncryptionMetrics metrics = current;
+		if(metrics == null || start == NOT_TIMED) {
+			return NOT_TIMED;
+		}
+		long end = System.nanoTime();
+		metrics.algorithm(algo).record(phase, end - start, bytesIn, bytesOut);
+		if(metrics.events != null) {
+			metrics.events.commit(algo, phase, end - start, bytesIn, bytesOut);
+		}
+		return end;
+	}
+
+	/**
+	 * Counts a failed encryption or decryption.
+	 * @param algo algorithm
+	 */
+	static void failure(EncryptionAlgorithm algo) {
+		EncryptionMetrics metrics = current;
+		if(metrics != null) {
+			metrics.algorithm(algo).recordFailure();
+		}
+	}
+
+	/**
+	 * Gives the metrics of an algorithm, creating and registering them on first use.
+	 * @param algo algorithm
+	 * @return algorithm metrics
+	 */
+	private AlgorithmMetrics algorithm(EncryptionAlgorithm algo) {
+		AlgorithmMetrics metrics = this.algorithms.get(algo);
+		if(metrics == null) {
+			AlgorithmMetrics created = new AlgorithmMetrics(algo);
+			metrics = this.algorithms.putIfAbsent(algo, created);
+			if(metrics == null) {
+				metrics = created;
+				try {
+					this.server.registerMBean(created, objectName(algo));
+				} catch (JMException e) {
+					//Metrics are still recorded, only not exposed
+				}
+			}
+		}
+		return metrics;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.getClass().getSimpleName() + "]{" + this.algorithms.values() + "}";
+	}
+}
@@ -0,0 +1,409 @@
+package vernusset.cryptUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+import vernusset.cryptUtils.encryptableObjects.Encrypted;
+import vernusset.cryptUtils.exceptions.NotEncryptableException;
+
+
+/**
+ *
+ * Field level encryption: encryptable objects are written field by field, and only the values of fields annotated with
+ * {@link Encrypted @Encrypted} are encrypted, other fields staying in plain text.
+ * Large records holding few sensitive fields then cost less CPU than whole object encryption, and keep their other fields readable.
+ *
+ * Record format: class name, then the value of each non static non transient field (superclass fields first, in declaration order),
+ * encrypted values being preceded by their length, then an HMAC-SHA256 of all of the above.
+ * The MAC (under a key derived from the method key) is checked before anything is read: plain values cannot be altered,
+ * nor encrypted values moved between fields or records.
+ * Primitives, strings and byte arrays are written directly, other values of encrypted fields with standard Java serialization;
+ * plain fields must be of directly written types, so that no plain text is ever deserialized.
+ * Both correspondents must use the same version of the classes.
+ *
+ * Fields of each class are resolved once, and cached. Decrypted objects are built with their no-arg constructor (of any visibility).
+ * Thread safe, if the symmetric method is (see {@link EncryptionMethod#setThreadSafe(boolean) setThreadSafe}).
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class FieldEncryption {
+
+	/**
+	 * Reads and writes the value of a field.
+	 */
+	private interface FieldCodec {
+		void write(Field field, Object object, DataOutput out) throws IOException, IllegalAccessException;
+		void read(Field field, Object object, DataInput in) throws IOException, IllegalAccessException, ClassNotFoundException;
+	}
+
+	/**
+	 * Field, along with its codec.
+	 */
+	private static class FieldAccessor {
+		private final Field field;
+		private final FieldCodec codec;
+		private final boolean encrypted;
+
+		private FieldAccessor(Field field, FieldCodec codec, boolean encrypted) {
+			this.field = field;
+			this.codec = codec;
+			this.encrypted = encrypted;
+		}
+	}
+
+	/**
+	 * Resolved fields and constructor of a class.
+	 */
+	private static class ClassLayout {
+		private final FieldAccessor[] fields;
+		private final Constructor<?> constructor; //null if class has no no-arg constructor
+		private final String unsupportedField; //Plain field of a type not written directly, if any
+
+		private ClassLayout(FieldAccessor[] fields, Constructor<?> constructor, String unsupportedField) {
+			this.fields = fields;
+			this.constructor = constructor;
+			this.unsupportedField = unsupportedField;
+		}
+
+		private void checkSupported(Class<?> type) throws InvalidClassException {
+			if(this.unsupportedField != null) {
+				throw new InvalidClassException(type.getName(), "Plain field " + this.unsupportedField + " must be of a primitive, String or byte[] type, or annotated with @Encrypted");
+			}
+		}
+	}
+
+
+	/**
+	 * Codecs of directly written types.
+	 */
+	private static final Map<Class<?>, FieldCodec> CODECS = new HashMap<>();
+	static {
+		CODECS.put(boolean.class, codec((f, o, out) -> out.writeBoolean(f.getBoolean(o)), (f, o, in) -> f.setBoolean(o, in.readBoolean())));
+		CODECS.put(byte.class, codec((f, o, out) -> out.writeByte(f.getByte(o)), (f, o, in) -> f.setByte(o, in.readByte())));
+		CODECS.put(short.class, codec((f, o, out) -> out.writeShort(f.getShort(o)), (f, o, in) -> f.setShort(o, in.readShort())));
+		CODECS.put(char.class, codec((f, o, out) -> out.writeChar(f.getChar(o)), (f, o, in) -> f.setChar(o, in.readChar())));
+		CODECS.put(int.class, codec((f, o, out) -> out.writeInt(f.getInt(o)), (f, o, in) -> f.setInt(o, in.readInt())));
+		CODECS.put(long.class, codec((f, o, out) -> out.writeLong(f.getLong(o)), (f, o, in) -> f.setLong(o, in.readLong())));
+		CODECS.put(float.class, codec((f, o, out) -> out.writeFloat(f.getFloat(o)), (f, o, in) -> f.setFloat(o, in.readFloat())));
+		CODECS.put(double.class, codec((f, o, out) -> out.writeDouble(f.getDouble(o)), (f, o, in) -> f.setDouble(o, in.readDouble())));
+		CODECS.put(String.class, codec((f, o, out) -> {
+			String value = (String)f.get(o);
+			writeBytes(value != null ? value.getBytes(StandardCharsets.UTF_8) : null, out);
+		}, (f, o, in) -> {
+			byte[] bytes = readBytes(in);
+			f.set(o, bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null);
+		}));
+		CODECS.put(byte[].class, codec((f, o, out) -> writeBytes((byte[])f.get(o), out), (f, o, in) -> f.set(o, readBytes(in))));
+	}
+
+	/**
+	 * Record MAC algorithm.
+	 */
+	private static final String MAC_ALGORITHM = Hkdf.MAC_ALGORITHM;
+
+	private static final int MAC_SIZE = 32;
+
+	/**
+	 * Codec of other types of encrypted fields, using standard Java serialization.
+	 */
+	private static final FieldCodec JAVA_SERIALIZATION_CODEC = codec((f, o, out) -> {
+		Object value = f.get(o);
+		if(value == null) {
+			writeBytes(null, out);
+		} else {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try(ObjectOutputStream os = new ObjectOutputStream(bytes)) {
+				os.writeObject(value);
+			}
+			writeBytes(bytes.toByteArray(), out);
+		}
+	}, (f, o, in) -> {
+		byte[] bytes = readBytes(in);
+		if(bytes == null) {
+			f.set(o, null);
+		} else {
+			try(ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+				f.set(o, is.readObject());
+			}
+		}
+	});
+
+	/**
+	 * Layouts of classes met so far.
+	 */
+	private static final ClassValue<ClassLayout> LAYOUTS = new ClassValue<ClassLayout>() {
+		@Override
+		protected ClassLayout computeValue(Class<?> type) {
+			return resolve(type);
+		}
+	};
+
+
+	/**
+	 * Method encrypting sensitive values.
+	 */
+	private final SymmetricEncryptionMethod method;
+
+	/**
+	 * Key authenticating records, derived from the method key.
+	 */
+	private final SecretKey macKey;
+
+	/**
+	 * MACs initialized with record key, per thread.
+	 */
+	private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+
+	/**
+	 * Constructor.
+	 * @param method symmetric method encrypting sensitive values (set it thread safe to share this instance between threads)
+	 * @throws InvalidKeyException
+	 */
+	public FieldEncryption(SymmetricEncryptionMethod method) throws InvalidKeyException {
+		this.method = method;
+		byte[] keyBytes = MappedFileEncryption.deriveKey(method.key.getEncoded(), "CryptUtils field encryption record");
+		this.macKey = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+		Arrays.fill(keyBytes, (byte)0);
+	}
+
+	/**
+	 * Getter.
+	 * @return symmetric method encrypting sensitive values
+	 */
+	public SymmetricEncryptionMethod getMethod() {
+		return this.method;
+	}
+
+	/**
+	 * Writes an object, encrypting the values of its fields annotated with {@link Encrypted @Encrypted} only.
+	 * @param object object to write
+	 * @return record
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 * @throws IOException
+	 * @throws NotEncryptableException if object is null
+	 */
+	public byte[] encrypt(Encryptable object) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+		if(object == null) {
+			throw new NotEncryptableException();
+		}
+		ClassLayout layout = LAYOUTS.get(object.getClass());
+		layout.checkSupported(object.getClass());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(object.getClass().getName());
+		ByteArrayOutputStream plainValue = new ByteArrayOutputStream();
+		DataOutputStream valueOut = new DataOutputStream(plainValue);
+		try {
+			for(FieldAccessor accessor : layout.fields) {
+				if(!accessor.encrypted) {
+					accessor.codec.write(accessor.field, object, out);
+					continue;
+				}
+				plainValue.reset();
+				accessor.codec.write(accessor.field, object, valueOut);
+				byte[] encrypted = new byte[this.method.getEncryptedSize(plainValue.size())];
+				try {
+					this.method.encrypt(ByteBuffer.wrap(plainValue.toByteArray()), ByteBuffer.wrap(encrypted));
+				} catch (ShortBufferException e) {
+					throw new IllegalBlockSizeException(e.getMessage());
+				}
+				writeBytes(encrypted, out);
+			}
+		} catch (IllegalAccessException e) { //Not raised, fields being made accessible
+			throw new IllegalStateException(e);
+		}
+		out.write(this.macs.get().doFinal(bytes.toByteArray()));
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads an object written by {@link #encrypt(Encryptable)}, decrypting the values of its sensitive fields.
+	 * @param record record
+	 * @return object read
+	 * @throws InvalidKeyException
+	 * @throws ClassNotFoundException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException if record has been altered, or was not written with this method key
+	 * @throws IOException if record is malformed
+	 * @throws NotEncryptableException if record class is not encryptable
+	 */
+	public Encryptable decrypt(byte[] record) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
+		int length = record.length - MAC_SIZE;
+		if(length < 0) {
+			throw new BadPaddingException("Record too short");
+		}
+		Mac mac = this.macs.get();
+		mac.update(record, 0, length);
+		if(!MessageDigest.isEqual(mac.doFinal(), Arrays.copyOfRange(record, length, record.length))) {
+			throw new BadPaddingException("Record has been altered, or was not written with this key");
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 0, length));
+		Class<?> type = Class.forName(in.readUTF(), false, FieldEncryption.class.getClassLoader()); //Not initialized before being checked
+		if(!Encryptable.class.isAssignableFrom(type)) {
+			throw new NotEncryptableException();
+		}
+		ClassLayout layout = LAYOUTS.get(type);
+		layout.checkSupported(type);
+		if(layout.constructor == null) {
+			throw new InvalidClassException(type.getName(), "No no-arg constructor");
+		}
+
+		try {
+			Object object = layout.constructor.newInstance();
+			for(FieldAccessor accessor : layout.fields) {
+				if(!accessor.encrypted) {
+					accessor.codec.read(accessor.field, object, in);
+					continue;
+				}
+				byte[] encrypted = readBytes(in);
+				if(encrypted == null) {
+					throw new StreamCorruptedException("Missing encrypted value of " + accessor.field.getName());
+				}
+				ByteBuffer plainValue = ByteBuffer.allocate(encrypted.length);
+				try {
+					this.method.decrypt(ByteBuffer.wrap(encrypted), plainValue);
+				} catch (ShortBufferException e) {
+					throw new IllegalBlockSizeException(e.getMessage());
+				}
+				accessor.codec.read(accessor.field, object, new DataInputStream(new ByteArrayInputStream(plainValue.array(), 0, plainValue.position())));
+			}
+			return (Encryptable)object;
+		} catch (InstantiationException | InvocationTargetException e) {
+			throw new InvalidClassException(type.getName(), "Not instantiable: " + e);
+		} catch (IllegalAccessException e) { //Not raised, fields and constructor being made accessible
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Mac newMac() {
+		try {
+			Mac mac = CipherFactory.newMac(MAC_ALGORITHM);
+			mac.init(this.macKey);
+			return mac;
+		} catch (NoSuchAlgorithmException | InvalidKeyException e) { //Not raised, key being an HMAC-SHA256 key
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Resolves the fields and constructor of a class.
+	 * @param type class
+	 * @return class layout
+	 */
+	private static ClassLayout resolve(Class<?> type) {
+		List<Class<?>> hierarchy = new ArrayList<>();
+		for(Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			hierarchy.add(0, c);
+		}
+		List<FieldAccessor> fields = new ArrayList<>();
+		String unsupportedField = null;
+		for(Class<?> c : hierarchy) {
+			for(Field field : c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) continue;
+				field.setAccessible(true);
+				boolean encrypted = field.isAnnotationPresent(Encrypted.class);
+				FieldCodec codec = CODECS.get(field.getType());
+				if(codec == null && !encrypted && unsupportedField == null) {
+					unsupportedField = c.getName() + "." + field.getName();
+				}
+				fields.add(new FieldAccessor(field, codec != null ? codec : JAVA_SERIALIZATION_CODEC, encrypted));
+			}
+		}
+
+		Constructor<?> constructor;
+		try {
+			constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			constructor = null;
+		}
+		return new ClassLayout(fields.toArray(new FieldAccessor[fields.size()]), constructor, unsupportedField);
+	}
+
+	/**
+	 * Writes a nullable byte array, preceded by its length (-1 for null).
+	 */
+	private static void writeBytes(byte[] bytes, DataOutput out) throws IOException {
+		if(bytes == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Reads a nullable byte array written by {@link #writeBytes(byte[], DataOutput)}.
+	 */
+	private static byte[] readBytes(DataInput in) throws IOException {
+		int length = in.readInt();
+		if(length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Writing half of a codec.
+	 */
+	private interface FieldWriter {
+		void write(Field field, Object object, DataOutput out) throws IOException, IllegalAccessException;
+	}
+
+	/**
+	 * Reading half of a codec.
+	 */
+	private interface FieldReader {
+		void read(Field field, Object object, DataInput in) throws IOException, IllegalAccessException, ClassNotFoundException;
+	}
+
+	private static FieldCodec codec(FieldWriter writer, FieldReader reader) {
+		return new FieldCodec() {
+			@Override
+			public void write(Field field, Object object, DataOutput out) throws IOException, IllegalAccessException {
+				writer.write(field, object, out);
+			}
+
+			@Override
+			public void read(Field field, Object object, DataInput in) throws IOException, IllegalAccessException, ClassNotFoundException {
+				reader.read(field, object, in);
+			}
+		};
+	}
+}
@@ -0,0 +1,74 @@
+package vernusset.cryptUtils;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ *
+ * HMAC-based key derivation (HKDF, RFC 5869) with HmacSHA256:
+ * turns a shared secret (such as a key agreement output) into keys bound to a given usage.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+final class Hkdf {
+
+	/**
+	 * MAC algorithm used for extraction and expansion.
+	 */
+	static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private static final int HASH_SIZE = 32;
+
+
+	private Hkdf() {
+	}
+
+	/**
+	 * Derives key material.
+	 * @param salt optional salt (null or empty for none)
+	 * @param secret input keying material
+	 * @param info usage bound to derived key material
+	 * @param length number of bytes to derive (at most 255 times 32)
+	 * @return derived key material
+	 * @throws InvalidKeyException
+	 */
+	static byte[] derive(byte[] salt, byte[] secret, byte[] info, int length) throws InvalidKeyException {
+		if(length < 1 || length > 255 * HASH_SIZE) {
+			throw new IllegalArgumentException("Invalid derived key material length: " + length);
+		}
+		Mac mac = newMac();
+
+		//Extract
+		mac.init(new SecretKeySpec(salt != null && salt.length > 0 ? salt : new byte[HASH_SIZE], MAC_ALGORITHM));
+		byte[] prk = mac.doFinal(secret);
+
+		//Expand
+		mac.init(new SecretKeySpec(prk, MAC_ALGORITHM));
+		byte[] okm = new byte[length];
+		byte[] block = new byte[0];
+		for(int offset = 0, counter = 1; offset < length; offset += HASH_SIZE, counter++) {
+			mac.update(block);
+			mac.update(info);
+			mac.update((byte)counter);
+			block = mac.doFinal();
+			System.arraycopy(block, 0, okm, offset, Math.min(HASH_SIZE, length - offset));
+		}
+		Arrays.fill(prk, (byte)0);
+		Arrays.fill(block, (byte)0);
+		return okm;
+	}
+
+	private static Mac newMac() {
+		try {
+			return CipherFactory.newMac(MAC_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
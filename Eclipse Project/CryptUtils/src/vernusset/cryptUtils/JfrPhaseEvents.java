@@ -0,0 +1,100 @@
+package vernusset.cryptUtils;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * Java Flight Recorder events of encryption/decryption phases, named "vernusset.cryptUtils.Phase".
+ * The event type is defined at runtime through the dynamic event API (JDK 12 and later), reached by reflection
+ * so that the library still runs on Java 8. Events are committed at the end of each phase, their elapsed field holding its duration.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+class JfrPhaseEvents {
+
+	/**
+	 * Event type name.
+	 */
+	static final String EVENT_NAME = "vernusset.cryptUtils.Phase";
+
+	private final Object factory;
+	private final Object eventType;
+	private final Method isEnabled;
+	private final Method newEvent;
+	private final Method set;
+	private final Method commit;
+
+
+	private JfrPhaseEvents(Object factory, Object eventType, Method isEnabled, Method newEvent, Method set, Method commit) {
+		this.factory = factory;
+		this.eventType = eventType;
+		this.isEnabled = isEnabled;
+		this.newEvent = newEvent;
+		this.set = set;
+		this.commit = commit;
+	}
+
+	/**
+	 * Defines the event type.
+	 * @return phase events, or null if the dynamic event API is not available
+	 */
+	static JfrPhaseEvents create() {
+		try {
+			Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+			Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+			Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+			Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+			List<Object> annotations = Arrays.asList(
+					annotation.newInstance(Class.forName("jdk.jfr.Name"), EVENT_NAME),
+					annotation.newInstance(Class.forName("jdk.jfr.Label"), "CryptUtils Phase"),
+					annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"CryptUtils"}));
+			Object nanoseconds = annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS");
+			Object bytes = annotation.newInstance(Class.forName("jdk.jfr.DataAmount"), "BYTES");
+			List<Object> fields = Arrays.asList( //Order matches set indexes in commit
+					field.newInstance(String.class, "algorithm", Collections.emptyList()),
+					field.newInstance(String.class, "phase", Collections.emptyList()),
+					field.newInstance(long.class, "elapsed", Collections.singletonList(nanoseconds)),
+					field.newInstance(long.class, "bytesIn", Collections.singletonList(bytes)),
+					field.newInstance(long.class, "bytesOut", Collections.singletonList(bytes)));
+
+			Object factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+			Object eventType = eventFactory.getMethod("getEventType").invoke(factory);
+			return new JfrPhaseEvents(factory, eventType, eventType.getClass().getMethod("isEnabled"), eventFactory.getMethod("newEvent"),
+					event.getMethod("set", int.class, Object.class), event.getMethod("commit"));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Commits an event, if a recording enables the event type.
+	 * @param algo algorithm
+	 * @param phase phase
+	 * @param nanos phase duration, in nanoseconds
+	 * @param bytesIn number of bytes processed
+	 * @param bytesOut number of bytes produced
+	 */
+	void commit(EncryptionAlgorithm algo, EncryptionMetrics.Phase phase, long nanos, long bytesIn, long bytesOut) {
+		try {
+			if((Boolean)this.isEnabled.invoke(this.eventType)) {
+				Object event = this.newEvent.invoke(this.factory);
+				this.set.invoke(event, 0, algo.toString());
+				this.set.invoke(event, 1, phase.name());
+				this.set.invoke(event, 2, nanos);
+				this.set.invoke(event, 3, bytesIn);
+				this.set.invoke(event, 4, bytesOut);
+				this.commit.invoke(event);
+			}
+		} catch (ReflectiveOperationException e) { //Not raised, methods being public
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package vernusset.cryptUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ *
+ * Key encapsulation through elliptic curve key agreement (ECIES style):
+ * an ephemeral key pair is generated, agreed with the recipient public key, and the shared secret is derived with HKDF into an AES key.
+ * Only the ephemeral public key is sent (the encapsulated key), as its raw curve point, without its constant X.509 header.
+ * The recipient agrees it with its private key to derive the same AES key.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+final class KeyAgreementKem {
+
+	/**
+	 * Usage bound to derived keys.
+	 */
+	private static final byte[] INFO = "CryptUtils ECIES".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * Algorithm of derived keys.
+	 */
+	private static final SymmetricEncryptionMethod.SymmetricAlgorithm DERIVED_KEY_ALGO = AsymmetricEncryptionMethod.HYBRID_SESSION_KEY_ALGO;
+
+
+	/**
+	 * Derived key, along with its encapsulated form.
+	 */
+	static final class Encapsulation {
+		final SecretKey key;
+		final byte[] encapsulatedKey;
+
+		private Encapsulation(SecretKey key, byte[] encapsulatedKey) {
+			this.key = key;
+			this.encapsulatedKey = encapsulatedKey;
+		}
+	}
+
+
+	private KeyAgreementKem() {
+	}
+
+	/**
+	 * Generates and encapsulates a key to the attention of a recipient.
+	 * Ephemeral key pairs are taken from the {@link KeyMaterialPool#getDefault() default key material pool} if one is installed.
+	 * @param algo key agreement algorithm
+	 * @param recipient recipient public key
+	 * @return derived key and encapsulated key
+	 * @throws InvalidKeyException if recipient public key does not match algorithm
+	 */
+	static Encapsulation encapsulate(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo, PublicKey recipient) throws InvalidKeyException {
+		KeyPair ephemeral = AsymmetricEncryptionMethod.buildKeyPair(algo);
+		if(ephemeral == null) {
+			throw new IllegalStateException(algo + " is not available");
+		}
+		byte[] encoded = ephemeral.getPublic().getEncoded();
+		byte[] encapsulatedKey = Arrays.copyOfRange(encoded, encoded.length - algo.getPublicKeySize(), encoded.length);
+		return new Encapsulation(derive(algo, ephemeral.getPrivate(), recipient, encapsulatedKey, recipient), encapsulatedKey);
+	}
+
+	/**
+	 * Decapsulates a key with the recipient key pair.
+	 * @param algo key agreement algorithm
+	 * @param recipient recipient key pair
+	 * @param encapsulatedKey encapsulated key
+	 * @return derived key
+	 * @throws InvalidKeyException if encapsulated key is malformed
+	 */
+	static SecretKey decapsulate(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo, KeyPair recipient, byte[] encapsulatedKey) throws InvalidKeyException {
+		byte[] template = recipient.getPublic().getEncoded();
+		int pointSize = algo.getPublicKeySize();
+		if(encapsulatedKey.length != pointSize || template.length < pointSize) {
+			throw new InvalidKeyException("Malformed encapsulated key");
+		}
+		byte[] encoded = template.clone(); //Same X.509 header, other point
+		System.arraycopy(encapsulatedKey, 0, encoded, encoded.length - pointSize, pointSize);
+		PublicKey ephemeral;
+		try {
+			ephemeral = CipherFactory.newKeyFactory(algo.getAlgo()).generatePublic(new X509EncodedKeySpec(encoded));
+		} catch (InvalidKeySpecException e) {
+			throw new InvalidKeyException("Malformed encapsulated key", e);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+		return derive(algo, recipient.getPrivate(), ephemeral, encapsulatedKey, recipient.getPublic());
+	}
+
+	/**
+	 * Encrypts (wraps) a key to the attention of a recipient: encapsulated key, followed by the key encrypted with AES-GCM under the derived key.
+	 * The derived key being fresh, a constant nonce is used.
+	 * @param algo key agreement algorithm
+	 * @param recipient recipient public key
+	 * @param keyBytes key to wrap
+	 * @return wrapped key
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	static byte[] wrap(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo, PublicKey recipient, byte[] keyBytes) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		Encapsulation encapsulation = encapsulate(algo, recipient);
+		byte[] encrypted = initCipher(Cipher.ENCRYPT_MODE, encapsulation.key).doFinal(keyBytes);
+		byte[] wrapped = Arrays.copyOf(encapsulation.encapsulatedKey, encapsulation.encapsulatedKey.length + encrypted.length);
+		System.arraycopy(encrypted, 0, wrapped, encapsulation.encapsulatedKey.length, encrypted.length);
+		return wrapped;
+	}
+
+	/**
+	 * Decrypts (unwraps) a key wrapped by {@link #wrap(AsymmetricEncryptionMethod.AsymmetricAlgorithm, PublicKey, byte[]) wrap}.
+	 * @param algo key agreement algorithm
+	 * @param recipient recipient key pair
+	 * @param wrapped wrapped key
+	 * @return key bytes
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException if wrapped key is malformed
+	 * @throws BadPaddingException if key was not wrapped for this recipient, or has been altered
+	 */
+	static byte[] unwrap(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo, KeyPair recipient, byte[] wrapped) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		int pointSize = algo.getPublicKeySize();
+		if(wrapped.length < pointSize) {
+			throw new IllegalBlockSizeException("Malformed wrapped key");
+		}
+		SecretKey key = decapsulate(algo, recipient, Arrays.copyOf(wrapped, pointSize));
+		return initCipher(Cipher.DECRYPT_MODE, key).doFinal(wrapped, pointSize, wrapped.length - pointSize);
+	}
+
+	/**
+	 * Agrees keys and derives the shared secret, bound to the encapsulated key and the recipient public key.
+	 * @param algo key agreement algorithm
+	 * @param privateKey own private key
+	 * @param publicKey other party public key
+	 * @param encapsulatedKey encapsulated key
+	 * @param recipient recipient public key
+	 * @return derived key
+	 * @throws InvalidKeyException
+	 */
+	private static SecretKey derive(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo, PrivateKey privateKey, PublicKey publicKey, byte[] encapsulatedKey, PublicKey recipient) throws InvalidKeyException {
+		byte[] secret = agree(algo, privateKey, publicKey);
+		byte[] recipientEncoded = recipient.getEncoded();
+		byte[] info = new byte[INFO.length + encapsulatedKey.length + recipientEncoded.length];
+		System.arraycopy(INFO, 0, info, 0, INFO.length);
+		System.arraycopy(encapsulatedKey, 0, info, INFO.length, encapsulatedKey.length);
+		System.arraycopy(recipientEncoded, 0, info, INFO.length + encapsulatedKey.length, recipientEncoded.length);
+		byte[] keyBytes = Hkdf.derive(null, secret, info, DERIVED_KEY_ALGO.getKeySize() / 8);
+		Arrays.fill(secret, (byte)0);
+		return new SecretKeySpec(keyBytes, DERIVED_KEY_ALGO.getAlgo());
+	}
+
+	/**
+	 * Runs a key agreement.
+	 * @param algo key agreement algorithm
+	 * @param privateKey own private key
+	 * @param publicKey other party public key
+	 * @return shared secret
+	 * @throws InvalidKeyException if keys do not match algorithm
+	 */
+	static byte[] agree(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo, PrivateKey privateKey, PublicKey publicKey) throws InvalidKeyException {
+		KeyAgreement agreement;
+		try {
+			agreement = CipherFactory.newKeyAgreement(algo.getKeyAgreement());
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+		agreement.init(privateKey);
+		agreement.doPhase(publicKey, true);
+		return agreement.generateSecret();
+	}
+
+	private static Cipher initCipher(int mode, SecretKey key) throws InvalidKeyException {
+		Cipher cipher = CipherFactory.newCipher(DERIVED_KEY_ALGO);
+		try {
+			cipher.init(mode, key, new GCMParameterSpec(DERIVED_KEY_ALGO.getTagSize(), new byte[DERIVED_KEY_ALGO.getIvSize()]));
+		} catch (InvalidAlgorithmParameterException e) {
+			throw new InvalidKeyException(e.getMessage(), e);
+		}
+		return cipher;
+	}
+}
@@ -0,0 +1,267 @@
+package vernusset.cryptUtils;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+
+import vernusset.cryptUtils.exceptions.WrongSymmetricKeySizeException;
+
+
+/**
+ *
+ * Sending session with a peer, in asymmetric session mode: one key agreement between own key pair and peer public key,
+ * from which the keys of successive epochs are derived with HKDF (bound to both public keys, the random session id and the epoch number).
+ * Messages are then encrypted with AES-GCM only, under the key of the current epoch, which changes after a number of messages or bytes.
+ *
+ * Message format: session id (8 bytes), epoch (4 bytes), nonce, AES-GCM encrypted payload (the same whether encrypted at once or streamed).
+ * The receiver derives the key of each (session id, epoch) it meets from its own agreement with the sender public key.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class KeyAgreementSession {
+
+	/**
+	 * Algorithm of session keys.
+	 */
+	static final SymmetricEncryptionMethod.SymmetricAlgorithm SESSION_KEY_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_256;
+
+	/**
+	 * Size of the header of each message (session id and epoch), in bytes.
+	 */
+	static final int HEADER_SIZE = 8 + 4;
+
+	private static final byte[] INFO = "CryptUtils session".getBytes(StandardCharsets.UTF_8);
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+
+	private final PublicKey peer;
+	private final byte[] secret;
+	private final byte[] info;
+	private final long sessionId;
+	private final long expiration;
+	private final long maxMessages;
+	private final long maxBytes;
+
+	private int epoch;
+	private long messages;
+	private long bytes;
+	private SymmetricEncryptionMethod sendMethod;
+
+
+	/**
+	 * Constructor, running the key agreement.
+	 * @param algo key agreement algorithm
+	 * @param keyPair own key pair
+	 * @param peer peer public key
+	 * @param maxMessages number of messages after which a new epoch starts
+	 * @param maxBytes number of encrypted bytes after which a new epoch starts
+	 * @param maxAgeMillis session lifetime, in milliseconds (0 for no limit)
+	 * @throws InvalidKeyException if peer public key does not match algorithm
+	 */
+	KeyAgreementSession(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo, KeyPair keyPair, PublicKey peer, long maxMessages, long maxBytes, long maxAgeMillis) throws InvalidKeyException {
+		this.peer = peer;
+		this.secret = KeyAgreementKem.agree(algo, keyPair.getPrivate(), peer);
+		this.info = info(keyPair.getPublic(), peer);
+		this.sessionId = RANDOM.nextLong();
+		this.expiration = maxAgeMillis > 0 ? System.currentTimeMillis() + maxAgeMillis : Long.MAX_VALUE;
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.sendMethod = deriveMethod(this.secret, this.info, this.sessionId, 0);
+	}
+
+	/**
+	 * Getter.
+	 * @return peer public key
+	 */
+	public PublicKey getPeer() {
+		return this.peer;
+	}
+
+	/**
+	 * Getter.
+	 * @return random session id
+	 */
+	public long getSessionId() {
+		return this.sessionId;
+	}
+
+	/**
+	 * Getter.
+	 * @return current epoch (number of key changes since session start)
+	 */
+	public synchronized int getEpoch() {
+		return this.epoch;
+	}
+
+	/**
+	 * Getter.
+	 * @return number of messages encrypted in current epoch
+	 */
+	public synchronized long getMessageCount() {
+		return this.messages;
+	}
+
+	/**
+	 * Getter.
+	 * @return symmetric method of current epoch (thread safe), to encrypt to the attention of peer
+	 */
+	public synchronized SymmetricEncryptionMethod getSendMethod() {
+		return this.sendMethod;
+	}
+
+	/**
+	 * Getter.
+	 * @return true if session lifetime is over
+	 */
+	public boolean isExpired() {
+		return System.currentTimeMillis() >= this.expiration;
+	}
+
+	/**
+	 * Encrypts a message to the attention of peer, starting a new epoch first if current one reached its limits.
+	 * @param data serialized data
+	 * @param length number of bytes to encrypt from data start
+	 * @return encrypted message
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	byte[] encrypt(byte[] data, int length) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		SymmetricEncryptionMethod method;
+		int epoch;
+		synchronized(this) {
+			epoch = this.startMessage(length);
+			method = this.sendMethod;
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + method.getEncryptedSize(length));
+		out.putLong(this.sessionId).putInt(epoch);
+		try {
+			method.encrypt(ByteBuffer.wrap(data, 0, length), out);
+		} catch (ShortBufferException e) {
+			throw new IllegalBlockSizeException(e.getMessage());
+		}
+		return out.array();
+	}
+
+	/**
+	 * Opens a stream encrypting a message to the attention of peer, in the same format as {@link #encrypt(byte[], int)}:
+	 * payload is encrypted in bounded chunks as it is written, instead of being buffered.
+	 * A new epoch is started first if current one reached its limits; bytes written are counted in the epoch once the stream is closed.
+	 * @param out stream receiving encrypted message
+	 * @return stream to write serialized data to
+	 * @throws InvalidKeyException
+	 * @throws IOException
+	 */
+	OutputStream openEncryptionStream(OutputStream out) throws InvalidKeyException, IOException {
+		SymmetricEncryptionMethod method;
+		final int epoch;
+		synchronized(this) {
+			epoch = this.startMessage(0);
+			method = this.sendMethod;
+		}
+
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeLong(this.sessionId);
+		header.writeInt(epoch);
+		return new FilterOutputStream(method.openEncryptionStream(out)) {
+			private long length;
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				this.out.write(b, off, len);
+				this.length += len;
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				this.out.write(b);
+				this.length++;
+			}
+
+			@Override
+			public void close() throws IOException {
+				super.close();
+				synchronized(KeyAgreementSession.this) {
+					if(KeyAgreementSession.this.epoch == epoch) {
+						KeyAgreementSession.this.bytes += this.length;
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Counts a message in current epoch, starting a new epoch first if current one reached its limits. Called while holding session lock.
+	 * @param length number of bytes of the message
+	 * @return epoch of the message
+	 * @throws InvalidKeyException
+	 */
+	private int startMessage(long length) throws InvalidKeyException {
+		if(this.messages >= this.maxMessages || (this.messages > 0 && this.bytes + length > this.maxBytes)) {
+			this.epoch++;
+			this.messages = 0;
+			this.bytes = 0;
+			this.sendMethod = deriveMethod(this.secret, this.info, this.sessionId, this.epoch);
+		}
+		this.messages++;
+		this.bytes += length;
+		return this.epoch;
+	}
+
+	/**
+	 * Builds the derivation info of a direction: label, sender public key, then recipient public key.
+	 * @param sender sender public key
+	 * @param recipient recipient public key
+	 * @return derivation info
+	 */
+	static byte[] info(PublicKey sender, PublicKey recipient) {
+		byte[] senderEncoded = sender.getEncoded(), recipientEncoded = recipient.getEncoded();
+		byte[] info = Arrays.copyOf(INFO, INFO.length + senderEncoded.length + recipientEncoded.length);
+		System.arraycopy(senderEncoded, 0, info, INFO.length, senderEncoded.length);
+		System.arraycopy(recipientEncoded, 0, info, INFO.length + senderEncoded.length, recipientEncoded.length);
+		return info;
+	}
+
+	/**
+	 * Derives the symmetric method of an epoch.
+	 * @param secret key agreement output
+	 * @param info direction derivation info
+	 * @param sessionId session id
+	 * @param epoch epoch
+	 * @return thread safe symmetric method
+	 * @throws InvalidKeyException
+	 */
+	static SymmetricEncryptionMethod deriveMethod(byte[] secret, byte[] info, long sessionId, int epoch) throws InvalidKeyException {
+		byte[] salt = ByteBuffer.allocate(HEADER_SIZE).putLong(sessionId).putInt(epoch).array();
+		byte[] key = Hkdf.derive(salt, secret, info, SESSION_KEY_ALGO.getKeySize() / 8);
+		try {
+			SymmetricEncryptionMethod method = new SymmetricEncryptionMethod(SESSION_KEY_ALGO, key);
+			method.setThreadSafe(true);
+			return method;
+		} catch (WrongSymmetricKeySizeException e) { //Not raised, derived key having the right size
+			throw new IllegalStateException(e);
+		} finally {
+			Arrays.fill(key, (byte)0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.getClass().getSimpleName() + "]{sessionId=" + Long.toHexString(this.sessionId) + ", epoch=" + this.getEpoch() + ", messages=" + this.getMessageCount() + "}";
+	}
+}
@@ -0,0 +1,237 @@
+package vernusset.cryptUtils;
+
+import java.security.KeyPair;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.crypto.SecretKey;
+
+
+/**
+ *
+ * Pool of pre-generated key material (key pairs and secret keys), one per algorithm, refilled in background.
+ * When the number of keys available for an algorithm falls under the low water mark, keys are generated in background
+ * until the high water mark is reached, so that taking a key almost never waits for its generation.
+ * A pool is created for an algorithm the first time a key is taken for it (or when it is prefilled).
+ *
+ * Once installed as default pool, {@link AsymmetricEncryptionMethod#buildKeyPair(AsymmetricEncryptionMethod.AsymmetricAlgorithm) buildKeyPair}
+ * and {@link SymmetricEncryptionMethod#buildSecretKey(SymmetricEncryptionMethod.SymmetricAlgorithm) buildSecretKey} take their keys from it.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class KeyMaterialPool {
+
+	private static volatile KeyMaterialPool defaultPool;
+
+
+	/**
+	 * Keys of a given algorithm.
+	 * @param <K> type of key
+	 */
+	private class Pool<K> {
+		private final Supplier<K> generator;
+		private final Queue<K> keys = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger available = new AtomicInteger();
+		private final AtomicBoolean refilling = new AtomicBoolean();
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+
+		private Pool(Supplier<K> generator) {
+			this.generator = generator;
+		}
+
+		/**
+		 * Takes a pre-generated key, or generates one if none is available, then triggers refilling if needed.
+		 * @return key, or null if algorithm is not available
+		 */
+		private K take() {
+			K key = this.keys.poll();
+			if(key != null) {
+				this.available.decrementAndGet();
+				this.hits.incrementAndGet();
+			} else {
+				this.misses.incrementAndGet();
+				key = this.generator.get();
+			}
+			if(this.available.get() < KeyMaterialPool.this.lowWaterMark) {
+				try {
+					this.refill();
+				} catch (RejectedExecutionException e) {
+					//Key given anyway, refilling tried again on next take
+				}
+			}
+			return key;
+		}
+
+		/**
+		 * Generates keys in background up to the high water mark, unless already doing so.
+		 * @throws RejectedExecutionException if executor does not accept the refilling task (refilling is then tried again next time)
+		 */
+		private void refill() {
+			if(this.refilling.compareAndSet(false, true)) {
+				try {
+					KeyMaterialPool.this.executor.execute(() -> {
+						try {
+							while(this.available.get() < KeyMaterialPool.this.highWaterMark) {
+								K key = this.generator.get();
+								if(key == null) {
+									return; //Algorithm not available
+								}
+								this.keys.add(key);
+								this.available.incrementAndGet();
+							}
+						} finally {
+							this.refilling.set(false);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					this.refilling.set(false);
+					throw e;
+				}
+			}
+		}
+	}
+
+
+	private final int lowWaterMark;
+	private final int highWaterMark;
+	private final Executor executor;
+
+	private final ConcurrentHashMap<EncryptionAlgorithm, Pool<?>> pools = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Constructor.
+	 * Keys are generated in background by a single daemon thread.
+	 * @param lowWaterMark number of available keys under which an algorithm pool is refilled
+	 * @param highWaterMark number of available keys up to which an algorithm pool is refilled
+	 */
+	public KeyMaterialPool(int lowWaterMark, int highWaterMark) {
+		this(lowWaterMark, highWaterMark, Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "CryptUtils-key-pool");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}));
+	}
+
+	/**
+	 * Constructor.
+	 * @param lowWaterMark number of available keys under which an algorithm pool is refilled
+	 * @param highWaterMark number of available keys up to which an algorithm pool is refilled
+	 * @param executor executor to generate keys in
+	 */
+	public KeyMaterialPool(int lowWaterMark, int highWaterMark, Executor executor) {
+		if(lowWaterMark < 0 || highWaterMark < lowWaterMark || highWaterMark == 0) {
+			throw new IllegalArgumentException("Water marks must verify 0 <= low <= high, and high > 0. Given: low=" + lowWaterMark + ", high=" + highWaterMark);
+		}
+		this.lowWaterMark = lowWaterMark;
+		this.highWaterMark = highWaterMark;
+		this.executor = executor;
+	}
+
+	/**
+	 * Getter.
+	 * @return pool used by buildKeyPair and buildSecretKey methods (null if none)
+	 */
+	public static KeyMaterialPool getDefault() {
+		return defaultPool;
+	}
+
+	/**
+	 * Setter.
+	 * @param pool pool to be used by buildKeyPair and buildSecretKey methods (null to generate keys on each call)
+	 */
+	public static void setDefault(KeyMaterialPool pool) {
+		defaultPool = pool;
+	}
+
+
+	/**
+	 * Takes a key pair: a pre-generated one if any is available, a newly generated one otherwise (counted as a miss).
+	 * @param algo algorithm for which the key pair is desired
+	 * @return private/public key pair, or null if algorithm is not available
+	 */
+	public KeyPair takeKeyPair(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo) {
+		return this.pool(algo, () -> AsymmetricEncryptionMethod.generateKeyPair(algo)).take();
+	}
+
+	/**
+	 * Takes a secret key: a pre-generated one if any is available, a newly generated one otherwise (counted as a miss).
+	 * @param algo algorithm for which the secret key is desired
+	 * @return secret key, or null if algorithm is not available
+	 */
+	public SecretKey takeSecretKey(SymmetricEncryptionMethod.SymmetricAlgorithm algo) {
+		return this.pool(algo, () -> SymmetricEncryptionMethod.generateSecretKey(algo)).take();
+	}
+
+	/**
+	 * Starts filling the pool of an algorithm in background, up to the high water mark, before any key is taken.
+	 * @param algo asymmetric algorithm
+	 * @throws RejectedExecutionException if executor does not accept the filling task
+	 */
+	public void prefill(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo) {
+		this.pool(algo, () -> AsymmetricEncryptionMethod.generateKeyPair(algo)).refill();
+	}
+
+	/**
+	 * Starts filling the pool of an algorithm in background, up to the high water mark, before any key is taken.
+	 * @param algo symmetric algorithm
+	 * @throws RejectedExecutionException if executor does not accept the filling task
+	 */
+	public void prefill(SymmetricEncryptionMethod.SymmetricAlgorithm algo) {
+		this.pool(algo, () -> SymmetricEncryptionMethod.generateSecretKey(algo)).refill();
+	}
+
+	/**
+	 * Getter.
+	 * @param algo algorithm
+	 * @return number of pre-generated keys currently available
+	 */
+	public int getAvailableCount(EncryptionAlgorithm algo) {
+		Pool<?> pool = this.pools.get(algo);
+		return pool != null ? pool.available.get() : 0;
+	}
+
+	/**
+	 * Getter.
+	 * @param algo algorithm
+	 * @return number of keys taken from pre-generated ones
+	 */
+	public long getHitCount(EncryptionAlgorithm algo) {
+		Pool<?> pool = this.pools.get(algo);
+		return pool != null ? pool.hits.get() : 0;
+	}
+
+	/**
+	 * Getter.
+	 * @param algo algorithm
+	 * @return number of keys generated on demand, the pool being empty
+	 */
+	public long getMissCount(EncryptionAlgorithm algo) {
+		Pool<?> pool = this.pools.get(algo);
+		return pool != null ? pool.misses.get() : 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <K> Pool<K> pool(EncryptionAlgorithm algo, Supplier<K> generator) {
+		return (Pool<K>)this.pools.computeIfAbsent(algo, a -> new Pool<>(generator));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[" + this.getClass().getSimpleName() + "]{");
+		this.pools.forEach((algo, pool) -> builder.append(algo).append(": available=").append(pool.available.get())
+				.append(", hits=").append(pool.hits.get()).append(", misses=").append(pool.misses.get()).append("; "));
+		return builder.append("}").toString();
+	}
+}
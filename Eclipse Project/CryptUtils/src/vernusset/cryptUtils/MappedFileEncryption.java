@@ -0,0 +1,297 @@
+package vernusset.cryptUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ *
+ * File encryption/decryption through memory mapped segments, processed in parallel.
+ * Segments are encrypted with AES-CTR (each segment starting at its own counter value, so that segments are independent),
+ * and authenticated with a truncated HMAC-SHA256 tag over file header, segment index and encrypted segment.
+ * Encryption and authentication keys are derived from a symmetric encryption method secret key.
+ *
+ * File format: header (magic, segment size, plaintext length, nonce), then for each segment its encrypted bytes followed by its tag.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+class MappedFileEncryption {
+
+	/**
+	 * Default segment size, in bytes.
+	 */
+	static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	private static final int MAGIC = 0x43554631; //"CUF1"
+	private static final int NONCE_SIZE = 8;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + NONCE_SIZE;
+	private static final int TAG_SIZE = 16;
+	private static final int AES_BLOCK_SIZE = 16;
+
+	private static final String CIPHER_TRANSFORMATION = "AES/CTR/NoPadding";
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+
+	private final SecretKey encryptionKey;
+	private final SecretKey macKey;
+	private final int segmentSize;
+	private final ForkJoinPool pool;
+
+
+	/**
+	 * Constructor.
+	 * @param key secret key of a symmetric encryption method
+	 * @param segmentSize size of the independently encrypted segments, in bytes (multiple of 16), used for encryption only (decryption reads it from file header)
+	 * @param pool pool to process segments in
+	 * @throws InvalidKeyException
+	 */
+	MappedFileEncryption(SecretKey key, int segmentSize, ForkJoinPool pool) throws InvalidKeyException {
+		if(segmentSize <= 0 || segmentSize % AES_BLOCK_SIZE != 0) {
+			throw new IllegalArgumentException("Segment size must be a positive multiple of " + AES_BLOCK_SIZE + ". Given: " + segmentSize);
+		}
+		byte[] keyBytes = key.getEncoded();
+		this.encryptionKey = new SecretKeySpec(deriveKey(keyBytes, "CryptUtils file encryption"), 0, keyBytes.length, "AES");
+		this.macKey = new SecretKeySpec(deriveKey(keyBytes, "CryptUtils file authentication"), MAC_ALGORITHM);
+		this.segmentSize = segmentSize;
+		this.pool = pool;
+	}
+
+	/**
+	 * Derives a sub key from the secret key, for a given usage.
+	 * @param keyBytes secret key
+	 * @param usage sub key usage
+	 * @return 256 bits sub key
+	 * @throws InvalidKeyException
+	 */
+	static byte[] deriveKey(byte[] keyBytes, String usage) throws InvalidKeyException {
+		Mac mac = newMac();
+		mac.init(new SecretKeySpec(keyBytes, MAC_ALGORITHM));
+		return mac.doFinal(usage.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Mac newMac() {
+		try {
+			return Mac.getInstance(MAC_ALGORITHM);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Cipher newCipher() {
+		try {
+			return Cipher.getInstance(CIPHER_TRANSFORMATION);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * Encrypts a file.
+	 * @param in plain file
+	 * @param out encrypted file (replaced if existing)
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 */
+	void encryptFile(Path in, Path out) throws IOException, InvalidKeyException {
+		try (FileChannel input = FileChannel.open(in, StandardOpenOption.READ);
+			 FileChannel output = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long plainLength = input.size();
+			byte[] nonce = new byte[NONCE_SIZE];
+			RANDOM.nextBytes(nonce);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(this.segmentSize).putLong(plainLength).put(nonce).flip();
+			byte[] headerBytes = header.array();
+			output.write(header, 0);
+
+			int segmentSize = this.segmentSize;
+			long segments = segmentCount(plainLength, segmentSize);
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for(long s = 0; s < segments; s++) {
+				final long index = s;
+				tasks.add(() -> {
+					long plainOffset = index * segmentSize;
+					int length = (int)Math.min(segmentSize, plainLength - plainOffset);
+					long encryptedOffset = HEADER_SIZE + index * (segmentSize + TAG_SIZE);
+
+					MappedByteBuffer source = input.map(FileChannel.MapMode.READ_ONLY, plainOffset, length);
+					MappedByteBuffer destination = output.map(FileChannel.MapMode.READ_WRITE, encryptedOffset, length + TAG_SIZE);
+
+					Cipher cipher = newCipher();
+					cipher.init(Cipher.ENCRYPT_MODE, this.encryptionKey, segmentIv(nonce, index, segmentSize));
+					cipher.doFinal(source, destination);
+
+					ByteBuffer encrypted = destination.duplicate();
+					encrypted.position(0).limit(length);
+					destination.put(this.tag(headerBytes, index, encrypted));
+					return null;
+				});
+			}
+			try {
+				this.run(tasks);
+			} catch (BadPaddingException e) { //Not raised by encryption
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Decrypts a file, checking every segment integrity.
+	 * Decrypted file is deleted if any check fails.
+	 * @param in encrypted file
+	 * @param out decrypted file (replaced if existing)
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 * @throws BadPaddingException if file is not a valid encrypted file, or has been altered
+	 */
+	void decryptFile(Path in, Path out) throws IOException, InvalidKeyException, BadPaddingException {
+		boolean succeeded = false;
+		try (FileChannel input = FileChannel.open(in, StandardOpenOption.READ);
+			 FileChannel output = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while(header.hasRemaining() && input.read(header, header.position()) > 0);
+			header.flip();
+			if(header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+				throw new BadPaddingException("Not an encrypted file");
+			}
+			int segmentSize = header.getInt();
+			long plainLength = header.getLong();
+			byte[] nonce = new byte[NONCE_SIZE];
+			header.get(nonce);
+			byte[] headerBytes = header.array();
+
+			if(segmentSize <= 0 || segmentSize % AES_BLOCK_SIZE != 0 || plainLength < 0) {
+				throw new BadPaddingException("Invalid encrypted file header");
+			}
+			long segments = segmentCount(plainLength, segmentSize);
+			if(input.size() != HEADER_SIZE + plainLength + segments * TAG_SIZE) {
+				throw new BadPaddingException("Encrypted file size does not match its header");
+			}
+
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for(long s = 0; s < segments; s++) {
+				final long index = s;
+				tasks.add(() -> {
+					long plainOffset = index * segmentSize;
+					int length = (int)Math.min(segmentSize, plainLength - plainOffset);
+					long encryptedOffset = HEADER_SIZE + index * (segmentSize + TAG_SIZE);
+
+					MappedByteBuffer source = input.map(FileChannel.MapMode.READ_ONLY, encryptedOffset, length + TAG_SIZE);
+					ByteBuffer encrypted = source.duplicate();
+					encrypted.limit(length);
+					byte[] expectedTag = new byte[TAG_SIZE];
+					((ByteBuffer)source.duplicate().position(length)).get(expectedTag);
+					if(!MessageDigest.isEqual(expectedTag, this.tag(headerBytes, index, encrypted.duplicate()))) {
+						throw new AEADBadTagException("Integrity check failed for segment n°" + index);
+					}
+
+					MappedByteBuffer destination = output.map(FileChannel.MapMode.READ_WRITE, plainOffset, length);
+					Cipher cipher = newCipher();
+					cipher.init(Cipher.DECRYPT_MODE, this.encryptionKey, segmentIv(nonce, index, segmentSize));
+					cipher.doFinal(encrypted, destination);
+					return null;
+				});
+			}
+			this.run(tasks);
+			succeeded = true;
+		} finally {
+			if(!succeeded) {
+				Files.deleteIfExists(out);
+			}
+		}
+	}
+
+	/**
+	 * @param plainLength plain file length
+	 * @param segmentSize segment size
+	 * @return number of segments (at least one, so that even an empty file is authenticated)
+	 */
+	private static long segmentCount(long plainLength, int segmentSize) {
+		return Math.max(1, (plainLength + segmentSize - 1) / segmentSize);
+	}
+
+	/**
+	 * @param nonce file nonce
+	 * @param index segment index
+	 * @param segmentSize segment size
+	 * @return initial counter block of segment: file nonce followed by the index of segment's first AES block
+	 */
+	private static IvParameterSpec segmentIv(byte[] nonce, long index, int segmentSize) {
+		ByteBuffer iv = ByteBuffer.allocate(AES_BLOCK_SIZE);
+		iv.put(nonce).putLong(index * (segmentSize / AES_BLOCK_SIZE));
+		return new IvParameterSpec(iv.array());
+	}
+
+	/**
+	 * @param header file header
+	 * @param index segment index
+	 * @param encrypted encrypted segment
+	 * @return segment authentication tag
+	 * @throws InvalidKeyException
+	 */
+	private byte[] tag(byte[] header, long index, ByteBuffer encrypted) throws InvalidKeyException {
+		Mac mac = newMac();
+		mac.init(this.macKey);
+		mac.update(header);
+		mac.update(ByteBuffer.allocate(8).putLong(0, index));
+		mac.update(encrypted);
+		return Arrays.copyOf(mac.doFinal(), TAG_SIZE);
+	}
+
+	/**
+	 * Runs segment tasks in pool, and rethrows the first failure.
+	 * @param tasks segment tasks
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 * @throws BadPaddingException
+	 */
+	private void run(List<Callable<Void>> tasks) throws IOException, InvalidKeyException, BadPaddingException {
+		List<Future<Void>> results = this.pool.invokeAll(tasks);
+		for(Future<Void> result : results) {
+			try {
+				result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				while(cause instanceof RuntimeException && cause.getCause() != null) { //Checked exceptions are wrapped by fork join tasks
+					cause = cause.getCause();
+				}
+				if(cause instanceof IOException) throw (IOException)cause;
+				if(cause instanceof InvalidKeyException) throw (InvalidKeyException)cause;
+				if(cause instanceof BadPaddingException) throw (BadPaddingException)cause;
+				throw new IOException(cause);
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package vernusset.cryptUtils;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ *
+ * Multi-recipient envelope: payload is encrypted once with AES-GCM under a random content key,
+ * and only that content key is encrypted for each recipient, in its own key slot.
+ * Key slots table and encrypted content keys are authenticated along with the payload.
+ *
+ * Envelope format: number of slots (2 bytes), slots table (for each slot: offset (4 bytes) and length (2 bytes) of its encrypted content key),
+ * encrypted content keys, nonce, AES-GCM encrypted payload.
+ * A recipient reaches its own slot directly by its index.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+class MultiRecipientEnvelope {
+
+	private static final SymmetricEncryptionMethod.SymmetricAlgorithm CONTENT_KEY_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_256;
+	private static final int IV_SIZE = CONTENT_KEY_ALGO.getIvSize();
+	private static final int TAG_SIZE = CONTENT_KEY_ALGO.getTagSize();
+	private static final int SLOT_ENTRY_SIZE = 4 + 2;
+	private static final int MAX_RECIPIENTS = 0xFFFF;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+
+	/**
+	 * Encryption of the content key for one recipient.
+	 */
+	interface KeyEncrypter {
+		/**
+		 * @param slot recipient index
+		 * @param contentKey content key bytes
+		 * @return encrypted content key
+		 */
+		byte[] encrypt(int slot, byte[] contentKey) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException;
+	}
+
+	/**
+	 * Decryption of the content key by its recipient.
+	 */
+	interface KeyDecrypter {
+		/**
+		 * @param encryptedKey encrypted content key
+		 * @return content key bytes
+		 */
+		byte[] decrypt(byte[] encryptedKey) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException;
+	}
+
+
+	private MultiRecipientEnvelope() {
+	}
+
+	/**
+	 * Seals a payload for many recipients.
+	 * @param payload serialized object
+	 * @param length number of bytes to encrypt from payload start
+	 * @param recipients number of recipients
+	 * @param keyEncrypter content key encryption for each recipient
+	 * @return envelope
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	static byte[] seal(byte[] payload, int length, int recipients, KeyEncrypter keyEncrypter) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		if(recipients <= 0 || recipients > MAX_RECIPIENTS) {
+			throw new IllegalArgumentException("Number of recipients must be between 1 and " + MAX_RECIPIENTS + ". Given: " + recipients);
+		}
+		SecretKey contentKey = SymmetricEncryptionMethod.buildSecretKey(CONTENT_KEY_ALGO);
+		byte[] contentKeyBytes = contentKey.getEncoded();
+		byte[][] encryptedKeys = new byte[recipients][];
+		int headerSize = 2 + recipients * SLOT_ENTRY_SIZE;
+		try {
+			for(int slot = 0; slot < recipients; slot++) {
+				encryptedKeys[slot] = keyEncrypter.encrypt(slot, contentKeyBytes);
+				if(encryptedKeys[slot].length > 0xFFFF) {
+					throw new IllegalBlockSizeException("Encrypted content key too large: " + encryptedKeys[slot].length + " bytes");
+				}
+				headerSize += encryptedKeys[slot].length;
+			}
+		} finally {
+			Arrays.fill(contentKeyBytes, (byte)0);
+		}
+
+		byte[] iv = new byte[IV_SIZE];
+		RANDOM.nextBytes(iv);
+		Cipher cipher = initCipher(Cipher.ENCRYPT_MODE, contentKey, iv);
+
+		ByteBuffer out = ByteBuffer.allocate(headerSize + IV_SIZE + cipher.getOutputSize(length));
+		out.putShort((short)recipients);
+		int offset = 2 + recipients * SLOT_ENTRY_SIZE;
+		for(byte[] encryptedKey : encryptedKeys) {
+			out.putInt(offset).putShort((short)encryptedKey.length);
+			offset += encryptedKey.length;
+		}
+		for(byte[] encryptedKey : encryptedKeys) {
+			out.put(encryptedKey);
+		}
+		cipher.updateAAD(out.array(), 0, headerSize);
+		out.put(iv);
+		try {
+			cipher.doFinal(ByteBuffer.wrap(payload, 0, length), out);
+		} catch (ShortBufferException e) {
+			throw new IllegalBlockSizeException(e.getMessage());
+		}
+		return out.array();
+	}
+
+	/**
+	 * Opens an envelope, using only the given recipient's key slot.
+	 * @param envelope envelope
+	 * @param slot recipient index
+	 * @param keyDecrypter content key decryption
+	 * @return serialized object
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException if envelope is malformed, or has no such slot
+	 * @throws BadPaddingException if envelope has been altered
+	 */
+	static byte[] open(byte[] envelope, int slot, KeyDecrypter keyDecrypter) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+		ByteBuffer in = ByteBuffer.wrap(envelope);
+		int recipients = in.remaining() >= 2 ? in.getShort() & 0xFFFF : 0;
+		if(slot < 0 || slot >= recipients || envelope.length < 2 + recipients * SLOT_ENTRY_SIZE) {
+			throw new IllegalBlockSizeException("Malformed envelope, or no key slot n°" + slot);
+		}
+		int keyOffset = in.getInt(2 + slot * SLOT_ENTRY_SIZE), keyLength = in.getShort(2 + slot * SLOT_ENTRY_SIZE + 4) & 0xFFFF;
+		int lastEntry = 2 + (recipients - 1) * SLOT_ENTRY_SIZE;
+		long headerSize = (long)in.getInt(lastEntry) + (in.getShort(lastEntry + 4) & 0xFFFF);
+		if(keyOffset < 2 + recipients * SLOT_ENTRY_SIZE || (long)keyOffset + keyLength > headerSize || headerSize + IV_SIZE > envelope.length) {
+			throw new IllegalBlockSizeException("Malformed envelope");
+		}
+
+		byte[] encryptedKey = new byte[keyLength];
+		System.arraycopy(envelope, keyOffset, encryptedKey, 0, keyLength);
+		byte[] ivBytes = new byte[IV_SIZE];
+		System.arraycopy(envelope, (int)headerSize, ivBytes, 0, IV_SIZE);
+
+		byte[] contentKeyBytes = keyDecrypter.decrypt(encryptedKey);
+		if(contentKeyBytes.length != CONTENT_KEY_ALGO.getKeySize() / 8) { //Key slot decrypted with a wrong key
+			throw new BadPaddingException("Invalid content key");
+		}
+		SecretKey contentKey = new SecretKeySpec(contentKeyBytes, CONTENT_KEY_ALGO.getAlgo());
+		Arrays.fill(contentKeyBytes, (byte)0);
+		Cipher cipher = initCipher(Cipher.DECRYPT_MODE, contentKey, ivBytes);
+		cipher.updateAAD(envelope, 0, (int)headerSize);
+		int payloadOffset = (int)headerSize + IV_SIZE;
+		return cipher.doFinal(envelope, payloadOffset, envelope.length - payloadOffset);
+	}
+
+	private static Cipher initCipher(int mode, SecretKey key, byte[] iv) throws InvalidKeyException {
+		Cipher cipher = CipherFactory.newCipher(CONTENT_KEY_ALGO);
+		try {
+			cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE, iv));
+		} catch (InvalidAlgorithmParameterException e) {
+			throw new InvalidKeyException(e.getMessage(), e);
+		}
+		return cipher;
+	}
+}
@@ -0,0 +1,278 @@
+package vernusset.cryptUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import vernusset.cryptUtils.exceptions.WrongSymmetricKeySizeException;
+
+
+/**
+ *
+ * Password based key derivation (PBKDF2 with HMAC-SHA256), producing symmetric encryption methods.
+ * Derivation being deliberately slow, derived keys are kept in a bounded cache (least recently used keys evicted first),
+ * for a limited time, keyed by an HMAC of password, salt and derivation parameters under a random key of the instance
+ * (so that cache keys do not allow checking passwords without the PBKDF2 iterations).
+ * Key bytes are zeroed as soon as they leave the cache: expired keys are evicted on each access to the cache, whatever key is accessed.
+ * Methods already produced keep their own copy.
+ * Concurrent derivations of the same key are done only once.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class PasswordKeyDerivation {
+
+	/**
+	 * Default number of PBKDF2 iterations.
+	 */
+	public static final int DEFAULT_ITERATIONS = 600000;
+
+	/**
+	 * Recommended salt size, in bytes.
+	 */
+	public static final int SALT_SIZE = 16;
+
+	private static final String KDF_ALGORITHM = "PBKDF2WithHmacSHA256";
+
+	private static final String CACHE_KEY_ALGORITHM = "HmacSHA256";
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+
+	/**
+	 * Cached derived key.
+	 */
+	private static class DerivedKey {
+		private final Object derivationLock = new Object();
+		private byte[] key;
+		private volatile long expiresAt = Long.MAX_VALUE; //Until derivation completes
+		private boolean destroyed;
+
+		/**
+		 * @return copy of key bytes (null if not derived yet, or destroyed)
+		 */
+		private synchronized byte[] copy() {
+			return this.key != null ? this.key.clone() : null;
+		}
+
+		/**
+		 * Keeps a copy of derived key bytes, unless evicted meanwhile.
+		 * @param key derived key bytes
+		 * @param expiresAt expiration time
+		 */
+		private synchronized void set(byte[] key, long expiresAt) {
+			if(!this.destroyed) {
+				this.key = key.clone();
+				this.expiresAt = expiresAt;
+			}
+		}
+
+		/**
+		 * Zeroes key bytes.
+		 */
+		private synchronized void destroy() {
+			if(this.key != null) {
+				Arrays.fill(this.key, (byte)0);
+				this.key = null;
+			}
+			this.destroyed = true;
+		}
+	}
+
+
+	private final int iterations;
+	private final long timeToLiveMillis;
+	private final SecretKeySpec cacheKeyKey;
+	private final Map<ByteBuffer, DerivedKey> cache;
+
+
+	/**
+	 * Constructor.
+	 * Uses default number of PBKDF2 iterations.
+	 * @param maxCachedKeys maximum number of derived keys kept (0 to disable cache)
+	 * @param timeToLiveMillis time a derived key is kept, in milliseconds
+	 */
+	public PasswordKeyDerivation(int maxCachedKeys, long timeToLiveMillis) {
+		this(DEFAULT_ITERATIONS, maxCachedKeys, timeToLiveMillis);
+	}
+
+	/**
+	 * Constructor.
+	 * @param iterations number of PBKDF2 iterations
+	 * @param maxCachedKeys maximum number of derived keys kept (0 to disable cache)
+	 * @param timeToLiveMillis time a derived key is kept, in milliseconds
+	 */
+	public PasswordKeyDerivation(int iterations, int maxCachedKeys, long timeToLiveMillis) {
+		if(iterations <= 0 || maxCachedKeys < 0 || timeToLiveMillis < 0) {
+			throw new IllegalArgumentException("Iterations must be positive, cache size and time to live must not be negative");
+		}
+		this.iterations = iterations;
+		this.timeToLiveMillis = timeToLiveMillis;
+		byte[] cacheKeyKey = new byte[32];
+		RANDOM.nextBytes(cacheKeyKey);
+		this.cacheKeyKey = new SecretKeySpec(cacheKeyKey, CACHE_KEY_ALGORITHM);
+		Arrays.fill(cacheKeyKey, (byte)0);
+		this.cache = new LinkedHashMap<ByteBuffer, DerivedKey>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, DerivedKey> eldest) {
+				if(this.size() > maxCachedKeys) {
+					eldest.getValue().destroy();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Builds a random salt, to be stored along with encrypted data (it does not need to be secret).
+	 * @return new salt
+	 */
+	public static byte[] buildSalt() {
+		byte[] salt = new byte[SALT_SIZE];
+		RANDOM.nextBytes(salt);
+		return salt;
+	}
+
+	/**
+	 * Gives the encryption method using the key derived from a password and a salt,
+	 * deriving it only if not cached yet (or expired).
+	 * @param algo symmetric algorithm to use (determines derived key size)
+	 * @param password password (not altered)
+	 * @param salt salt
+	 * @return symmetric encryption method, with its own copy of the derived key
+	 * @throws InvalidKeyException if key derivation is not available or fails
+	 */
+	public SymmetricEncryptionMethod deriveEncryptionMethod(SymmetricEncryptionMethod.SymmetricAlgorithm algo, char[] password, byte[] salt) throws InvalidKeyException {
+		ByteBuffer id = ByteBuffer.wrap(this.cacheKey(algo, password, salt));
+		long now = System.currentTimeMillis();
+
+		DerivedKey derived;
+		synchronized(this.cache) {
+			this.evictExpired(now);
+			derived = this.cache.get(id);
+			if(derived == null) {
+				derived = new DerivedKey();
+				this.cache.put(id, derived);
+			}
+		}
+
+		byte[] key = derived.copy();
+		try {
+			if(key == null) {
+				synchronized(derived.derivationLock) { //Concurrent callers wait for a single derivation
+					key = derived.copy();
+					if(key == null) {
+						key = this.derive(algo.getKeySize(), password, salt);
+						derived.set(key, System.currentTimeMillis() + this.timeToLiveMillis);
+					}
+				}
+			}
+			return new SymmetricEncryptionMethod(algo, key);
+		} catch (WrongSymmetricKeySizeException e) { //Not raised, key being derived with algorithm key size
+			throw new InvalidKeyException(e.getMessage(), e);
+		} finally {
+			if(key != null) {
+				Arrays.fill(key, (byte)0);
+			}
+		}
+	}
+
+	/**
+	 * Evicts every cached key, zeroing its bytes.
+	 */
+	public void clear() {
+		synchronized(this.cache) {
+			for(Iterator<DerivedKey> it = this.cache.values().iterator(); it.hasNext(); ) {
+				it.next().destroy();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Getter (evicting expired keys first).
+	 * @return number of cached keys
+	 */
+	public int getCachedKeyCount() {
+		synchronized(this.cache) {
+			this.evictExpired(System.currentTimeMillis());
+			return this.cache.size();
+		}
+	}
+
+	/**
+	 * Evicts expired keys, zeroing their bytes. Called while holding cache lock.
+	 * @param now current time
+	 */
+	private void evictExpired(long now) {
+		for(Iterator<DerivedKey> it = this.cache.values().iterator(); it.hasNext(); ) {
+			DerivedKey derived = it.next();
+			if(derived.expiresAt <= now) {
+				derived.destroy();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Derives a key with PBKDF2.
+	 * @param keySize key size, in bits
+	 * @param password password
+	 * @param salt salt
+	 * @return derived key bytes
+	 * @throws InvalidKeyException
+	 */
+	private byte[] derive(int keySize, char[] password, byte[] salt) throws InvalidKeyException {
+		PBEKeySpec spec = new PBEKeySpec(password, salt, this.iterations, keySize);
+		try {
+			return SecretKeyFactory.getInstance(KDF_ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new InvalidKeyException(e.getMessage(), e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * Builds cache key: an HMAC of every derivation input under the instance random key, so that neither password nor salt is kept in cache,
+	 * and cache keys cannot be used to check passwords outside of this instance.
+	 * @param algo symmetric algorithm
+	 * @param password password
+	 * @param salt salt
+	 * @return cache key
+	 * @throws InvalidKeyException
+	 */
+	private byte[] cacheKey(SymmetricEncryptionMethod.SymmetricAlgorithm algo, char[] password, byte[] salt) throws InvalidKeyException {
+		Mac mac;
+		try {
+			mac = Mac.getInstance(CACHE_KEY_ALGORITHM);
+			mac.init(this.cacheKeyKey);
+		} catch (NoSuchAlgorithmException e) {
+			throw new InvalidKeyException(e.getMessage(), e);
+		}
+		mac.update(ByteBuffer.allocate(12).putInt(algo.getKeySize()).putInt(this.iterations).putInt(salt.length).array());
+		mac.update(salt);
+		ByteBuffer passwordBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+		mac.update(passwordBytes.duplicate());
+		if(passwordBytes.hasArray()) {
+			Arrays.fill(passwordBytes.array(), (byte)0);
+		}
+		return mac.doFinal();
+	}
+}
@@ -0,0 +1,124 @@
+package vernusset.cryptUtils;
+
+/**
+ *
+ * Snapshot of the statistics of one phase of encryption/decryption, for one algorithm.
+ * Latencies are estimated from a histogram whose buckets are powers of 2 nanoseconds
+ * (percentiles give the upper bound of their bucket).
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class PhaseStatistics {
+
+	private final long count;
+	private final long totalNanos;
+	private final long maxNanos;
+	private final long bytesIn;
+	private final long bytesOut;
+	private final long[] histogram;
+
+
+	PhaseStatistics(long count, long totalNanos, long maxNanos, long bytesIn, long bytesOut, long[] histogram) {
+		this.count = count;
+		this.totalNanos = totalNanos;
+		this.maxNanos = maxNanos;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+		this.histogram = histogram;
+	}
+
+	/**
+	 * Getter.
+	 * @return number of times phase was run
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Getter.
+	 * @return mean latency, in nanoseconds
+	 */
+	public long getMeanNanos() {
+		return this.count > 0 ? this.totalNanos / this.count : 0;
+	}
+
+	/**
+	 * Getter.
+	 * @return maximum latency, in nanoseconds
+	 */
+	public long getMaxNanos() {
+		return this.maxNanos;
+	}
+
+	/**
+	 * Getter.
+	 * @return median latency (upper bound), in nanoseconds
+	 */
+	public long getMedianNanos() {
+		return this.getPercentileNanos(0.5);
+	}
+
+	/**
+	 * Getter.
+	 * @return 90th percentile latency (upper bound), in nanoseconds
+	 */
+	public long getP90Nanos() {
+		return this.getPercentileNanos(0.9);
+	}
+
+	/**
+	 * Getter.
+	 * @return 99th percentile latency (upper bound), in nanoseconds
+	 */
+	public long getP99Nanos() {
+		return this.getPercentileNanos(0.99);
+	}
+
+	/**
+	 * Getter.
+	 * @return number of bytes processed by phase
+	 */
+	public long getBytesIn() {
+		return this.bytesIn;
+	}
+
+	/**
+	 * Getter.
+	 * @return number of bytes produced by phase
+	 */
+	public long getBytesOut() {
+		return this.bytesOut;
+	}
+
+	/**
+	 * Getter.
+	 * @return latencies histogram: bucket i counts latencies from 2^i (included) to 2^(i+1) nanoseconds (excluded)
+	 */
+	public long[] getHistogram() {
+		return this.histogram.clone();
+	}
+
+	/**
+	 * Estimates a latency percentile.
+	 * @param percentile percentile, between 0 and 1
+	 * @return upper bound of the bucket holding the percentile, in nanoseconds (0 if phase never ran)
+	 */
+	public long getPercentileNanos(double percentile) {
+		long target = (long)Math.ceil(percentile * this.count), seen = 0;
+		for(int i = 0; i < this.histogram.length; i++) {
+			seen += this.histogram[i];
+			if(seen >= target && seen > 0) {
+				return Math.min(1L << (i + 1), this.maxNanos);
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.getClass().getSimpleName() + "]{count=" + this.count + ", mean=" + this.getMeanNanos() + "ns, median=" + this.getMedianNanos()
+				+ "ns, p99=" + this.getP99Nanos() + "ns, max=" + this.maxNanos + "ns, in=" + this.bytesIn + "B, out=" + this.bytesOut + "B}";
+	}
+}
@@ -1,15 +1,29 @@
 package vernusset.cryptUtils;
 
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import vernusset.cryptUtils.encryptableObjects.Encryptable;
@@ -20,7 +34,7 @@ import vernusset.cryptUtils.exceptions.WrongSymmetricKeySizeException;
 
 /**
  * 
- * Symmetric encryption implementation, using AES.
+ * Symmetric encryption implementation, using AES (ECB or GCM mode) or ChaCha20-Poly1305 (Java 11 or later, the project targeting Java 8).
  * 
  * @author Maxime VERNUSSET
  * 
@@ -29,21 +43,40 @@ public class SymmetricEncryptionMethod extends EncryptionMethod {
 	
 	/**
 	 * 
-	 * List of supported symmetric algorithms and their secret key size.
-	 * Only AES supported for now.
+	 * List of supported symmetric algorithms, their secret key size, and for authenticated modes their nonce and tag sizes.
+	 * AES (ECB or GCM mode), and ChaCha20-Poly1305, which needs Java 11 or later (its cipher being missing from Java 8 providers).
+	 * GCM modes and ChaCha20-Poly1305 use a fresh random nonce for each message, prepended to the encrypted data.
 	 */
 	public static enum SymmetricAlgorithm implements EncryptionAlgorithm {
 
 		AES_ECB_PKCS5PADDING_128 ("AES/ECB/PKCS5Padding", 128),
 		AES_ECB_PKCS5PADDING_192 ("AES/ECB/PKCS5Padding", 192),
-		AES_ECB_PKCS5PADDING_256 ("AES/ECB/PKCS5Padding", 256);
+		AES_ECB_PKCS5PADDING_256 ("AES/ECB/PKCS5Padding", 256),
+		AES_GCM_NOPADDING_128 ("AES/GCM/NoPadding", 128, 12, 128),
+		AES_GCM_NOPADDING_192 ("AES/GCM/NoPadding", 192, 12, 128),
+		AES_GCM_NOPADDING_256 ("AES/GCM/NoPadding", 256, 12, 128),
+		CHACHA20_POLY1305_256 ("ChaCha20-Poly1305", "ChaCha20", 256, 12, 128);
 		
 		private final String name;
+		private final String algo;
 		private final int keySize;
+		private final int ivSize;
+		private final int tagSize;
 		
 		private SymmetricAlgorithm(String name, int keySize) {
+			this(name, keySize, 0, 0);
+		}
+		
+		private SymmetricAlgorithm(String name, int keySize, int ivSize, int tagSize) {
+			this(name, name.split("/")[0], keySize, ivSize, tagSize);
+		}
+		
+		private SymmetricAlgorithm(String name, String algo, int keySize, int ivSize, int tagSize) {
 			this.name = name;
+			this.algo = algo;
 			this.keySize = keySize;
+			this.ivSize = ivSize;
+			this.tagSize = tagSize;
 		}
 
 		@Override
@@ -56,9 +89,38 @@ public class SymmetricEncryptionMethod extends EncryptionMethod {
 			return this.keySize;
 		}
 		
+		/**
+		 * 
+		 * @return per-message nonce size in bytes (0 if algo does not use any)
+		 */
+		public int getIvSize() {
+			return this.ivSize;
+		}
+		
+		/**
+		 * 
+		 * @return authentication tag size in bits (0 if algo is not authenticated)
+		 */
+		public int getTagSize() {
+			return this.tagSize;
+		}
+		
 		@Override
 		public String getAlgo() {
-			return this.name.split("/")[0];
+			return this.algo;
+		}
+		
+		/**
+		 * Builds the cipher parameters carrying a nonce: GCM parameters for AES, plain nonce for ChaCha20 (its tag size being fixed).
+		 * @param iv array holding the nonce
+		 * @param offset nonce offset in array
+		 * @return cipher parameters
+		 */
+		AlgorithmParameterSpec getParameterSpec(byte[] iv, int offset) {
+			if(this == CHACHA20_POLY1305_256) {
+				return new IvParameterSpec(iv, offset, this.ivSize);
+			}
+			return new GCMParameterSpec(this.tagSize, iv, offset, this.ivSize);
 		}
 		
 		@Override
@@ -68,6 +130,9 @@ public class SymmetricEncryptionMethod extends EncryptionMethod {
 	}
 	
 	
+	private static final SecureRandom RANDOM = new SecureRandom();
+	
+	
 	/**
 	 * Algorithm's secret key used.
 	 */
@@ -111,13 +176,24 @@ public class SymmetricEncryptionMethod extends EncryptionMethod {
 	
 	/**
 	 * Static method to build a secret key, if needed some.
+	 * Secret key is taken from the {@link KeyMaterialPool#getDefault() default key material pool} if one is installed.
 	 * @param algo algorithm for which the secret key is desired
 	 * @return private/public key pair
 	 */
 	public static SecretKey buildSecretKey(SymmetricAlgorithm algo) {
+		KeyMaterialPool pool = KeyMaterialPool.getDefault();
+		return pool != null ? pool.takeSecretKey(algo) : generateSecretKey(algo);
+	}
+	
+	/**
+	 * Generates a new secret key.
+	 * @param algo algorithm for which the secret key is desired
+	 * @return secret key
+	 */
+	static SecretKey generateSecretKey(SymmetricAlgorithm algo) {
 		KeyGenerator keyGen;
 		try {
-			keyGen = KeyGenerator.getInstance(algo.getAlgo());
+			keyGen = CipherFactory.newKeyGenerator(algo.getAlgo());
 			keyGen.init(algo.getKeySize());
 			return keyGen.generateKey();
 		} catch (NoSuchAlgorithmException e) {
@@ -128,16 +204,29 @@ public class SymmetricEncryptionMethod extends EncryptionMethod {
 
 	/**
 	 * Symmetric implementation of the method defined in {@link vernusset.cryptUtils.EncryptionMethod EncryptionMethod}.
+	 * Initialization is skipped for an already initialized cipher, unless algorithm needs a fresh nonce.
 	 * @throws InvalidKeyException 
-	 * @throws NotEncryptableException 
-	 * @throws IOException 
 	 * @throws BadPaddingException 
 	 * @throws IllegalBlockSizeException 
 	 */
     @Override
-    protected byte[] encrypt(Encryptable data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException  {
-    	super.cipher.init(Cipher.ENCRYPT_MODE, this.key);
-        return super.cipher.doFinal(super.serialize(data));
+    protected byte[] encryptSerialized(Cipher cipher, byte[] data, int length, boolean initialized) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException  {
+    	if(this.getAlgorithm().getIvSize() == 0) {
+    		if(!initialized) {
+    			this.initEncryption(cipher);
+    		}
+    		return cipher.doFinal(data, 0, length);
+    	}
+    	
+    	byte[] iv = this.initEncryption(cipher);
+    	byte[] encrypted = new byte[iv.length + cipher.getOutputSize(length)];
+    	System.arraycopy(iv, 0, encrypted, 0, iv.length);
+    	try {
+    		cipher.doFinal(data, 0, length, encrypted, iv.length);
+    	} catch (ShortBufferException e) {
+    		throw new IllegalBlockSizeException(e.getMessage());
+    	}
+    	return encrypted;
     }
 
     @Override
@@ -147,22 +236,26 @@ public class SymmetricEncryptionMethod extends EncryptionMethod {
 
     @Override
     public String encryptToBase64String(Encryptable data) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, IOException, NotEncryptableException {
-        return Base64.getEncoder().encodeToString(this.encrypt(data));
+        return this.encodeBase64(this.encrypt(data));
     }
 
     /**
 	 * Symmetric implementation of the method defined in {@link vernusset.cryptUtils.EncryptionMethod EncryptionMethod}.
+	 * Initialization is skipped for an already initialized cipher, unless algorithm uses a per-message nonce.
      * @throws InvalidKeyException 
-     * @throws IOException 
-     * @throws NotEncryptableException 
      * @throws BadPaddingException 
      * @throws IllegalBlockSizeException 
-     * @throws ClassNotFoundException 
 	 */
     @Override
-    protected Encryptable decrypt(byte[] encryptedData) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException  {
-    	super.cipher.init(Cipher.DECRYPT_MODE, this.key);
-        return super.deserialize(super.cipher.doFinal(encryptedData));
+    protected byte[] decryptSerialized(Cipher cipher, byte[] encryptedData, boolean initialized) throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException  {
+    	int ivSize = this.getAlgorithm().getIvSize();
+    	if(encryptedData.length < ivSize) {
+    		throw new IllegalBlockSizeException("Encrypted data is shorter than nonce");
+    	}
+    	if(!initialized || ivSize > 0) {
+    		this.initDecryption(cipher, encryptedData, 0);
+    	}
+        return cipher.doFinal(encryptedData, ivSize, encryptedData.length - ivSize);
     }
     
     @Override
@@ -172,6 +265,244 @@ public class SymmetricEncryptionMethod extends EncryptionMethod {
     
     @Override
     public Encryptable decryptFromBase64String(String encryptedData) throws InvalidKeyException, ClassNotFoundException, IllegalBlockSizeException, BadPaddingException, NotEncryptableException, IOException  {
-    	return this.decrypt(Base64.getDecoder().decode(encryptedData));
+    	return this.decrypt(this.decodeBase64(encryptedData, Base64Codec.STANDARD));
+    }
+    
+    /**
+     * Encrypts raw bytes from a buffer to another, without any intermediate array (buffers can be heap or direct ones).
+     * Remaining bytes of source buffer are encrypted, and written to destination buffer from its position 
+     * (nonce first, for algorithms using one). Buffers positions are advanced accordingly.
+     * Source and destination buffers can share the same memory, wherever destination starts: the slot of the nonce is only reserved
+     * while encrypting (ciphers being copy safe), and the nonce written once source has been fully read.
+     * @param src data to encrypt
+     * @param dst buffer receiving encrypted data, with at least {@link #getEncryptedSize(int) getEncryptedSize(src.remaining())} bytes remaining
+     * @return number of bytes written to destination buffer
+     * @throws InvalidKeyException
+     * @throws ShortBufferException
+     * @throws IllegalBlockSizeException
+     * @throws BadPaddingException
+     */
+    public int encrypt(ByteBuffer src, ByteBuffer dst) throws InvalidKeyException, ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+    	int encryptedSize = this.getEncryptedSize(src.remaining());
+    	if(dst.remaining() < encryptedSize) {
+    		throw new ShortBufferException("Destination buffer too small. Needed: " + encryptedSize + " bytes, remaining: " + dst.remaining() + " bytes");
+    	}
+    	Cipher cipher = super.getCipher();
+    	byte[] iv = this.initEncryption(cipher);
+    	int ivPosition = dst.position();
+    	dst.position(ivPosition + iv.length);
+    	int written = cipher.doFinal(src, dst);
+    	for(int i = 0; i < iv.length; i++) { //Absolute puts, once source has been read
+    		dst.put(ivPosition + i, iv[i]);
+    	}
+    	return iv.length + written;
+    }
+    
+    /**
+     * Decrypts raw bytes from a buffer to another, without any intermediate array (buffers can be heap or direct ones).
+     * Remaining bytes of source buffer are decrypted, and written to destination buffer from its position. 
+     * Buffers positions are advanced accordingly.
+     * Source and destination buffers can share the same memory.
+     * @param src data encrypted by {@link #encrypt(ByteBuffer, ByteBuffer)}
+     * @param dst buffer receiving decrypted data, with at least src.remaining() bytes remaining
+     * @return number of bytes written to destination buffer
+     * @throws InvalidKeyException
+     * @throws ShortBufferException
+     * @throws IllegalBlockSizeException
+     * @throws BadPaddingException
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst) throws InvalidKeyException, ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+    	byte[] iv = new byte[this.getAlgorithm().getIvSize()];
+    	if(src.remaining() < iv.length) {
+    		throw new IllegalBlockSizeException("Encrypted data is shorter than nonce");
+    	}
+    	src.get(iv);
+    	Cipher cipher = super.getCipher();
+    	this.initDecryption(cipher, iv, 0);
+    	return cipher.doFinal(src, dst);
+    }
+    
+    /**
+     * Gives the exact size of encrypted data, so that buffers can be sized beforehand.
+     * @param dataLength length of data to encrypt, in bytes
+     * @return length of encrypted data (nonce included), in bytes
+     */
+    public int getEncryptedSize(int dataLength) {
+    	SymmetricAlgorithm algo = this.getAlgorithm();
+    	if(algo.getTagSize() > 0) {
+    		return algo.getIvSize() + dataLength + algo.getTagSize() / 8;
+    	}
+    	return (dataLength / 16 + 1) * 16; //PKCS5 padding up to next AES block
+    }
+    
+    /**
+     * Encrypts a file, using all available processors: file is memory mapped and split in segments 
+     * encrypted in parallel with AES-CTR, each segment carrying its own integrity tag.
+     * Encryption uses keys derived from this method secret key, whatever the algorithm mode.
+     * @param in plain file
+     * @param out encrypted file (replaced if existing)
+     * @throws IOException
+     * @throws InvalidKeyException
+     */
+    public void encryptFile(Path in, Path out) throws IOException, InvalidKeyException {
+    	this.encryptFile(in, out, MappedFileEncryption.DEFAULT_SEGMENT_SIZE, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Encrypts a file, as {@link #encryptFile(Path, Path)} does, with a custom segment size and pool.
+     * @param in plain file
+     * @param out encrypted file (replaced if existing)
+     * @param segmentSize size of the segments encrypted in parallel, in bytes (multiple of 16)
+     * @param pool pool to encrypt segments in
+     * @throws IOException
+     * @throws InvalidKeyException
+     */
+    public void encryptFile(Path in, Path out, int segmentSize, ForkJoinPool pool) throws IOException, InvalidKeyException {
+    	new MappedFileEncryption(this.key, segmentSize, pool).encryptFile(in, out);
+    }
+    
+    /**
+     * Decrypts a file encrypted by {@link #encryptFile(Path, Path) encryptFile}, using all available processors.
+     * Decrypted file is deleted if any segment integrity check fails.
+     * @param in encrypted file
+     * @param out decrypted file (replaced if existing)
+     * @throws IOException
+     * @throws InvalidKeyException
+     * @throws BadPaddingException if file is not a valid encrypted file, or has been altered
+     */
+    public void decryptFile(Path in, Path out) throws IOException, InvalidKeyException, BadPaddingException {
+    	this.decryptFile(in, out, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Decrypts a file, as {@link #decryptFile(Path, Path)} does, in a custom pool.
+     * @param in encrypted file
+     * @param out decrypted file (replaced if existing)
+     * @param pool pool to decrypt segments in
+     * @throws IOException
+     * @throws InvalidKeyException
+     * @throws BadPaddingException if file is not a valid encrypted file, or has been altered
+     */
+    public void decryptFile(Path in, Path out, ForkJoinPool pool) throws IOException, InvalidKeyException, BadPaddingException {
+    	new MappedFileEncryption(this.key, MappedFileEncryption.DEFAULT_SEGMENT_SIZE, pool).decryptFile(in, out);
+    }
+
+    /**
+     * Writes a seekable encrypted container: data is split in chunks of 64 KiB, each one encrypted and authenticated
+     * independently with AES-GCM, so that any range can later be read without decrypting the whole container.
+     * Encryption uses a key derived from this method secret key, whatever the algorithm mode.
+     * @param in plain data, read until its end (but not closed)
+     * @param out container file (replaced if existing)
+     * @throws IOException
+     * @throws InvalidKeyException
+     */
+    public void encryptToContainer(InputStream in, Path out) throws IOException, InvalidKeyException {
+    	this.encryptToContainer(in, out, EncryptedContainer.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Writes a seekable encrypted container, as {@link #encryptToContainer(InputStream, Path)} does, with a custom chunk size.
+     * Smaller chunks make point reads cheaper, larger ones make the container more compact.
+     * @param in plain data, read until its end (but not closed)
+     * @param out container file (replaced if existing)
+     * @param chunkSize size of the independently encrypted chunks, in bytes
+     * @throws IOException
+     * @throws InvalidKeyException
+     */
+    public void encryptToContainer(InputStream in, Path out, int chunkSize) throws IOException, InvalidKeyException {
+    	new EncryptedContainer(this.key).write(in, out, chunkSize);
+    }
+
+    /**
+     * Opens a container written by {@link #encryptToContainer(InputStream, Path) encryptToContainer} for random access reading:
+     * each read only decrypts (and authenticates) the chunks covering the requested range.
+     * Returned channel is read only, and must not be shared between threads.
+     * Integrity failures detected while reading are raised as IOException caused by a BadPaddingException.
+     * @param in container file
+     * @return read only channel of plain data
+     * @throws IOException
+     * @throws InvalidKeyException
+     * @throws BadPaddingException if file is not a valid container, or has been altered
+     */
+    public SeekableByteChannel openContainer(Path in) throws IOException, InvalidKeyException, BadPaddingException {
+    	return new EncryptedContainer(this.key).open(in);
+    }
+    
+    @Override
+    public SymmetricAlgorithm getAlgorithm() {
+    	return (SymmetricAlgorithm)super.getAlgorithm();
+    }
+    
+    /**
+     * Initializes a cipher for encryption, with a fresh nonce if algorithm uses one.
+     * @param cipher cipher to initialize
+     * @return nonce used (empty if none)
+     * @throws InvalidKeyException
+     */
+    private byte[] initEncryption(Cipher cipher) throws InvalidKeyException {
+    	SymmetricAlgorithm algo = this.getAlgorithm();
+    	long start = EncryptionMetrics.start();
+    	byte[] iv = new byte[algo.getIvSize()];
+    	if(iv.length == 0) {
+    		cipher.init(Cipher.ENCRYPT_MODE, this.key);
+    	} else {
+    		RANDOM.nextBytes(iv);
+    		try {
+    			cipher.init(Cipher.ENCRYPT_MODE, this.key, algo.getParameterSpec(iv, 0));
+    		} catch (InvalidAlgorithmParameterException e) {
+    			throw new InvalidKeyException(e.getMessage(), e);
+    		}
+    	}
+    	EncryptionMetrics.end(algo, EncryptionMetrics.Phase.CIPHER_INIT, start, 0, 0);
+    	return iv;
+    }
+    
+    /**
+     * Initializes a cipher for decryption, with the nonce found at the given offset if algorithm uses one.
+     * @param cipher cipher to initialize
+     * @param iv array holding the nonce
+     * @param offset nonce offset in array
+     * @throws InvalidKeyException
+     */
+    private void initDecryption(Cipher cipher, byte[] iv, int offset) throws InvalidKeyException {
+    	SymmetricAlgorithm algo = this.getAlgorithm();
+    	long start = EncryptionMetrics.start();
+    	if(algo.getIvSize() == 0) {
+    		cipher.init(Cipher.DECRYPT_MODE, this.key);
+    	} else {
+    		try {
+    			try {
+    				cipher.init(Cipher.DECRYPT_MODE, this.key, algo.getParameterSpec(iv, offset));
+    			} catch (InvalidKeyException e) {
+    				if(algo != SymmetricAlgorithm.CHACHA20_POLY1305_256) {
+    					throw e;
+    				}
+    				//ChaCha20 refuses the key and nonce of its previous initialization, even to decrypt what it has just encrypted
+    				byte[] resetIv = new byte[algo.getIvSize()];
+    				RANDOM.nextBytes(resetIv);
+    				cipher.init(Cipher.ENCRYPT_MODE, this.key, algo.getParameterSpec(resetIv, 0));
+    				cipher.init(Cipher.DECRYPT_MODE, this.key, algo.getParameterSpec(iv, offset));
+    			}
+    		} catch (InvalidAlgorithmParameterException e) {
+    			throw new InvalidKeyException(e.getMessage(), e);
+    		}
+    	}
+    	EncryptionMetrics.end(algo, EncryptionMetrics.Phase.CIPHER_INIT, start, 0, 0);
+    }
+    
+    @Override
+    protected OutputStream openEncryptionStream(OutputStream out) throws InvalidKeyException, IOException {
+    	Cipher cipher = super.getCipher();
+    	out.write(this.initEncryption(cipher));
+    	return new CipherOutputStream(out, cipher);
+    }
+    
+    @Override
+    protected InputStream openDecryptionStream(InputStream in) throws InvalidKeyException, IOException {
+    	byte[] iv = new byte[this.getAlgorithm().getIvSize()];
+    	new DataInputStream(in).readFully(iv);
+    	Cipher cipher = super.getCipher();
+    	this.initDecryption(cipher, iv, 0);
+    	return new CipherInputStream(in, cipher);
     }
 }
@@ -0,0 +1,21 @@
+package vernusset.cryptUtils.encryptableObjects;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ *
+ * Marks a field of an encryptable object as sensitive: with {@link vernusset.cryptUtils.FieldEncryption FieldEncryption},
+ * only the values of such fields are encrypted, other fields staying in plain text.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Encrypted {
+}
@@ -0,0 +1,184 @@
+package vernusset.cryptUtils.serialization;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+import vernusset.cryptUtils.encryptableObjects.EncryptableString;
+import vernusset.cryptUtils.exceptions.NotEncryptableException;
+
+/**
+ * 
+ * Compact binary serializer.
+ * Each object is written as a one byte codec id followed by the codec output:
+ * built-in codecs handle {@link vernusset.cryptUtils.encryptableObjects.EncryptableString EncryptableString} (raw UTF-8), 
+ * custom codecs can be registered for other encryptable classes, 
+ * and any other object falls back to standard Java serialization.
+ * 
+ * @author Maxime VERNUSSET
+ *
+ */
+public class CompactSerializer implements EncryptableSerializer {
+	
+	/**
+	 * Codec id of objects written with standard Java serialization.
+	 */
+	public static final int JAVA_SERIALIZATION_ID = 0;
+	
+	/**
+	 * Codec id of {@link vernusset.cryptUtils.encryptableObjects.EncryptableString EncryptableString}.
+	 */
+	public static final int ENCRYPTABLE_STRING_ID = 1;
+	
+	/**
+	 * Lowest codec id available for custom codecs (lower ones are reserved for built-in codecs).
+	 */
+	public static final int FIRST_CUSTOM_ID = 16;
+	
+	/**
+	 * Highest codec id.
+	 */
+	public static final int LAST_ID = 255;
+	
+	private static final int READ_CHUNK_SIZE = 8192;
+	
+	
+	/**
+	 * Codec and its id.
+	 */
+	private static class Registration {
+		private final int id;
+		private final EncryptableCodec<Encryptable> codec;
+		
+		private Registration(int id, EncryptableCodec<Encryptable> codec) {
+			this.id = id;
+			this.codec = codec;
+		}
+	}
+	
+	/**
+	 * Built-in codec writing the wrapped string as UTF-8 bytes.
+	 */
+	private static final EncryptableCodec<EncryptableString> ENCRYPTABLE_STRING_CODEC = new EncryptableCodec<EncryptableString>() {
+		@Override
+		public void write(EncryptableString object, DataOutput out) throws IOException {
+			if(object.string == null) {
+				out.writeInt(-1);
+			} else {
+				byte[] bytes = object.string.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+
+		@Override
+		public EncryptableString read(DataInput in) throws IOException {
+			int length = in.readInt();
+			if(length == -1) return new EncryptableString(null);
+			if(length < 0) {
+				throw new StreamCorruptedException("Invalid string length: " + length);
+			}
+			byte[] bytes = new byte[Math.min(length, READ_CHUNK_SIZE)];
+			try { //Buffer grows with bytes actually read, so that a corrupted length does not allocate it at once
+				for(int read = 0; read < length; read = bytes.length) {
+					if(read == bytes.length) {
+						bytes = Arrays.copyOf(bytes, (int)Math.min(length, 2L * bytes.length));
+					}
+					in.readFully(bytes, read, bytes.length - read);
+				}
+			} catch (EOFException e) {
+				throw new StreamCorruptedException("String length exceeds remaining data: " + length);
+			}
+			return new EncryptableString(new String(bytes, StandardCharsets.UTF_8));
+		}
+	};
+	
+	
+	/**
+	 * Registered codecs, per class.
+	 */
+	private final Map<Class<?>, Registration> registrationsByClass = new ConcurrentHashMap<>();
+	
+	/**
+	 * Registered codecs, per id.
+	 */
+	private final AtomicReferenceArray<Registration> registrationsById = new AtomicReferenceArray<>(LAST_ID + 1);
+	
+	
+	/**
+	 * Constructor.
+	 * Registers built-in codecs.
+	 */
+	public CompactSerializer() {
+		this.put(EncryptableString.class, ENCRYPTABLE_STRING_ID, ENCRYPTABLE_STRING_CODEC);
+	}
+	
+	/**
+	 * Registers a custom codec. 
+	 * Both correspondents must register the same codecs with the same ids.
+	 * @param type exact class handled by the codec (subclasses are not handled)
+	 * @param id codec id, between {@link #FIRST_CUSTOM_ID} and {@link #LAST_ID}
+	 * @param codec codec to register
+	 * @return this serializer
+	 */
+	public <T extends Encryptable> CompactSerializer register(Class<T> type, int id, EncryptableCodec<T> codec) {
+		if(id < FIRST_CUSTOM_ID || id > LAST_ID) {
+			throw new IllegalArgumentException("Custom codec id must be between " + FIRST_CUSTOM_ID + " and " + LAST_ID + ". Given: " + id);
+		}
+		if(this.registrationsById.get(id) != null) {
+			throw new IllegalArgumentException("Codec id " + id + " is already registered");
+		}
+		this.put(type, id, codec);
+		return this;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void put(Class<?> type, int id, EncryptableCodec<?> codec) {
+		Registration registration = new Registration(id, (EncryptableCodec<Encryptable>)codec);
+		this.registrationsById.set(id, registration);
+		this.registrationsByClass.put(type, registration);
+	}
+
+	@Override
+	public void serialize(Encryptable object, OutputStream out) throws IOException, NotEncryptableException {
+		Registration registration = object != null ? this.registrationsByClass.get(object.getClass()) : null;
+		if(registration == null) {
+			out.write(JAVA_SERIALIZATION_ID);
+			JavaSerializer.INSTANCE.serialize(object, out);
+		} else {
+			DataOutputStream dos = new DataOutputStream(out);
+			dos.writeByte(registration.id);
+			registration.codec.write(object, dos);
+			dos.flush();
+		}
+	}
+
+	@Override
+	public Encryptable deserialize(InputStream in) throws IOException, ClassNotFoundException, NotEncryptableException {
+		int id = in.read();
+		if(id < 0) {
+			throw new StreamCorruptedException("Missing codec id");
+		}
+		if(id == JAVA_SERIALIZATION_ID) {
+			return JavaSerializer.INSTANCE.deserialize(in);
+		}
+		
+		Registration registration = this.registrationsById.get(id);
+		if(registration == null) {
+			throw new StreamCorruptedException("Unknown codec id: " + id);
+		}
+		return registration.codec.read(new DataInputStream(in));
+	}
+}
@@ -0,0 +1,243 @@
+package vernusset.cryptUtils.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.concurrent.atomic.LongAdder;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+import vernusset.cryptUtils.exceptions.NotEncryptableException;
+
+/**
+ *
+ * Serializer compressing the output of another serializer, between serialization and encryption.
+ * Each object is written as a one byte flag (compressed or not) followed by the serialized object, compressed or not:
+ * objects whose serialized form is smaller than the threshold are left as is,
+ * as well as objects whose compressed form would not be smaller.
+ * Both correspondents must use a compressing serializer with the same codec, wrapping the same serializer (thresholds may differ).
+ *
+ * Decompressed size is bounded, so that small crafted compressed data (decompression bomb) cannot exhaust memory before deserialization.
+ *
+ * Compression ratio and time are measured, so that the benefit can be assessed for each encryption method
+ * (use one instance per method to compare them).
+ *
+ * <i>Note</i>: compressed size reveals some information on content. Do not compress secrets along with data controlled by an attacker.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class CompressingSerializer implements EncryptableSerializer {
+
+	/**
+	 * Default serialized size from which objects are compressed, in bytes.
+	 */
+	public static final int DEFAULT_THRESHOLD = 512;
+
+	/**
+	 * Default maximum decompressed size, in bytes.
+	 */
+	public static final long DEFAULT_MAX_DECOMPRESSED_SIZE = 64 * 1024 * 1024;
+
+	private static final int UNCOMPRESSED = 0;
+	private static final int COMPRESSED = 1;
+	private static final int BUFFER_SIZE = 8192;
+
+
+	/**
+	 * Byte array output stream whose internal buffer can be used directly.
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		private Buffer(int size) {
+			super(size);
+		}
+
+		private byte[] array() {
+			return this.buf;
+		}
+	}
+
+
+	private final EncryptableSerializer serializer;
+	private final int threshold;
+	private final CompressionCodec codec;
+	private final long maxDecompressedSize;
+
+	private final LongAdder compressedCount = new LongAdder();
+	private final LongAdder uncompressedCount = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder compressionAttempts = new LongAdder();
+	private final LongAdder compressionNanos = new LongAdder();
+	private final LongAdder decompressedCount = new LongAdder();
+	private final LongAdder decompressionNanos = new LongAdder();
+
+
+	/**
+	 * Constructor.
+	 * Compresses with Deflate, at the given level.
+	 * @param serializer serializer whose output is compressed
+	 * @param threshold serialized size from which objects are compressed, in bytes
+	 * @param level Deflate compression level, from 1 (best speed) to 9 (best compression), or -1 (default)
+	 */
+	public CompressingSerializer(EncryptableSerializer serializer, int threshold, int level) {
+		this(serializer, threshold, new DeflateCodec(level));
+	}
+
+	/**
+	 * Constructor, with {@link #DEFAULT_MAX_DECOMPRESSED_SIZE default maximum decompressed size}.
+	 * @param serializer serializer whose output is compressed
+	 * @param threshold serialized size from which objects are compressed, in bytes
+	 * @param codec compression algorithm
+	 */
+	public CompressingSerializer(EncryptableSerializer serializer, int threshold, CompressionCodec codec) {
+		this(serializer, threshold, codec, DEFAULT_MAX_DECOMPRESSED_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param serializer serializer whose output is compressed
+	 * @param threshold serialized size from which objects are compressed, in bytes
+	 * @param codec compression algorithm
+	 * @param maxDecompressedSize maximum decompressed size of an object, in bytes (larger ones being rejected with a ZipException)
+	 */
+	public CompressingSerializer(EncryptableSerializer serializer, int threshold, CompressionCodec codec, long maxDecompressedSize) {
+		if(threshold < 0 || maxDecompressedSize <= 0) {
+			throw new IllegalArgumentException("Threshold must not be negative, and maximum decompressed size must be positive. Given: " + threshold + ", " + maxDecompressedSize);
+		}
+		this.serializer = serializer;
+		this.threshold = threshold;
+		this.codec = codec;
+		this.maxDecompressedSize = maxDecompressedSize;
+	}
+
+	/**
+	 * Getter.
+	 * @return serializer whose output is compressed
+	 */
+	public EncryptableSerializer getSerializer() {
+		return this.serializer;
+	}
+
+	/**
+	 * Getter.
+	 * @return serialized size from which objects are compressed, in bytes
+	 */
+	public int getThreshold() {
+		return this.threshold;
+	}
+
+	/**
+	 * Getter.
+	 * @return compression algorithm
+	 */
+	public CompressionCodec getCodec() {
+		return this.codec;
+	}
+
+	/**
+	 * Getter.
+	 * @return maximum decompressed size of an object, in bytes
+	 */
+	public long getMaxDecompressedSize() {
+		return this.maxDecompressedSize;
+	}
+
+	@Override
+	public void serialize(Encryptable object, OutputStream out) throws IOException, NotEncryptableException {
+		Buffer serialized = new Buffer(256);
+		this.serializer.serialize(object, serialized);
+		int size = serialized.size();
+		if(size >= this.threshold) {
+			long start = System.nanoTime();
+			Buffer compressed = new Buffer(size / 2 + 16);
+			this.codec.compress(serialized.array(), 0, size, compressed);
+			this.compressionNanos.add(System.nanoTime() - start);
+			this.compressionAttempts.increment();
+			if(compressed.size() < size) {
+				this.compressedCount.increment();
+				this.bytesIn.add(size);
+				this.bytesOut.add(compressed.size());
+				out.write(COMPRESSED);
+				compressed.writeTo(out);
+				return;
+			}
+		}
+		this.uncompressedCount.increment();
+		out.write(UNCOMPRESSED);
+		serialized.writeTo(out);
+	}
+
+	@Override
+	public Encryptable deserialize(InputStream in) throws IOException, ClassNotFoundException, NotEncryptableException {
+		int flag = in.read();
+		switch(flag) {
+			case UNCOMPRESSED:
+				return this.serializer.deserialize(in);
+
+			case COMPRESSED:
+				long start = System.nanoTime();
+				Buffer decompressed = new Buffer(BUFFER_SIZE);
+				this.codec.decompress(in, decompressed, this.maxDecompressedSize);
+				this.decompressionNanos.add(System.nanoTime() - start);
+				this.decompressedCount.increment();
+				return this.serializer.deserialize(new ByteArrayInputStream(decompressed.array(), 0, decompressed.size()));
+
+			default:
+				throw new StreamCorruptedException(flag < 0 ? "Missing compression flag" : "Unknown compression flag: " + flag);
+		}
+	}
+
+	/**
+	 * Getter.
+	 * @return number of objects written compressed
+	 */
+	public long getCompressedCount() {
+		return this.compressedCount.sum();
+	}
+
+	/**
+	 * Getter.
+	 * @return number of objects written uncompressed (under threshold, or not compressible)
+	 */
+	public long getUncompressedCount() {
+		return this.uncompressedCount.sum();
+	}
+
+	/**
+	 * Getter.
+	 * @return compressed size / serialized size of objects written compressed (1 if none)
+	 */
+	public double getCompressionRatio() {
+		long bytesIn = this.bytesIn.sum();
+		return bytesIn > 0 ? (double)this.bytesOut.sum() / bytesIn : 1;
+	}
+
+	/**
+	 * Getter.
+	 * @return average time spent compressing an object (attempts that did not pay off included), in nanoseconds
+	 */
+	public long getAverageCompressionNanos() {
+		long attempts = this.compressionAttempts.sum();
+		return attempts > 0 ? this.compressionNanos.sum() / attempts : 0;
+	}
+
+	/**
+	 * Getter.
+	 * @return average time spent decompressing an object, in nanoseconds
+	 */
+	public long getAverageDecompressionNanos() {
+		long count = this.decompressedCount.sum();
+		return count > 0 ? this.decompressionNanos.sum() / count : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.getClass().getSimpleName() + "]{codec=" + this.codec + ", threshold=" + this.threshold
+				+ ", compressed=" + this.getCompressedCount() + ", uncompressed=" + this.getUncompressedCount()
+				+ String.format(", ratio=%.3f", this.getCompressionRatio())
+				+ ", compression=" + this.getAverageCompressionNanos() / 1000 + "us, decompression=" + this.getAverageDecompressionNanos() / 1000 + "us}";
+	}
+}
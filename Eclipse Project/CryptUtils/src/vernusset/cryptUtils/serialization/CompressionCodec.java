@@ -0,0 +1,37 @@
+package vernusset.cryptUtils.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ *
+ * Interface to implement to provide a compression algorithm
+ * to a {@link vernusset.cryptUtils.serialization.CompressingSerializer CompressingSerializer}.
+ * Implementations must be thread safe.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public interface CompressionCodec {
+
+	/**
+	 * Compresses data to a stream. Stream must be left open.
+	 * @param data data to compress
+	 * @param offset index of first byte to compress
+	 * @param length number of bytes to compress
+	 * @param out stream to write compressed data to
+	 * @throws IOException
+	 */
+	public void compress(byte[] data, int offset, int length, OutputStream out) throws IOException;
+
+	/**
+	 * Decompresses data written by {@link #compress(byte[], int, int, OutputStream) compress}.
+	 * @param in stream to read compressed data from
+	 * @param out stream to write decompressed data to
+	 * @param maxSize maximum decompressed size, in bytes (never exceeded on output)
+	 * @throws java.util.zip.ZipException if decompressed data exceeds maximum size
+	 * @throws IOException if compressed data is corrupted
+	 */
+	public void decompress(InputStream in, OutputStream out, long maxSize) throws IOException;
+}
@@ -0,0 +1,115 @@
+package vernusset.cryptUtils.serialization;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ *
+ * Compression codec using Deflate (zlib format).
+ * Each thread reuses its own deflater, inflater and buffers, so that compressing does not allocate native memory on each call.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class DeflateCodec implements CompressionCodec {
+
+	private static final int BUFFER_SIZE = 8192;
+
+
+	/**
+	 * Per-thread deflater, inflater and buffers.
+	 */
+	private static class State {
+		private final Deflater deflater;
+		private final Inflater inflater = new Inflater();
+		private final byte[] input = new byte[BUFFER_SIZE];
+		private final byte[] output = new byte[BUFFER_SIZE];
+
+		private State(int level) {
+			this.deflater = new Deflater(level);
+		}
+	}
+
+
+	private final int level;
+	private final ThreadLocal<State> states;
+
+
+	/**
+	 * Constructor.
+	 * @param level compression level, from {@link Deflater#BEST_SPEED} (1) to {@link Deflater#BEST_COMPRESSION} (9),
+	 * 		or {@link Deflater#DEFAULT_COMPRESSION} (-1)
+	 */
+	public DeflateCodec(int level) {
+		if((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Compression level must be between " + Deflater.BEST_SPEED + " and " + Deflater.BEST_COMPRESSION + ", or " + Deflater.DEFAULT_COMPRESSION + ". Given: " + level);
+		}
+		this.level = level;
+		this.states = ThreadLocal.withInitial(() -> new State(level));
+	}
+
+	/**
+	 * Getter.
+	 * @return compression level
+	 */
+	public int getLevel() {
+		return this.level;
+	}
+
+	@Override
+	public void compress(byte[] data, int offset, int length, OutputStream out) throws IOException {
+		State state = this.states.get();
+		Deflater deflater = state.deflater;
+		try {
+			deflater.setInput(data, offset, length);
+			deflater.finish();
+			while(!deflater.finished()) {
+				out.write(state.output, 0, deflater.deflate(state.output));
+			}
+		} finally {
+			deflater.reset();
+		}
+	}
+
+	@Override
+	public void decompress(InputStream in, OutputStream out, long maxSize) throws IOException {
+		State state = this.states.get();
+		Inflater inflater = state.inflater;
+		long size = 0;
+		try {
+			while(!inflater.finished()) {
+				if(inflater.needsInput()) {
+					int read = in.read(state.input);
+					if(read < 0) {
+						throw new EOFException("Unexpected end of compressed data");
+					}
+					inflater.setInput(state.input, 0, read);
+				}
+				int inflated = inflater.inflate(state.output);
+				if(inflated == 0 && inflater.needsDictionary()) {
+					throw new ZipException("Compressed data needs a preset dictionary");
+				}
+				size += inflated;
+				if(size > maxSize) {
+					throw new ZipException("Decompressed data exceeds " + maxSize + " bytes");
+				}
+				out.write(state.output, 0, inflated);
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		} finally {
+			inflater.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Deflate (level " + this.level + ")";
+	}
+}
@@ -0,0 +1,36 @@
+package vernusset.cryptUtils.serialization;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+
+/**
+ * 
+ * Interface to implement to provide a hand-written binary codec for an encryptable class, 
+ * to be registered in a {@link vernusset.cryptUtils.serialization.CompactSerializer CompactSerializer}.
+ * Implementations must be thread safe.
+ * 
+ * @author Maxime VERNUSSET
+ *
+ * @param <T> encryptable class handled by the codec
+ */
+public interface EncryptableCodec<T extends Encryptable> {
+
+	/**
+	 * Writes an object's fields.
+	 * @param object object to write
+	 * @param out binary output
+	 * @throws IOException
+	 */
+	public void write(T object, DataOutput out) throws IOException;
+	
+	/**
+	 * Reads back an object written by {@link #write(Encryptable, DataOutput) write}.
+	 * @param in binary input
+	 * @return read object
+	 * @throws IOException
+	 */
+	public T read(DataInput in) throws IOException;
+}
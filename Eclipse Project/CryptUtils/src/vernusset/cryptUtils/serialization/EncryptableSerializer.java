@@ -0,0 +1,38 @@
+package vernusset.cryptUtils.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+import vernusset.cryptUtils.exceptions.NotEncryptableException;
+
+/**
+ * 
+ * Interface to implement to provide a way to serialize/deserialize encryptable objects before encryption/after decryption.
+ * Implementations must be thread safe.
+ * 
+ * @author Maxime VERNUSSET
+ *
+ */
+public interface EncryptableSerializer {
+
+	/**
+	 * Writes an object to a stream. Stream must be left open.
+	 * @param object any object that implements the Encryptable interface
+	 * @param out stream to write serialized object to
+	 * @throws IOException
+	 * @throws NotEncryptableException
+	 */
+	public void serialize(Encryptable object, OutputStream out) throws IOException, NotEncryptableException;
+	
+	/**
+	 * Reads an object from a stream.
+	 * @param in stream to read serialized object from
+	 * @return deserialized object
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws NotEncryptableException
+	 */
+	public Encryptable deserialize(InputStream in) throws IOException, ClassNotFoundException, NotEncryptableException;
+}
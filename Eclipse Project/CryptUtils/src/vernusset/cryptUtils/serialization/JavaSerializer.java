@@ -0,0 +1,47 @@
+package vernusset.cryptUtils.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+import vernusset.cryptUtils.exceptions.NotEncryptableException;
+
+/**
+ * 
+ * Serializer using standard Java serialization. 
+ * Default serializer of encryption methods, able to handle any encryptable object.
+ * 
+ * @author Maxime VERNUSSET
+ *
+ */
+public class JavaSerializer implements EncryptableSerializer {
+	
+	/**
+	 * Shared instance (this serializer is stateless).
+	 */
+	public static final JavaSerializer INSTANCE = new JavaSerializer();
+
+	@Override
+	public void serialize(Encryptable object, OutputStream out) throws IOException, NotEncryptableException {
+		try {
+			ObjectOutputStream os = new ObjectOutputStream(out);
+			os.writeObject(object);
+			os.flush();
+		} catch (NotSerializableException e) {
+			throw new NotEncryptableException();
+		}
+	}
+
+	@Override
+	public Encryptable deserialize(InputStream in) throws IOException, ClassNotFoundException, NotEncryptableException {
+		try {
+			return (Encryptable)new ObjectInputStream(in).readObject();
+		} catch (NotSerializableException e) {
+			throw new NotEncryptableException();
+		}
+	}
+}
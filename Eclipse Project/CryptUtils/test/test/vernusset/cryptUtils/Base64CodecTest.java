@@ -0,0 +1,153 @@
+package test.vernusset.cryptUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import test.vernusset.cryptUtils.sampleEncryptableObjects.*;
+import vernusset.cryptUtils.Base64Codec;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+import vernusset.cryptUtils.encryptableObjects.*;
+
+
+/**
+ *
+ * Base64 codec tests: output identical to java.util.Base64 for every variant and destination,
+ * exact size estimates, invalid input rejection, and encryption round trips without intermediate copies.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class Base64CodecTest {
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_256;
+
+	/**
+	 * Codecs under test.
+	 */
+	private final Base64Codec[] CODECS = {Base64Codec.STANDARD, Base64Codec.STANDARD_NO_PADDING, Base64Codec.URL_SAFE, Base64Codec.URL_SAFE_NO_PADDING};
+
+
+	/**
+	 * @param codec codec
+	 * @return equivalent JDK encoder
+	 */
+	private Base64.Encoder jdkEncoder(Base64Codec codec) {
+		Base64.Encoder encoder = codec.isUrlSafe() ? Base64.getUrlEncoder() : Base64.getEncoder();
+		return codec.isPadding() ? encoder : encoder.withoutPadding();
+	}
+
+	/**
+	 * Checks a codec against the JDK one, for random data of every length up to 100 bytes.
+	 * @param codec codec
+	 * @return true if test passed
+	 */
+	private boolean testCodec(Base64Codec codec) throws IOException {
+		Random random = new Random(42);
+		boolean passed = true;
+		for(int length = 0; length <= 100; length++) {
+			byte[] data = new byte[length];
+			random.nextBytes(data);
+			String expected = this.jdkEncoder(codec).encodeToString(data);
+
+			byte[] encoded = new byte[codec.encodedLength(length) + 2];
+			int written = codec.encode(data, 0, length, encoded, 1);
+			passed &= written == expected.length() && expected.equals(new String(encoded, 1, written, StandardCharsets.US_ASCII));
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(codec.encodedLength(length));
+			codec.encode(ByteBuffer.wrap(data), direct);
+			passed &= !direct.hasRemaining() && expected.equals(StandardCharsets.US_ASCII.decode((ByteBuffer)direct.flip()).toString());
+
+			StringBuilder builder = new StringBuilder("prefix:");
+			passed &= codec.encode(data, 0, length, builder) == expected.length() && builder.toString().equals("prefix:" + expected);
+			passed &= expected.equals(codec.encodeToString(data));
+
+			passed &= codec.decodedLength(expected) == length && Arrays.equals(data, codec.decode(expected));
+			passed &= Arrays.equals(data, codec.decode(CharBuffer.wrap(expected.toCharArray())));
+			ByteBuffer decoded = ByteBuffer.allocate(length);
+			direct.rewind();
+			passed &= codec.decodedLength(direct) == length && codec.decode(direct, decoded) == length && !direct.hasRemaining() && Arrays.equals(data, decoded.array());
+
+			String padded = Base64.getEncoder().encodeToString(data), unpadded = Base64.getEncoder().withoutPadding().encodeToString(data);
+			if(codec.isUrlSafe()) {
+				padded = padded.replace('+', '-').replace('/', '_');
+				unpadded = unpadded.replace('+', '-').replace('/', '_');
+			}
+			passed &= Arrays.equals(data, codec.decode(padded)) && Arrays.equals(data, codec.decode(unpadded)); //Padding is optional
+		}
+
+		for(String invalid : new String[] {"A", "AAAAA", "AA=", "AA=A", "A===", "AA*A", "AAA\n", codec.isUrlSafe() ? "AA+A" : "AA-A"}) {
+			try {
+				codec.decode(invalid);
+				System.out.println("\tAccepted invalid input: \"" + invalid + "\"");
+				passed = false;
+			} catch (IllegalArgumentException e) {
+				//Expected
+			}
+		}
+		System.out.println("\t" + codec + (passed ? " identical to java.util.Base64" : " differs from java.util.Base64"));
+		return passed;
+	}
+
+	/**
+	 * Function to launch the Base64 codec test.
+	 * @return true if test passed, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+
+		try {
+			System.out.println("Base64 codecs");
+			for(Base64Codec codec : this.CODECS) {
+				passed &= this.testCodec(codec);
+			}
+
+			System.out.println("Base64 encryption using " + this.SYMETRIC_ENCRYPTION_ALGO.toString());
+			SymmetricEncryptionMethod sem = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO));
+			Encryptable input = new SampleEncryptableObject(1, "Object to encrypt");
+
+			StringBuilder json = new StringBuilder("{\"data\":\"");
+			sem.encryptToBase64(input, json, Base64Codec.STANDARD);
+			String encoded = json.append("\"}").substring(9, json.length() - 2);
+			passed &= input.equals(sem.decryptFromBase64String(encoded)); //Same format as encryptToBase64String
+			passed &= input.equals(sem.decryptFromBase64(CharBuffer.wrap(json, 9, json.length() - 2), Base64Codec.STANDARD));
+
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+			int written = sem.encryptToBase64(input, buffer, Base64Codec.URL_SAFE_NO_PADDING);
+			System.out.println("\tURL safe without padding: " + written + " bytes");
+			passed &= input.equals(sem.decryptFromBase64((ByteBuffer)buffer.flip(), Base64Codec.URL_SAFE_NO_PADDING));
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			sem.encryptToBase64Stream(new EncryptableString(new String(new char[100000]).replace('\0', 'x')), out, Base64Codec.URL_SAFE);
+			System.out.println("\tStreamed: " + out.size() + " characters");
+			Encryptable streamed = sem.decryptFromBase64Stream(new ByteArrayInputStream(out.toByteArray()), Base64Codec.URL_SAFE);
+			passed &= ((EncryptableString)streamed).getString().length() == 100000;
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new Base64CodecTest()).run();
+	}
+}
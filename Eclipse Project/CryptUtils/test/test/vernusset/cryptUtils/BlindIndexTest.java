@@ -0,0 +1,130 @@
+package test.vernusset.cryptUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import vernusset.cryptUtils.BlindIndex;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+import vernusset.cryptUtils.encryptableObjects.*;
+import vernusset.cryptUtils.serialization.CompactSerializer;
+
+
+/**
+ *
+ * Blind index tests: equality lookups over encrypted strings through a hash table of blind indexes,
+ * compared to decrypting every stored value, and effect of truncation on the number of candidates.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class BlindIndexTest {
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_128;
+
+	/**
+	 * Number of stored values.
+	 */
+	private final int VALUES = 10000;
+
+
+	/**
+	 * Indexes encrypted values.
+	 * @param blindIndex blind index
+	 * @param values plain values
+	 * @param encrypted encrypted values, in the same order
+	 * @return encrypted values per index
+	 */
+	private Map<ByteBuffer, List<byte[]>> index(BlindIndex blindIndex, List<Encryptable> values, List<byte[]> encrypted) throws Exception {
+		Map<ByteBuffer, List<byte[]>> table = new HashMap<>();
+		for(int i = 0; i < values.size(); i++) {
+			table.computeIfAbsent(blindIndex.computeKey(values.get(i)), k -> new ArrayList<>()).add(encrypted.get(i));
+		}
+		return table;
+	}
+
+	/**
+	 * Function to launch the blind index test.
+	 * @return true if test passed, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+
+		try {
+			System.out.println("Blind index over " + this.VALUES + " values encrypted with " + this.SYMETRIC_ENCRYPTION_ALGO.toString());
+			SymmetricEncryptionMethod sem = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO));
+			List<Encryptable> values = new ArrayList<>();
+			List<byte[]> encrypted = new ArrayList<>();
+			for(int i = 0; i < this.VALUES; i++) {
+				values.add(new EncryptableString("customer-" + i + "@example.com"));
+				encrypted.add(sem.encryptToBytesArray(values.get(i)));
+			}
+			Encryptable searched = new EncryptableString("customer-" + (this.VALUES - 1) + "@example.com");
+
+			//Linear scan, as reference
+			long start = System.nanoTime();
+			int found = 0;
+			for(byte[] e : encrypted) {
+				if(searched.equals(sem.decryptFromBytesArray(e))) found++;
+			}
+			long scanNanos = System.nanoTime() - start;
+			passed &= found == 1;
+
+			//Hash table probe, candidates only being decrypted
+			BlindIndex blindIndex = new BlindIndex(BlindIndex.buildIndexKey());
+			Map<ByteBuffer, List<byte[]>> table = this.index(blindIndex, values, encrypted);
+			start = System.nanoTime();
+			found = 0;
+			for(byte[] e : table.getOrDefault(blindIndex.computeKey(searched), new ArrayList<>())) {
+				if(searched.equals(sem.decryptFromBytesArray(e))) found++;
+			}
+			long probeNanos = System.nanoTime() - start;
+			passed &= found == 1;
+			System.out.println(String.format("\tLinear scan: %8d µs, blind index probe: %6d µs", scanNanos / 1000, probeNanos / 1000));
+			passed &= probeNanos < scanNanos;
+
+			//Same value, same index; other key, other index
+			passed &= Arrays.equals(blindIndex.compute(searched), blindIndex.compute(new EncryptableString(((EncryptableString)searched).string)));
+			passed &= !Arrays.equals(blindIndex.compute(searched), new BlindIndex(BlindIndex.buildIndexKey()).compute(searched));
+			passed &= blindIndex.compute(searched).length == BlindIndex.DEFAULT_INDEX_SIZE;
+
+			//Truncation: 1 byte indexes share buckets
+			BlindIndex truncated = new BlindIndex(BlindIndex.buildIndexKey(), 1, new CompactSerializer());
+			Map<ByteBuffer, List<byte[]>> truncatedTable = this.index(truncated, values, encrypted);
+			int candidates = truncatedTable.get(truncated.computeKey(searched)).size();
+			System.out.println("\t1 byte index: " + truncatedTable.size() + " buckets, " + candidates + " candidates per lookup; " + BlindIndex.DEFAULT_INDEX_SIZE + " bytes index: " + table.size() + " buckets");
+			passed &= truncatedTable.size() <= 256 && candidates > 1 && table.size() == this.VALUES;
+
+			passed &= BlindIndex.suggestIndexSize(1000000, 0.01) == 4 && BlindIndex.suggestIndexSize(1, 1) == 1;
+			try {
+				new BlindIndex(BlindIndex.buildIndexKey(), BlindIndex.MAX_INDEX_SIZE + 1, new CompactSerializer());
+				passed = false;
+			} catch (IllegalArgumentException e) {
+				//Expected
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new BlindIndexTest()).run();
+	}
+}
@@ -0,0 +1,99 @@
+package test.vernusset.cryptUtils;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+
+import vernusset.cryptUtils.CipherFactory;
+import vernusset.cryptUtils.EncryptionAlgorithm;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+import vernusset.cryptUtils.encryptableObjects.*;
+
+
+/**
+ *
+ * Cipher factory tests: cost of uncached and cached provider lookup, encryption method construction,
+ * and selection of the fastest installed provider.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class CipherFactoryTest {
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_128;
+
+	/**
+	 * Number of lookups timed.
+	 */
+	private final int LOOKUPS = 20000;
+
+
+	/**
+	 * Times an operation.
+	 * @param operation operation
+	 * @return mean operation time, in nanoseconds
+	 */
+	private long time(Timing.Operation operation) throws Exception {
+		return (long)Timing.meanNanos(operation, this.LOOKUPS, this.LOOKUPS);
+	}
+
+	/**
+	 * Function to launch the cipher factory test.
+	 * @return true if test passed, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+
+		try {
+			System.out.println("Cipher factory using " + this.SYMETRIC_ENCRYPTION_ALGO.toString());
+			byte[] key = SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO).getEncoded();
+			System.out.println(String.format("\tUncached lookup:    %6d ns", this.time(() -> Cipher.getInstance(this.SYMETRIC_ENCRYPTION_ALGO.getName()))));
+			System.out.println(String.format("\tCached lookup:      %6d ns", this.time(() -> CipherFactory.newCipher(this.SYMETRIC_ENCRYPTION_ALGO))));
+			System.out.println(String.format("\tMethod constructor: %6d ns", this.time(() -> new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, key))));
+			passed &= this.SYMETRIC_ENCRYPTION_ALGO.getAlgo() == this.SYMETRIC_ENCRYPTION_ALGO.getAlgo(); //Not split again
+
+			Provider provider = CipherFactory.getProvider(this.SYMETRIC_ENCRYPTION_ALGO);
+			passed &= provider == CipherFactory.newCipher(this.SYMETRIC_ENCRYPTION_ALGO).getProvider();
+
+			try {
+				CipherFactory.setProvider(this.SYMETRIC_ENCRYPTION_ALGO, Security.getProvider("SUN")); //No ciphers
+				passed = false;
+			} catch (IllegalArgumentException e) {
+				//Expected
+			}
+
+			Map<EncryptionAlgorithm, Provider> selected = CipherFactory.selectFastestProviders(this.SYMETRIC_ENCRYPTION_ALGO);
+			System.out.println("\tFastest provider: " + selected);
+			passed &= selected.get(this.SYMETRIC_ENCRYPTION_ALGO) == CipherFactory.getProvider(this.SYMETRIC_ENCRYPTION_ALGO);
+
+			SymmetricEncryptionMethod sem = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, key);
+			Encryptable input = new EncryptableString("String to encrypt");
+			passed &= input.equals(sem.decryptFromBase64String(sem.encryptToBase64String(input)));
+
+			CipherFactory.setProvider(this.SYMETRIC_ENCRYPTION_ALGO, null);
+			passed &= provider == CipherFactory.getProvider(this.SYMETRIC_ENCRYPTION_ALGO); //Looked up again
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new CipherFactoryTest()).run();
+	}
+}
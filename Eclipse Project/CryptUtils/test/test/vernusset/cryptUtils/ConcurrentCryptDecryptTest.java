@@ -0,0 +1,190 @@
+package test.vernusset.cryptUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import test.vernusset.cryptUtils.sampleEncryptableObjects.*;
+import vernusset.cryptUtils.EncryptionMethod;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+import vernusset.cryptUtils.encryptableObjects.*;
+
+
+/**
+ *
+ * Multi-threaded test of a single thread safe encryption method instance: round trips from many threads giving the same bytes
+ * as from a single one, and throughput scaling with threads (checked up to half the available processors).
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class ConcurrentCryptDecryptTest {
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_ECB_PKCS5PADDING_256;
+
+	/**
+	 * Number of encrypt/decrypt round trips done by each thread.
+	 */
+	private final int ROUND_TRIPS_PER_THREAD = 20000;
+
+	/**
+	 * Number of objects encrypted by all threads, compared to single-threaded encryption.
+	 */
+	private final int SHARED_OBJECTS = 1000;
+
+	/**
+	 * Minimum throughput ratio to linear scaling, for thread counts up to half the available processors.
+	 */
+	private final double MIN_SCALING = 0.6;
+
+
+	/**
+	 * Shared encryption method, used by all threads.
+	 */
+	private EncryptionMethod sharedMethod;
+
+
+	/**
+	 * Constructor.
+	 * Builds the shared thread safe encryption method.
+	 */
+	public ConcurrentCryptDecryptTest() {
+		try {
+			this.sharedMethod = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO));
+			this.sharedMethod.setThreadSafe(true);
+		} catch (Exception e) {
+			System.out.println("[failed] Shared encryption method");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
+
+	/**
+	 * Runs encrypt/decrypt round trips from the given number of threads on the shared method.
+	 * @param threads number of concurrent threads
+	 * @return throughput in round trips per second, or -1 if any round trip failed
+	 */
+	private double measure(int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<>();
+			for(int t = 0; t < threads; t++) {
+				final int threadNumber = t;
+				tasks.add(() -> {
+					for(int i = 0; i < this.ROUND_TRIPS_PER_THREAD; i++) {
+						Encryptable input = new SampleEncryptableObject(i, "Object n°" + i + " of thread n°" + threadNumber);
+						if(!input.equals(this.sharedMethod.decryptFromBytesArray(this.sharedMethod.encryptToBytesArray(input)))) return false;
+					}
+					return true;
+				});
+			}
+
+			long start = System.nanoTime();
+			boolean ok = true;
+			for(Future<Boolean> result : executor.invokeAll(tasks)) {
+				ok &= result.get();
+			}
+			long elapsed = System.nanoTime() - start;
+
+			return ok ? (threads * (double)this.ROUND_TRIPS_PER_THREAD) / (elapsed / 1e9) : -1;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+	/**
+	 * Encrypts the same objects from the given number of threads, comparing encrypted bytes to single-threaded encryption
+	 * (deterministic with ECB mode), and decrypting them back.
+	 * @param threads number of concurrent threads
+	 * @return true if every thread got the same encrypted bytes and decrypted objects
+	 */
+	private boolean sameBytes(int threads) throws Exception {
+		List<Encryptable> inputs = new ArrayList<>();
+		List<byte[]> expected = new ArrayList<>();
+		for(int i = 0; i < this.SHARED_OBJECTS; i++) {
+			inputs.add(new SampleEncryptableObject(i, "Shared object n°" + i));
+			expected.add(this.sharedMethod.encryptToBytesArray(inputs.get(i)));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<>();
+			for(int t = 0; t < threads; t++) {
+				final int offset = t;
+				tasks.add(() -> {
+					for(int j = 0; j < this.SHARED_OBJECTS; j++) {
+						int i = (j + offset * 31) % this.SHARED_OBJECTS; //Threads starting at different objects
+						byte[] encrypted = this.sharedMethod.encryptToBytesArray(inputs.get(i));
+						if(!Arrays.equals(expected.get(i), encrypted) || !inputs.get(i).equals(this.sharedMethod.decryptFromBytesArray(encrypted))) return false;
+					}
+					return true;
+				});
+			}
+			boolean same = true;
+			for(Future<Boolean> result : executor.invokeAll(tasks)) {
+				same &= result.get();
+			}
+			return same;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Function to launch the test: same bytes from many threads, then throughput with 1 thread up to twice the available processors.
+	 * @return true if all round trips succeeded with the same bytes, and throughput scaled, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+		int processors = Runtime.getRuntime().availableProcessors();
+
+		try {
+			int sameBytesThreads = Math.max(4, processors * 2);
+			boolean same = this.sameBytes(sameBytesThreads);
+			System.out.println("Same encrypted bytes from " + sameBytesThreads + " threads: " + same);
+			passed &= same;
+
+			this.measure(1); //Warm up
+
+			double singleThreaded = this.measure(1);
+			System.out.println("Throughput using " + this.SYMETRIC_ENCRYPTION_ALGO.toString() + " - thread safe mode");
+			System.out.println(String.format("\t%3d thread(s): %10.0f round trips/s", 1, singleThreaded));
+			passed &= singleThreaded > 0;
+
+			for(int threads = 2; threads <= processors * 2; threads *= 2) {
+				double multiThreaded = this.measure(threads);
+				System.out.println(String.format("\t%3d thread(s): %10.0f round trips/s (x%.2f)", threads, multiThreaded, multiThreaded / singleThreaded));
+				passed &= multiThreaded > 0;
+				if(threads <= processors / 2) {
+					passed &= multiThreaded >= this.MIN_SCALING * threads * singleThreaded;
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new ConcurrentCryptDecryptTest()).run();
+	}
+}
@@ -0,0 +1,243 @@
+package test.vernusset.cryptUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+
+import vernusset.cryptUtils.AsymmetricEncryptionMethod;
+import vernusset.cryptUtils.EncryptionMethod;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+import vernusset.cryptUtils.encryptableObjects.*;
+
+
+/**
+ *
+ * Throughput and allocation benchmark of every symmetric and asymmetric algorithm,
+ * for several payload sizes, output formats and thread counts, and of key generation.
+ * Symmetric algorithms raw throughputs are also compared side by side (AES against ChaCha20).
+ * Asymmetric payloads too large for the key size are run in hybrid mode.
+ * Durations can be set with -Dbenchmark.warmupMillis and -Dbenchmark.measureMillis system properties.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class CryptDecryptBenchmark {
+
+	private enum EncryptionOutputFormat {
+		BASE64, BYTES_ARRAY;
+	}
+
+
+	/**
+	 * Payload sizes (number of characters of encrypted strings).
+	 */
+	private final int[] PAYLOAD_SIZES = {16, 1024, 65536};
+
+	/**
+	 * Numbers of concurrent threads.
+	 */
+	private final int[] THREAD_COUNTS = {1, 2, 4};
+
+	/**
+	 * Warm up duration of each benchmark, in milliseconds.
+	 */
+	private final long WARMUP_MILLIS = Long.getLong("benchmark.warmupMillis", 200);
+
+	/**
+	 * Measure duration of each benchmark, in milliseconds.
+	 */
+	private final long MEASURE_MILLIS = Long.getLong("benchmark.measureMillis", 500);
+
+
+	/**
+	 * Benchmark result.
+	 */
+	private static class Measure {
+		private final double opsPerSecond;
+		private final double bytesAllocatedPerOp;
+
+		private Measure(double opsPerSecond, double bytesAllocatedPerOp) {
+			this.opsPerSecond = opsPerSecond;
+			this.bytesAllocatedPerOp = bytesAllocatedPerOp;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%12.1f ops/s %12s B/op", this.opsPerSecond, this.bytesAllocatedPerOp >= 0 ? String.format("%.0f", this.bytesAllocatedPerOp) : "n/a");
+		}
+	}
+
+
+	/**
+	 * Runs an operation in a loop from the given number of threads, during warm up then measure durations.
+	 * @param threads number of concurrent threads
+	 * @param operation operation to measure
+	 * @return throughput (all threads) and allocated bytes per operation (-1 if not supported by JVM)
+	 */
+	private Measure measure(int threads, Timing.Operation operation) throws Exception {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		final com.sun.management.ThreadMXBean allocationBean = threadBean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean)threadBean : null;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<long[]>> tasks = new ArrayList<>();
+			for(int t = 0; t < threads; t++) {
+				tasks.add(() -> {
+					long warmupEnd = System.nanoTime() + this.WARMUP_MILLIS * 1000000;
+					while(System.nanoTime() < warmupEnd) {
+						operation.run();
+					}
+
+					long threadId = Thread.currentThread().getId();
+					long allocatedBefore = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : 0;
+					long ops = 0;
+					long start = System.nanoTime(), end = start + this.MEASURE_MILLIS * 1000000, now;
+					do {
+						operation.run();
+						ops++;
+					} while((now = System.nanoTime()) < end);
+					long allocated = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore : -1;
+
+					return new long[] {ops, now - start, allocated};
+				});
+			}
+
+			double opsPerSecond = 0, ops = 0, allocated = 0;
+			for(Future<long[]> result : executor.invokeAll(tasks)) {
+				long[] threadMeasure = result.get();
+				opsPerSecond += threadMeasure[0] / (threadMeasure[1] / 1e9);
+				ops += threadMeasure[0];
+				allocated = threadMeasure[2] < 0 || allocated < 0 ? -1 : allocated + threadMeasure[2];
+			}
+			return new Measure(opsPerSecond, allocated < 0 ? -1 : allocated / ops);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Benchmarks encrypt/decrypt round trips of a given method, for all payload sizes, output formats and thread counts.
+	 * @param em encryption method, in thread safe mode
+	 * @param label algorithm description
+	 * @param fallback encryption method to use for payloads too large for the first one (null to skip them)
+	 * @param fallbackLabel fallback algorithm description
+	 */
+	private void benchmarkRoundTrips(EncryptionMethod em, String label, EncryptionMethod fallback, String fallbackLabel) throws Exception {
+		for(int size : this.PAYLOAD_SIZES) {
+			EncryptableString payload = new EncryptableString(new String(new char[size]).replace('\0', 'x'));
+			EncryptionMethod method = em;
+			try {
+				em.encryptToBytesArray(payload);
+			} catch (IllegalBlockSizeException e) { //Too large for a single asymmetric block
+				method = fallback;
+			}
+			if(method == null) continue;
+			final EncryptionMethod benchmarked = method;
+
+			for(EncryptionOutputFormat format : EncryptionOutputFormat.values()) {
+				Timing.Operation roundTrip = format == EncryptionOutputFormat.BASE64
+					? () -> benchmarked.decryptFromBase64String(benchmarked.encryptToBase64String(payload))
+					: () -> benchmarked.decryptFromBytesArray(benchmarked.encryptToBytesArray(payload));
+
+				for(int threads : this.THREAD_COUNTS) {
+					System.out.println(String.format("%-70s %6d chars %-12s %2d thread(s) %s", method == em ? label : fallbackLabel, size, format, threads, this.measure(threads, roundTrip)));
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Compares raw encryption throughput of every available symmetric algorithm (single thread, direct buffers, largest payload size), 
+	 * relative to the fastest one, to choose an algorithm per host: ChaCha20 is expected to win on processors without AES instructions.
+	 */
+	private void compareSymmetricAlgorithms() throws Exception {
+		String aesInstructions = "unknown";
+		try {
+			aesInstructions = ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class).getVMOption("UseAES").getValue();
+		} catch (RuntimeException e) {
+			//Not a HotSpot JVM
+		}
+		System.out.println("AES instructions (UseAES): " + aesInstructions);
+
+		int size = this.PAYLOAD_SIZES[this.PAYLOAD_SIZES.length - 1];
+		Map<SymmetricEncryptionMethod.SymmetricAlgorithm, Double> throughputs = new LinkedHashMap<>();
+		for(int pass = 0; pass < 2; pass++) { //First pass warms every algorithm up, so that JIT compilation does not penalize the first one of each family
+			for(SymmetricEncryptionMethod.SymmetricAlgorithm algo : SymmetricEncryptionMethod.SymmetricAlgorithm.values()) {
+				SecretKey key = SymmetricEncryptionMethod.buildSecretKey(algo);
+				if(key == null) continue; //Algo not available on this JVM
+				SymmetricEncryptionMethod em = new SymmetricEncryptionMethod(algo, key);
+				ByteBuffer src = ByteBuffer.allocateDirect(size), dst = ByteBuffer.allocateDirect(em.getEncryptedSize(size));
+				Measure measure = this.measure(1, () -> {
+					src.clear();
+					dst.clear();
+					em.encrypt(src, dst);
+				});
+				throughputs.put(algo, measure.opsPerSecond * size / (1024 * 1024));
+			}
+		}
+
+		double fastest = Collections.max(throughputs.values());
+		for(Map.Entry<SymmetricEncryptionMethod.SymmetricAlgorithm, Double> throughput : throughputs.entrySet()) {
+			System.out.println(String.format("%-70s %6d bytes %10.1f MiB/s %6.2fx", throughput.getKey(), size, throughput.getValue(), throughput.getValue() / fastest));
+		}
+	}
+
+
+	/**
+	 * Runs every benchmark, printing one line per benchmark.
+	 */
+	public void run() throws Exception {
+		System.out.println("--- Key generation ---");
+		for(SymmetricEncryptionMethod.SymmetricAlgorithm algo : SymmetricEncryptionMethod.SymmetricAlgorithm.values()) {
+			System.out.println(String.format("%-70s %s", algo, this.measure(1, () -> SymmetricEncryptionMethod.buildSecretKey(algo))));
+		}
+		for(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo : AsymmetricEncryptionMethod.AsymmetricAlgorithm.values()) {
+			System.out.println(String.format("%-70s %s", algo, this.measure(1, () -> AsymmetricEncryptionMethod.buildKeyPair(algo))));
+		}
+
+		System.out.println("\n--- Symmetric algorithms comparison ---");
+		this.compareSymmetricAlgorithms();
+
+		System.out.println("\n--- Symmetric encrypt/decrypt round trips ---");
+		for(SymmetricEncryptionMethod.SymmetricAlgorithm algo : SymmetricEncryptionMethod.SymmetricAlgorithm.values()) {
+			SecretKey key = SymmetricEncryptionMethod.buildSecretKey(algo);
+			if(key == null) continue; //Algo not available on this JVM
+			EncryptionMethod em = new SymmetricEncryptionMethod(algo, key);
+			em.setThreadSafe(true);
+			this.benchmarkRoundTrips(em, algo.toString(), null, null);
+		}
+
+		System.out.println("\n--- Asymmetric encrypt/decrypt round trips ---");
+		for(AsymmetricEncryptionMethod.AsymmetricAlgorithm algo : AsymmetricEncryptionMethod.AsymmetricAlgorithm.values()) {
+			KeyPair keyPair = AsymmetricEncryptionMethod.buildKeyPair(algo);
+			AsymmetricEncryptionMethod em = new AsymmetricEncryptionMethod(algo, keyPair, keyPair.getPublic());
+			em.setThreadSafe(true);
+			AsymmetricEncryptionMethod hybrid = new AsymmetricEncryptionMethod(algo, keyPair, keyPair.getPublic());
+			hybrid.setThreadSafe(true);
+			hybrid.setHybrid(true);
+			this.benchmarkRoundTrips(em, algo.toString(), hybrid, algo.toString() + " (hybrid)");
+		}
+	}
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) throws Exception {
+		(new CryptDecryptBenchmark()).run();
+	}
+}
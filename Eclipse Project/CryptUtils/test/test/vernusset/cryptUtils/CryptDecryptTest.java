@@ -1,16 +1,39 @@
 package test.vernusset.cryptUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
 import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
 
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.SecretKey;
 
 import test.vernusset.cryptUtils.sampleEncryptableObjects.*;
 import vernusset.cryptUtils.AsymmetricEncryptionMethod;
+import vernusset.cryptUtils.AsyncEncryptionMethod;
+import vernusset.cryptUtils.BatchResult;
+import vernusset.cryptUtils.CorrespondentRegistry;
 import vernusset.cryptUtils.EncryptionAlgorithm;
 import vernusset.cryptUtils.EncryptionMethod;
 import vernusset.cryptUtils.SymmetricEncryptionMethod;
 import vernusset.cryptUtils.encryptableObjects.*;
+import vernusset.cryptUtils.serialization.*;
 
 
 /**
@@ -21,11 +44,11 @@ import vernusset.cryptUtils.encryptableObjects.*;
 public class CryptDecryptTest {
 	
 	private enum EncryptionMode {
-		SYMETRIC, ASYMETRIC;
+		SYMETRIC, SYMETRIC_AUTHENTICATED, SYMETRIC_CHACHA20, ASYMETRIC, HYBRID, ELLIPTIC_CURVE, ELLIPTIC_CURVE_NIST, ELLIPTIC_CURVE_SESSION;
 	}
 	
 	private enum EncryptionOutputFormat {
-		BASE64, BYTES_ARRAY;
+		BASE64, BYTES_ARRAY, STREAM, DIRECT_BYTE_BUFFER, PARALLEL_BATCH, ASYNC, CORRESPONDENT_REGISTRY, MULTI_RECIPIENT;
 	}
 	
 
@@ -33,12 +56,28 @@ public class CryptDecryptTest {
 	 * Symmetric algorithm to use.
 	 */
 	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_ECB_PKCS5PADDING_256;
+	
+	/**
+	 * Authenticated symmetric algorithm to use (same key size than symmetric algorithm, so that the same key is used).
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_AUTHENTICATED_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_256;
+	
+	/**
+	 * ChaCha20 symmetric algorithm to use (same key size than symmetric algorithm, so that the same key bytes are used).
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_CHACHA20_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.CHACHA20_POLY1305_256;
 
 	/**
 	 * Asymmetric algorithm to use.
 	 */
 	private final AsymmetricEncryptionMethod.AsymmetricAlgorithm ASYMETRIC_ENCRYPTION_ALGO = AsymmetricEncryptionMethod.AsymmetricAlgorithm.RSA_ECB_PKCS1Padding_3072;
 	
+	/**
+	 * Elliptic curve algorithms to use.
+	 */
+	private final AsymmetricEncryptionMethod.AsymmetricAlgorithm ELLIPTIC_CURVE_ENCRYPTION_ALGO = AsymmetricEncryptionMethod.AsymmetricAlgorithm.ECIES_X25519_HKDF_SHA256_AES_GCM, 
+			ELLIPTIC_CURVE_NIST_ENCRYPTION_ALGO = AsymmetricEncryptionMethod.AsymmetricAlgorithm.ECIES_SECP256R1_HKDF_SHA256_AES_GCM;
+	
 	
 	/**
 	 * Symmetric encryption key used for testing.
@@ -50,6 +89,11 @@ public class CryptDecryptTest {
 	 */
 	private KeyPair asymmetricKeyPair;
 	
+	/**
+	 * Elliptic curve keypairs used for testing.
+	 */
+	private KeyPair ellipticCurveKeyPair, ellipticCurveNistKeyPair;
+	
 	
 	/**
 	 * Constructor. 
@@ -80,13 +124,26 @@ public class CryptDecryptTest {
 			e.printStackTrace();
 			System.exit(-1);
 		}
+		
+		//Elliptic curve keys
+		try {
+			this.ellipticCurveKeyPair = AsymmetricEncryptionMethod.buildKeyPair(this.ELLIPTIC_CURVE_ENCRYPTION_ALGO);
+			this.ellipticCurveNistKeyPair = AsymmetricEncryptionMethod.buildKeyPair(this.ELLIPTIC_CURVE_NIST_ENCRYPTION_ALGO);
+			System.out.println("[ok] Elliptic curve key pairs (" + this.ELLIPTIC_CURVE_ENCRYPTION_ALGO.getKeySize() + " and " + this.ELLIPTIC_CURVE_NIST_ENCRYPTION_ALGO.getKeySize() + " bits):");
+			System.out.println("\tpublic: " + Base64.getEncoder().encodeToString(this.ellipticCurveKeyPair.getPublic().getEncoded()));
+			System.out.println("\tpublic: " + Base64.getEncoder().encodeToString(this.ellipticCurveNistKeyPair.getPublic().getEncoded()));
+		} catch (Exception e) {
+			System.out.println("[failed] Elliptic curve key pairs");
+			e.printStackTrace();
+			System.exit(-1);
+		}
 
 		System.out.println("\n");
 	}
 	
 	
 	/**
-	 * Unit test function.
+	 * Unit test function, using default serializer.
 	 * @param testNumber
 	 * @param mode symmetric or asymmetric
 	 * @param input test data (can be any string or object that implements the Encryptable interface)
@@ -94,6 +151,19 @@ public class CryptDecryptTest {
 	 * @return true if test passed, false otherwise
 	 */
 	private boolean test(int testNumber, EncryptionMode mode, Encryptable input, EncryptionOutputFormat format) {
+		return this.test(testNumber, mode, input, format, null);
+	}
+	
+	/**
+	 * Unit test function.
+	 * @param testNumber
+	 * @param mode symmetric or asymmetric
+	 * @param input test data (can be any string or object that implements the Encryptable interface)
+	 * @param format base64 or bytes array output format
+	 * @param serializer serializer to use, or null for default one
+	 * @return true if test passed, false otherwise
+	 */
+	private boolean test(int testNumber, EncryptionMode mode, Encryptable input, EncryptionOutputFormat format, EncryptableSerializer serializer) {
 		EncryptionMethod em = null;
 		EncryptionAlgorithm algoUsed = null;
 		Object output = null;
@@ -106,13 +176,51 @@ public class CryptDecryptTest {
 					em = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, this.symmetricKey);
 					break;
 				
+				case SYMETRIC_AUTHENTICATED: 
+					algoUsed = this.SYMETRIC_AUTHENTICATED_ENCRYPTION_ALGO;
+					em = new SymmetricEncryptionMethod(this.SYMETRIC_AUTHENTICATED_ENCRYPTION_ALGO, this.symmetricKey);
+					break;
+				
+				case SYMETRIC_CHACHA20: 
+					algoUsed = this.SYMETRIC_CHACHA20_ENCRYPTION_ALGO;
+					em = new SymmetricEncryptionMethod(this.SYMETRIC_CHACHA20_ENCRYPTION_ALGO, this.symmetricKey.getEncoded());
+					break;
+				
 				case ASYMETRIC:
 					algoUsed = this.ASYMETRIC_ENCRYPTION_ALGO; 
 					em = new AsymmetricEncryptionMethod(this.ASYMETRIC_ENCRYPTION_ALGO, this.asymmetricKeyPair, this.asymmetricKeyPair.getPublic());
 					break;
+				
+				case HYBRID:
+					algoUsed = this.ASYMETRIC_ENCRYPTION_ALGO;
+					em = new AsymmetricEncryptionMethod(this.ASYMETRIC_ENCRYPTION_ALGO, this.asymmetricKeyPair, this.asymmetricKeyPair.getPublic());
+					((AsymmetricEncryptionMethod)em).setHybrid(true);
+					((AsymmetricEncryptionMethod)em).setSessionKeyReuse(100, 60000);
+					break;
+				
+				case ELLIPTIC_CURVE:
+					algoUsed = this.ELLIPTIC_CURVE_ENCRYPTION_ALGO;
+					em = new AsymmetricEncryptionMethod(this.ELLIPTIC_CURVE_ENCRYPTION_ALGO, this.ellipticCurveKeyPair, this.ellipticCurveKeyPair.getPublic());
+					break;
+				
+				case ELLIPTIC_CURVE_NIST:
+					algoUsed = this.ELLIPTIC_CURVE_NIST_ENCRYPTION_ALGO;
+					em = new AsymmetricEncryptionMethod(this.ELLIPTIC_CURVE_NIST_ENCRYPTION_ALGO, this.ellipticCurveNistKeyPair, this.ellipticCurveNistKeyPair.getPublic());
+					break;
+				
+				case ELLIPTIC_CURVE_SESSION:
+					algoUsed = this.ELLIPTIC_CURVE_ENCRYPTION_ALGO;
+					em = new AsymmetricEncryptionMethod(this.ELLIPTIC_CURVE_ENCRYPTION_ALGO, this.ellipticCurveKeyPair, this.ellipticCurveKeyPair.getPublic());
+					((AsymmetricEncryptionMethod)em).setSessionMode(true);
+					((AsymmetricEncryptionMethod)em).setSessionLimits(2, 1 << 20, 60000);
+					break;
 			}
 			
-			System.out.println("Test n°" + testNumber + " - " + mode.toString() + " encryption using " + algoUsed.toString() + " - " + format.toString() + " output");
+			if(serializer != null) {
+				em.setSerializer(serializer);
+			}
+			
+			System.out.println("Test n°" + testNumber + " - " + mode.toString() + " encryption using " + algoUsed.toString() + " - " + format.toString() + " output - " + em.getSerializer().getClass().getSimpleName());
 			System.out.println("\tInput: " + input.toString());
 			System.out.print("\tEncrypted: ");
 
@@ -128,6 +236,141 @@ public class CryptDecryptTest {
 					System.out.println(bytesArrayEncrypted.toString());
 					output = em.decryptFromBytesArray(bytesArrayEncrypted);
 					break;
+				
+				case STREAM:
+					ByteArrayOutputStream streamEncrypted = new ByteArrayOutputStream();
+					em.encryptTo(input, streamEncrypted);
+					System.out.println(streamEncrypted.size() + " bytes");
+					output = em.decryptFrom(new ByteArrayInputStream(streamEncrypted.toByteArray()));
+					break;
+				
+				case DIRECT_BYTE_BUFFER: //Raw bytes of an EncryptableString, symmetric only
+					SymmetricEncryptionMethod sem = (SymmetricEncryptionMethod)em;
+					byte[] raw = ((EncryptableString)input).getString().getBytes(StandardCharsets.UTF_8);
+					ByteBuffer plain = ByteBuffer.allocateDirect(raw.length);
+					plain.put(raw).flip();
+					ByteBuffer bufferEncrypted = ByteBuffer.allocateDirect(sem.getEncryptedSize(raw.length));
+					sem.encrypt(plain, bufferEncrypted);
+					bufferEncrypted.flip();
+					System.out.println(bufferEncrypted.remaining() + " bytes");
+					ByteBuffer decrypted = ByteBuffer.allocateDirect(bufferEncrypted.remaining());
+					sem.decrypt(bufferEncrypted, decrypted);
+					decrypted.flip();
+					byte[] decryptedRaw = new byte[decrypted.remaining()];
+					decrypted.get(decryptedRaw);
+					//In place: encrypted data starting nonce size bytes before plain data, with it, or nonce size bytes after it
+					int ivSize = sem.getAlgorithm().getIvSize();
+					for(int dstOffset = 0; dstOffset <= 2 * ivSize; dstOffset += Math.max(ivSize, 1)) {
+						ByteBuffer shared = ByteBuffer.allocateDirect(2 * ivSize + sem.getEncryptedSize(raw.length));
+						((ByteBuffer)shared.position(ivSize)).put(raw);
+						int encryptedLength = sem.encrypt((ByteBuffer)shared.duplicate().limit(ivSize + raw.length).position(ivSize), (ByteBuffer)shared.duplicate().position(dstOffset));
+						ByteBuffer sharedDecrypted = (ByteBuffer)shared.duplicate().position(dstOffset);
+						sem.decrypt((ByteBuffer)shared.duplicate().limit(dstOffset + encryptedLength).position(dstOffset), sharedDecrypted);
+						byte[] inPlaceRaw = new byte[sharedDecrypted.position() - dstOffset];
+						((ByteBuffer)shared.duplicate().position(dstOffset)).get(inPlaceRaw);
+						if(!Arrays.equals(raw, inPlaceRaw)) throw new Exception("In place round trip mismatch, encrypted data at offset " + dstOffset);
+					}
+					output = new EncryptableString(new String(decryptedRaw, StandardCharsets.UTF_8));
+					break;
+				
+				case PARALLEL_BATCH: //Input among other items, plus an undecryptable item
+					List<Encryptable> batch = new ArrayList<>();
+					for(int i = 0; i < 1000; i++) {
+						batch.add(i == 500 ? input : new EncryptableString("Batch item n°" + i));
+					}
+					List<BatchResult<byte[]>> batchEncrypted = em.encryptAll(batch, ForkJoinPool.commonPool());
+					List<byte[]> toDecrypt = new ArrayList<>();
+					for(BatchResult<byte[]> result : batchEncrypted) {
+						toDecrypt.add(result.getValue());
+					}
+					toDecrypt.add(new byte[] {1, 2, 3});
+					System.out.println(batchEncrypted.size() + " items");
+					List<BatchResult<Encryptable>> batchDecrypted = em.decryptAll(toDecrypt, ForkJoinPool.commonPool());
+					for(int i = 0; i < batch.size(); i++) {
+						if(!batch.get(i).equals(batchDecrypted.get(i).getValue())) throw new Exception("Batch item n°" + i + " mismatch: " + batchDecrypted.get(i));
+					}
+					if(batchDecrypted.get(batch.size()).isSuccess()) throw new Exception("Undecryptable batch item decrypted");
+					output = batchDecrypted.get(500).getValue();
+					break;
+				
+				case ASYNC: //Input among other round trips, at most 2 running at the same time
+					ExecutorService executor = Executors.newCachedThreadPool();
+					AsyncEncryptionMethod async = new AsyncEncryptionMethod(em, executor, 2);
+					List<CompletableFuture<Encryptable>> roundTrips = new ArrayList<>();
+					for(int i = 0; i < 50; i++) {
+						Encryptable item = i == 25 ? input : new EncryptableString("Async item n°" + i);
+						roundTrips.add(async.encryptToBytesArray(item).thenCompose(async::decryptFromBytesArray));
+						if(async.getInFlightCount() > async.getMaxInFlight()) throw new Exception("Too many operations in flight: " + async.getInFlightCount());
+					}
+					System.out.println(async.getPendingCount() + " round trips pending");
+					for(int i = 0; i < roundTrips.size(); i++) {
+						Encryptable item = roundTrips.get(i).get();
+						if(i != 25 && !item.equals(new EncryptableString("Async item n°" + i))) throw new Exception("Async item n°" + i + " mismatch: " + item);
+					}
+					output = roundTrips.get(25).get();
+					executor.shutdown();
+					break;
+				
+				case CORRESPONDENT_REGISTRY: //Asymmetric only, to the attention of own public key registered among other key ids
+					CorrespondentRegistry registry = new CorrespondentRegistry((AsymmetricEncryptionMethod)em, 2);
+					PublicKey ownPublicKey = ((AsymmetricEncryptionMethod)em).getPublicKey();
+					String keyId = registry.register(ownPublicKey);
+					for(int i = 0; i < 3; i++) {
+						registry.register("Correspondent n°" + i, ownPublicKey);
+						registry.encryptFor("Correspondent n°" + i, new EncryptableString("Registry item n°" + i));
+					}
+					byte[] registryEncrypted = null;
+					for(int i = 0; i < 3; i++) { //Same correspondent, cipher reused
+						registryEncrypted = registry.encryptFor(keyId, input);
+					}
+					System.out.println(registryEncrypted.length + " bytes, " + registry.getCachedCipherCount() + " cached cipher(s)");
+					int expectedCiphers = ((AsymmetricEncryptionMethod)em).isSessionMode() ? 0 : 1; //Sessions are the cached state in session mode
+					if(registry.getCachedCipherCount() != expectedCiphers) throw new Exception("Unexpected number of cached ciphers: " + registry.getCachedCipherCount());
+					//Cached cipher used for an envelope, then again for a message (wrapping session keys in hybrid mode)
+					byte[] mixedEnvelope = registry.encryptForAll(Arrays.asList(keyId), input);
+					if(!input.equals(((AsymmetricEncryptionMethod)em).decryptFromEnvelope(mixedEnvelope, 0))) throw new Exception("Registry envelope not decrypted");
+					if(!input.equals(em.decryptFromBytesArray(registry.encryptFor(keyId, input)))) throw new Exception("Registry message after envelope not decrypted");
+					try {
+						registry.encryptFor("Unknown correspondent", input);
+						throw new Exception("Encrypted for unknown correspondent");
+					} catch (InvalidKeyException e) {
+						//Expected
+					}
+					output = em.decryptFromBytesArray(registryEncrypted);
+					break;
+				case MULTI_RECIPIENT: //Asymmetric only, own public key among other correspondents ones
+					AsymmetricEncryptionMethod.AsymmetricAlgorithm asymmetricAlgo = ((AsymmetricEncryptionMethod)em).getAlgorithm();
+					KeyPair otherKeyPair = AsymmetricEncryptionMethod.buildKeyPair(asymmetricAlgo.isKeyAgreement() ? asymmetricAlgo : AsymmetricEncryptionMethod.AsymmetricAlgorithm.RSA_ECB_PKCS1Padding_1024);
+					PublicKey ownKey = ((AsymmetricEncryptionMethod)em).getPublicKey();
+					List<PublicKey> recipients = Arrays.asList(otherKeyPair.getPublic(), ownKey, otherKeyPair.getPublic());
+					byte[] envelope = ((AsymmetricEncryptionMethod)em).encryptForAll(recipients, input);
+					System.out.println(envelope.length + " bytes for " + recipients.size() + " recipients");
+					try {
+						((AsymmetricEncryptionMethod)em).decryptFromEnvelope(envelope, 0); //Other correspondent key slot
+						throw new Exception("Decrypted other correspondent key slot");
+					} catch (BadPaddingException e) {
+						//Expected
+					}
+					try {
+						((AsymmetricEncryptionMethod)em).decryptFromEnvelope(envelope, recipients.size());
+						throw new Exception("Decrypted missing key slot");
+					} catch (IllegalBlockSizeException e) {
+						//Expected
+					}
+					CorrespondentRegistry envelopeRegistry = new CorrespondentRegistry((AsymmetricEncryptionMethod)em, 2);
+					List<String> keyIds = Arrays.asList(envelopeRegistry.register(otherKeyPair.getPublic()), envelopeRegistry.register(ownKey));
+					byte[] registryEnvelope = envelopeRegistry.encryptForAll(keyIds, input);
+					if(!input.equals(((AsymmetricEncryptionMethod)em).decryptFromEnvelope(registryEnvelope, 1))) throw new Exception("Registry envelope not decrypted");
+					envelope[envelope.length - 1] ^= 1;
+					try {
+						((AsymmetricEncryptionMethod)em).decryptFromEnvelope(envelope, 1);
+						throw new Exception("Decrypted altered envelope");
+					} catch (BadPaddingException e) {
+						//Expected
+					}
+					envelope[envelope.length - 1] ^= 1;
+					output = ((AsymmetricEncryptionMethod)em).decryptFromEnvelope(envelope, 1);
+					break;
 			}
 			
 			System.out.println("\tDecrypted: " + output.toString());
@@ -159,6 +402,23 @@ public class CryptDecryptTest {
 		passed += this.test(++ran, EncryptionMode.SYMETRIC, new SampleEncryptableObject(ran, "2nd object to encrypt"), EncryptionOutputFormat.BASE64) ? 1 : 0;
 		passed += this.test(++ran, EncryptionMode.SYMETRIC, new EncryptableString("2nd string to encrypt"), EncryptionOutputFormat.BYTES_ARRAY) ? 1 : 0;
 		passed += this.test(++ran, EncryptionMode.SYMETRIC, new SampleEncryptableObject(ran, "3rd object to encrypt"), EncryptionOutputFormat.BYTES_ARRAY) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC, new SampleEncryptableObject(ran, "4th object to encrypt"), EncryptionOutputFormat.STREAM) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC, new EncryptableString("3rd string to encrypt"), EncryptionOutputFormat.DIRECT_BYTE_BUFFER) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC, new SampleEncryptableObject(ran, "Batch object to encrypt"), EncryptionOutputFormat.PARALLEL_BATCH) ? 1 : 0;
+		
+		//Symmetric authenticated
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_AUTHENTICATED, new EncryptableString("String to encrypt"), EncryptionOutputFormat.BASE64) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_AUTHENTICATED, new SampleEncryptableObject(ran, "Object to encrypt"), EncryptionOutputFormat.BYTES_ARRAY) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_AUTHENTICATED, new SampleEncryptableObject(ran, "2nd object to encrypt"), EncryptionOutputFormat.STREAM) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_AUTHENTICATED, new EncryptableString("2nd string to encrypt"), EncryptionOutputFormat.DIRECT_BYTE_BUFFER) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_AUTHENTICATED, new SampleEncryptableObject(ran, "Batch object to encrypt"), EncryptionOutputFormat.PARALLEL_BATCH) ? 1 : 0;
+		
+		//Symmetric ChaCha20-Poly1305
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_CHACHA20, new EncryptableString("String to encrypt"), EncryptionOutputFormat.BASE64) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_CHACHA20, new SampleEncryptableObject(ran, "Object to encrypt"), EncryptionOutputFormat.BYTES_ARRAY) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_CHACHA20, new SampleEncryptableObject(ran, "2nd object to encrypt"), EncryptionOutputFormat.STREAM) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_CHACHA20, new EncryptableString("2nd string to encrypt"), EncryptionOutputFormat.DIRECT_BYTE_BUFFER) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_CHACHA20, new SampleEncryptableObject(ran, "Batch object to encrypt"), EncryptionOutputFormat.PARALLEL_BATCH) ? 1 : 0;
 		
 		//Asymmetric
 		passed += this.test(++ran, EncryptionMode.ASYMETRIC, new EncryptableString("String to encrypt"), EncryptionOutputFormat.BASE64) ? 1 : 0;
@@ -166,6 +426,67 @@ public class CryptDecryptTest {
 		passed += this.test(++ran, EncryptionMode.ASYMETRIC, new SampleEncryptableObject(ran, "2nd object to encrypt"), EncryptionOutputFormat.BASE64) ? 1 : 0;
 		passed += this.test(++ran, EncryptionMode.ASYMETRIC, new EncryptableString("String to encrypt"), EncryptionOutputFormat.BYTES_ARRAY) ? 1 : 0;
 		passed += this.test(++ran, EncryptionMode.ASYMETRIC, new SampleEncryptableObject(ran, "3rd object to encrypt"), EncryptionOutputFormat.BYTES_ARRAY) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ASYMETRIC, new SampleEncryptableObject(ran, "4th object to encrypt"), EncryptionOutputFormat.STREAM) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ASYMETRIC, new SampleEncryptableObject(ran, "Async object to encrypt"), EncryptionOutputFormat.ASYNC) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ASYMETRIC, new SampleEncryptableObject(ran, "Registry object to encrypt"), EncryptionOutputFormat.CORRESPONDENT_REGISTRY) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ASYMETRIC, new SampleEncryptableObject(ran, "Envelope object to encrypt"), EncryptionOutputFormat.MULTI_RECIPIENT) ? 1 : 0;
+		
+		//Hybrid (payload bigger than asymmetric key size)
+		passed += this.test(++ran, EncryptionMode.HYBRID, new EncryptableString(new String(new char[1000]).replace('\0', 'x')), EncryptionOutputFormat.BASE64) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.HYBRID, new SampleEncryptableObject(ran, "Object to encrypt"), EncryptionOutputFormat.BYTES_ARRAY) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.HYBRID, new SampleEncryptableObject(ran, "2nd object to encrypt"), EncryptionOutputFormat.STREAM) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.HYBRID, new SampleEncryptableObject(ran, "Batch object to encrypt"), EncryptionOutputFormat.PARALLEL_BATCH) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.HYBRID, new SampleEncryptableObject(ran, "Async object to encrypt"), EncryptionOutputFormat.ASYNC) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.HYBRID, new SampleEncryptableObject(ran, "Registry object to encrypt"), EncryptionOutputFormat.CORRESPONDENT_REGISTRY) ? 1 : 0;
+		
+		//Elliptic curve (ECIES)
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE, new EncryptableString("String to encrypt"), EncryptionOutputFormat.BASE64) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE, new SampleEncryptableObject(ran, "Object to encrypt"), EncryptionOutputFormat.BYTES_ARRAY) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE, new SampleEncryptableObject(ran, "2nd object to encrypt"), EncryptionOutputFormat.STREAM) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE, new SampleEncryptableObject(ran, "Batch object to encrypt"), EncryptionOutputFormat.PARALLEL_BATCH) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE, new SampleEncryptableObject(ran, "Registry object to encrypt"), EncryptionOutputFormat.CORRESPONDENT_REGISTRY) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE, new SampleEncryptableObject(ran, "Envelope object to encrypt"), EncryptionOutputFormat.MULTI_RECIPIENT) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE_NIST, new EncryptableString("String to encrypt"), EncryptionOutputFormat.BASE64) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE_NIST, new SampleEncryptableObject(ran, "Object to encrypt"), EncryptionOutputFormat.BYTES_ARRAY) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE_NIST, new SampleEncryptableObject(ran, "Envelope object to encrypt"), EncryptionOutputFormat.MULTI_RECIPIENT) ? 1 : 0;
+		
+		//Elliptic curve sessions (new epoch every 2 messages)
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE_SESSION, new EncryptableString(new String(new char[1000]).replace('\0', 'x')), EncryptionOutputFormat.BASE64) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE_SESSION, new SampleEncryptableObject(ran, "Object to encrypt"), EncryptionOutputFormat.BYTES_ARRAY) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE_SESSION, new SampleEncryptableObject(ran, "2nd object to encrypt"), EncryptionOutputFormat.STREAM) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE_SESSION, new SampleEncryptableObject(ran, "Batch object to encrypt"), EncryptionOutputFormat.PARALLEL_BATCH) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ELLIPTIC_CURVE_SESSION, new SampleEncryptableObject(ran, "Registry object to encrypt"), EncryptionOutputFormat.CORRESPONDENT_REGISTRY) ? 1 : 0;
+		
+		//Compact serializer
+		CompactSerializer compactSerializer = new CompactSerializer().register(SampleEncryptableObject.class, CompactSerializer.FIRST_CUSTOM_ID, new SampleEncryptableObjectCodec());
+		passed += this.test(++ran, EncryptionMode.SYMETRIC, new EncryptableString("String to encrypt"), EncryptionOutputFormat.BASE64, compactSerializer) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC, new SampleEncryptableObject(ran, "Object to encrypt"), EncryptionOutputFormat.BYTES_ARRAY, compactSerializer) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC, new SampleEncryptableObject(ran, "2nd object to encrypt"), EncryptionOutputFormat.STREAM, compactSerializer) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.ASYMETRIC, new EncryptableString("String to encrypt"), EncryptionOutputFormat.BASE64, compactSerializer) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC, new SampleEncryptableObject(ran, "Object without registered codec"), EncryptionOutputFormat.BYTES_ARRAY, new CompactSerializer()) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_AUTHENTICATED, new EncryptableString(new String(new char[100000]).replace('\0', 'x')), EncryptionOutputFormat.BYTES_ARRAY, compactSerializer) ? 1 : 0;
+		if(!this.rejectsCorruptedStringLengths()) {
+			System.out.println("Corrupted string length not rejected\n");
+			passed--;
+		}
+		
+		//Compression
+		CompressingSerializer compressingSerializer = new CompressingSerializer(JavaSerializer.INSTANCE, CompressingSerializer.DEFAULT_THRESHOLD, Deflater.BEST_SPEED);
+		String text = String.join(" ", Collections.nCopies(500, "Highly redundant text to encrypt."));
+		passed += this.test(++ran, EncryptionMode.SYMETRIC, new EncryptableString("String under threshold"), EncryptionOutputFormat.BASE64, compressingSerializer) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_AUTHENTICATED, new EncryptableString(text), EncryptionOutputFormat.BYTES_ARRAY, compressingSerializer) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC_AUTHENTICATED, new SampleEncryptableObject(ran, text), EncryptionOutputFormat.STREAM, compressingSerializer) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.HYBRID, new EncryptableString(text), EncryptionOutputFormat.BASE64, compressingSerializer) ? 1 : 0;
+		passed += this.test(++ran, EncryptionMode.SYMETRIC, new SampleEncryptableObject(ran, "Batch object to encrypt"), EncryptionOutputFormat.PARALLEL_BATCH, new CompressingSerializer(compactSerializer, 0, new DeflateCodec(Deflater.DEFAULT_COMPRESSION))) ? 1 : 0;
+		System.out.println(compressingSerializer + "\n");
+		if(compressingSerializer.getCompressedCount() != 3 || compressingSerializer.getCompressionRatio() > 0.1) {
+			System.out.println("Unexpected compression statistics\n");
+			passed--;
+		}
+		if(!this.rejectsDecompressionBomb()) {
+			System.out.println("Decompression bomb not rejected\n");
+			passed--;
+		}
 		
 		System.out.println("--- " + passed + " out " + ran + " test" + (ran>1 ? "s" : "") + " passed ---\n");
 		
@@ -173,6 +494,45 @@ public class CryptDecryptTest {
 	}
 	
 	
+	/**
+	 * Checks that compact serialized strings with negative lengths, or lengths exceeding data, are rejected as corrupted.
+	 * @return true if all rejected
+	 */
+	private boolean rejectsCorruptedStringLengths() {
+		for(int length : new int[] {-2, Integer.MIN_VALUE, Integer.MAX_VALUE, 100}) {
+			ByteBuffer corrupted = ByteBuffer.allocate(1 + 4 + 3).put((byte)CompactSerializer.ENCRYPTABLE_STRING_ID).putInt(length).put(new byte[] {'a', 'b', 'c'});
+			try {
+				new CompactSerializer().deserialize(new ByteArrayInputStream(corrupted.array()));
+				return false;
+			} catch (StreamCorruptedException e) {
+				//Expected
+			} catch (Exception e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks that data decompressing beyond the maximum size is rejected before being deserialized.
+	 * @return true if rejected
+	 */
+	private boolean rejectsDecompressionBomb() {
+		try {
+			ByteArrayOutputStream bomb = new ByteArrayOutputStream();
+			new CompressingSerializer(JavaSerializer.INSTANCE, 0, Deflater.BEST_COMPRESSION).serialize(new EncryptableString(new String(new char[16 * 1024 * 1024]).replace('\0', 'x')), bomb);
+			new CompressingSerializer(JavaSerializer.INSTANCE, 0, new DeflateCodec(Deflater.BEST_COMPRESSION), 1024 * 1024).deserialize(new ByteArrayInputStream(bomb.toByteArray()));
+			return false;
+		} catch (ZipException e) {
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	
 	/**
 	 * Class entry point.
 	 * @param args not used
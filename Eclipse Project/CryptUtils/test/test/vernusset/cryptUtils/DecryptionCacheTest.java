@@ -0,0 +1,141 @@
+package test.vernusset.cryptUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.BadPaddingException;
+
+import vernusset.cryptUtils.DecryptionCache;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+import vernusset.cryptUtils.encryptableObjects.*;
+
+
+/**
+ *
+ * Decryption cache tests: hot Base64 ciphertexts decrypted through the cache compared to direct decryption,
+ * bounds by entry count and estimated bytes, expiry, invalidation and statistics.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class DecryptionCacheTest {
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_128;
+
+	/**
+	 * Number of decryptions timed.
+	 */
+	private final int DECRYPTIONS = 100000;
+
+	/**
+	 * Number of distinct hot ciphertexts.
+	 */
+	private final int HOT = 16;
+
+	/**
+	 * Time to live of entries, in milliseconds.
+	 */
+	private final long TTL_MILLIS = 200;
+
+
+	/**
+	 * Function to launch the decryption cache test.
+	 * @return true if test passed, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+
+		try {
+			System.out.println("Decryption cache of " + this.HOT + " hot Base64 ciphertexts encrypted with " + this.SYMETRIC_ENCRYPTION_ALGO.toString());
+			SymmetricEncryptionMethod sem = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO));
+			List<Encryptable> values = new ArrayList<>();
+			List<String> hot = new ArrayList<>();
+			for(int i = 0; i < this.HOT; i++) {
+				values.add(new EncryptableString("{\"service\": " + i + ", \"endpoint\": \"https://internal.example.com/api\", \"timeoutMillis\": 5000}"));
+				hot.add(sem.encryptToBase64String(values.get(i)));
+			}
+
+			//Hot ciphertexts, compared to direct decryption
+			DecryptionCache cache = new DecryptionCache(sem, 1000, 1024 * 1024, 0);
+			long start = System.nanoTime();
+			for(int i = 0; i < this.DECRYPTIONS; i++) {
+				passed &= values.get(i % this.HOT).equals(cache.decryptFromBase64String(hot.get(i % this.HOT)));
+			}
+			long cachedNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			for(int i = 0; i < this.DECRYPTIONS; i++) {
+				passed &= values.get(i % this.HOT).equals(sem.decryptFromBase64String(hot.get(i % this.HOT)));
+			}
+			long directNanos = System.nanoTime() - start;
+			System.out.println(String.format("\tDirect decryption: %6.2f µs, through cache: %6.2f µs, hit rate %.4f", directNanos / 1000.0 / this.DECRYPTIONS, cachedNanos / 1000.0 / this.DECRYPTIONS, cache.getHitRate()));
+			passed &= cache.getMissCount() == this.HOT && cache.getHitCount() == this.DECRYPTIONS - this.HOT && cachedNanos < directNanos;
+
+			//Bytes arrays, copied (caller keeping ownership)
+			byte[] encrypted = sem.encryptToBytesArray(values.get(0));
+			passed &= values.get(0).equals(cache.decryptFromBytesArray(encrypted)) && values.get(0).equals(cache.decryptFromBytesArray(encrypted.clone()));
+			encrypted[encrypted.length - 1] ^= 1;
+			for(int i = 0; i < 2; i++) {
+				try {
+					cache.decryptFromBytesArray(encrypted); //Altered: failed decryptions are not cached
+					passed = false;
+				} catch (BadPaddingException e) {
+					//Expected
+				}
+			}
+
+			//Invalidation and clearing
+			cache.invalidate(hot.get(0));
+			passed &= cache.size() == this.HOT;
+			cache.clear();
+			passed &= cache.size() == 0 && cache.getEstimatedBytes() == 0;
+
+			//Bounded by entry count, least recently used evicted first
+			DecryptionCache small = new DecryptionCache(sem, 4, 1024 * 1024, 0);
+			for(int i = 0; i < this.HOT; i++) {
+				small.decryptFromBase64String(hot.get(i));
+				small.decryptFromBase64String(hot.get(0));
+			}
+			small.resetStatistics();
+			small.decryptFromBase64String(hot.get(0));
+			small.decryptFromBase64String(hot.get(1));
+			passed &= small.size() == 4 && small.getHitCount() == 1 && small.getMissCount() == 1;
+
+			//Bounded by estimated bytes
+			long entryBytes = DecryptionCache.ENTRY_OVERHEAD + 2L * hot.get(0).length();
+			DecryptionCache light = new DecryptionCache(sem, 1000, 3 * entryBytes, 0);
+			for(String h : hot) {
+				light.decryptFromBase64String(h);
+			}
+			passed &= light.size() == 3 && light.getEstimatedBytes() <= 3 * entryBytes && light.getEvictionCount() == this.HOT - 3;
+
+			//Expiry
+			DecryptionCache expiring = new DecryptionCache(sem, 1000, 1024 * 1024, this.TTL_MILLIS);
+			expiring.decryptFromBase64String(hot.get(0));
+			expiring.decryptFromBase64String(hot.get(0));
+			Thread.sleep(2 * this.TTL_MILLIS);
+			passed &= values.get(0).equals(expiring.decryptFromBase64String(hot.get(0)));
+			passed &= expiring.getHitCount() == 1 && expiring.getMissCount() == 2;
+			System.out.println("\t" + expiring);
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new DecryptionCacheTest()).run();
+	}
+}
@@ -0,0 +1,302 @@
+package test.vernusset.cryptUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.crypto.BadPaddingException;
+
+import vernusset.cryptUtils.EncryptedStore;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+import vernusset.cryptUtils.encryptableObjects.*;
+
+
+/**
+ *
+ * Encrypted store tests: writes, reads and removals, recovery on reopening (with torn records),
+ * compaction of overwritten and removed records, alteration detection (content, and forged headers), and throughput with many records.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class EncryptedStoreTest {
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_128;
+
+	/**
+	 * Number of stored records.
+	 */
+	private final int RECORDS = 200000;
+
+	/**
+	 * Segment size, small enough for records to span several segments.
+	 */
+	private final int SEGMENT_SIZE = 4 * 1024 * 1024;
+
+
+	private static String key(int i) {
+		return "customer-" + i;
+	}
+
+	private static Encryptable value(int i, int version) {
+		return new EncryptableString("Customer " + i + ", version " + version + ", 221B Baker Street, London");
+	}
+
+	/**
+	 * Maps the first segment file of a store.
+	 */
+	private static ByteBuffer mapFirstSegment(Path directory) throws IOException {
+		try(FileChannel channel = FileChannel.open(directory.resolve(String.format("%010d.seg", 0)), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Recomputes the CRC-32 of a record (after the length and CRC fields), as someone altering it on purpose would.
+	 */
+	private static void updateCrc(ByteBuffer segment, int offset) {
+		ByteBuffer record = segment.duplicate();
+		record.limit(offset + segment.getInt(offset)).position(offset + 8);
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		segment.putInt(offset + 4, (int)crc.getValue());
+	}
+
+	/**
+	 * Tells whether reopening a store fails on an altered record.
+	 */
+	private boolean rejectsOnOpening(Path directory, SymmetricEncryptionMethod sem) {
+		try(EncryptedStore store = new EncryptedStore(directory, sem, this.SEGMENT_SIZE, 0)) {
+			return false;
+		} catch (IOException e) {
+			return e.getCause() instanceof BadPaddingException;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes a directory and its files.
+	 */
+	private static void delete(Path directory) throws IOException {
+		try(Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	/**
+	 * Function to launch the encrypted store test.
+	 * @return true if test passed, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+		Path directory = null;
+
+		try {
+			System.out.println("Encrypted store of " + this.RECORDS + " records using " + this.SYMETRIC_ENCRYPTION_ALGO.toString());
+			directory = Files.createTempDirectory("EncryptedStoreTest");
+			SymmetricEncryptionMethod sem = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO));
+
+			//Writes and reads
+			try(EncryptedStore store = new EncryptedStore(directory, sem, this.SEGMENT_SIZE, EncryptedStore.DEFAULT_COMMIT_INTERVAL_MILLIS)) {
+				long start = System.nanoTime();
+				for(int i = 0; i < this.RECORDS; i++) {
+					store.put(key(i), value(i, 0));
+				}
+				store.flush();
+				long putNanos = System.nanoTime() - start;
+
+				Random random = new Random(0);
+				start = System.nanoTime();
+				for(int i = 0; i < this.RECORDS; i++) {
+					int j = random.nextInt(this.RECORDS);
+					passed &= value(j, 0).equals(store.get(key(j)));
+				}
+				long getNanos = System.nanoTime() - start;
+				System.out.println(String.format("\t%8.0f puts/s, %8.0f gets/s, %d segments", this.RECORDS * 1e9 / putNanos, this.RECORDS * 1e9 / getNanos, store.getSegmentCount()));
+				passed &= store.size() == this.RECORDS && store.getSegmentCount() > 1;
+				passed &= store.get("unknown") == null;
+
+				passed &= store.remove(key(0)) && !store.remove(key(0)) && store.get(key(0)) == null;
+			}
+
+			//Torn last record, as after a crash during a write
+			Path last;
+			try(Stream<Path> paths = Files.list(directory)) {
+				last = paths.max(Comparator.naturalOrder()).get();
+			}
+			try(FileChannel channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				ByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+				int offset = 0;
+				while(segment.getInt(offset) != 0) offset += segment.getInt(offset);
+				segment.putInt(offset, 1000).putInt(offset + 4, 0x12345678);
+			}
+
+			//Recovery, overwrites and compaction (also running in background)
+			try(EncryptedStore store = new EncryptedStore(directory, sem, this.SEGMENT_SIZE, EncryptedStore.DEFAULT_COMMIT_INTERVAL_MILLIS)) {
+				passed &= store.size() == this.RECORDS - 1 && store.get(key(0)) == null;
+				passed &= value(this.RECORDS - 1, 0).equals(store.get(key(this.RECORDS - 1)));
+
+				int segments = store.getSegmentCount();
+				for(int round = 1; round <= 3; round++) {
+					for(int i = 1; i < this.RECORDS; i++) {
+						store.put(key(i), value(i, round));
+					}
+				}
+				store.compact();
+				System.out.println("\t" + segments + " segments before 3 rounds of overwrites, " + store.getSegmentCount() + " after compaction");
+				passed &= store.getSegmentCount() < 2 * segments + 1;
+				for(int i = 1; i < this.RECORDS; i += 997) {
+					passed &= value(i, 3).equals(store.get(key(i)));
+				}
+			}
+
+			//Writes waiting for their commit
+			try(EncryptedStore store = new EncryptedStore(directory, sem, this.SEGMENT_SIZE, 0)) {
+				long start = System.nanoTime();
+				for(int i = 0; i < 1000; i++) {
+					store.put(key(i % 2), value(i % 2, 4));
+				}
+				System.out.println(String.format("\t%8.0f puts/s committed one by one", 1000 * 1e9 / (System.nanoTime() - start)));
+				store.put(key(0), value(0, 5));
+			}
+			try(EncryptedStore store = new EncryptedStore(directory, sem, this.SEGMENT_SIZE, 0)) {
+				passed &= store.size() == this.RECORDS;
+				passed &= value(0, 5).equals(store.get(key(0))) && value(1, 4).equals(store.get(key(1))) && value(2, 3).equals(store.get(key(2)));
+			}
+
+			//Record written after a torn one, not to be read again once new records end where it starts
+			Path tornDirectory = directory.resolve("torn");
+			try(EncryptedStore store = new EncryptedStore(tornDirectory, sem, this.SEGMENT_SIZE, 0)) {
+				store.put(key(1), value(1, 0));
+				store.put(key(2), value(2, 0));
+				store.put(key(3), value(3, 0));
+			}
+			try(FileChannel channel = FileChannel.open(tornDirectory.resolve(String.format("%010d.seg", 0)), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				ByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+				segment.putInt(segment.getInt(0), 0); //Length of 2nd record, written last, not on disk yet
+			}
+			try(EncryptedStore store = new EncryptedStore(tornDirectory, sem, this.SEGMENT_SIZE, 0)) {
+				passed &= store.size() == 1;
+				store.put(key(4), value(4, 0)); //Same length as 2nd record
+			}
+			try(EncryptedStore store = new EncryptedStore(tornDirectory, sem, this.SEGMENT_SIZE, 0)) {
+				passed &= store.size() == 2 && store.get(key(3)) == null && value(4, 0).equals(store.get(key(4)));
+			}
+
+			//Altered record
+			Path alteredDirectory = directory.resolve("altered");
+			try(EncryptedStore store = new EncryptedStore(alteredDirectory, sem, this.SEGMENT_SIZE, 0)) {
+				store.put(key(1), value(1, 0)); //First record of first segment
+				store.put(key(2), value(2, 0));
+				try(FileChannel channel = FileChannel.open(alteredDirectory.resolve(String.format("%010d.seg", 0)), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+					ByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+					segment.put(40, (byte)(segment.get(40) ^ 1)); //Inside encrypted content of first record
+				}
+				try {
+					store.get(key(1));
+					passed = false;
+				} catch (BadPaddingException e) {
+					//Expected
+				}
+				passed &= value(2, 0).equals(store.get(key(2)));
+			}
+
+			//Forged headers, CRC recomputed: removal instead of write, record moved under another key
+			Path forgedDirectory = directory.resolve("forged");
+			try(EncryptedStore store = new EncryptedStore(forgedDirectory, sem, this.SEGMENT_SIZE, 0)) {
+				store.put(key(1), value(1, 0));
+				store.put(key(2), value(2, 0));
+			}
+			ByteBuffer forged = mapFirstSegment(forgedDirectory);
+			int second = forged.getInt(0);
+			byte[] original = new byte[forged.getInt(second)];
+			((ByteBuffer)forged.duplicate().position(second)).get(original);
+			forged.put(second + 24, (byte)2); //Type: removal
+			updateCrc(forged, second);
+			passed &= this.rejectsOnOpening(forgedDirectory, sem);
+			for(int i = 8; i < 24; i++) { //Blind index of first record key
+				forged.put(second + i, forged.get(i));
+			}
+			updateCrc(forged, second);
+			passed &= this.rejectsOnOpening(forgedDirectory, sem);
+			((ByteBuffer)forged.duplicate().position(second)).put(original);
+			try(EncryptedStore store = new EncryptedStore(forgedDirectory, sem, this.SEGMENT_SIZE, 0)) {
+				passed &= store.size() == 2 && value(2, 0).equals(store.get(key(2)));
+			}
+
+			//Removal records dropped by compaction, unless an older segment still puts their key
+			Path probeDirectory = directory.resolve("probe");
+			try(EncryptedStore store = new EncryptedStore(probeDirectory, sem, this.SEGMENT_SIZE, 0)) {
+				store.put(key(10), value(10, 0));
+			}
+			int recordLength = mapFirstSegment(probeDirectory).getInt(0); //Same for every key(10..99) and value(10..99, 0..9)
+			Path removalsDirectory = directory.resolve("removals");
+			try(EncryptedStore store = new EncryptedStore(removalsDirectory, sem, 4 * recordLength, 0)) {
+				for(int i = 10; i < 14; i++) {
+					store.put(key(i), value(i, 0)); //1st segment, full of live records
+				}
+				store.put(key(20), value(20, 0)); //2nd segment: put, removal, and 2 overwritten records
+				store.remove(key(20));
+				for(int i = 0; i < 3; i++) {
+					store.put(key(30), value(30, i)); //Last one in 3rd segment
+				}
+				for(int i = 31; i < 34; i++) {
+					store.put(key(i), value(i, 0)); //3rd segment, full of live records
+				}
+				store.compact();
+				passed &= store.getSegmentCount() == 2; //Removal of key put in 2nd segment only, dropped: no segment created for it
+
+				store.remove(key(10)); //4th segment: removal of a key put in 1st segment, and 3 overwritten records
+				for(int i = 0; i < 4; i++) {
+					store.put(key(30), value(30, i)); //Last one in 5th segment
+				}
+				store.compact();
+			}
+			try(EncryptedStore store = new EncryptedStore(removalsDirectory, sem, 4 * recordLength, 0)) {
+				passed &= store.size() == 7 && store.get(key(10)) == null && store.get(key(20)) == null && value(30, 3).equals(store.get(key(30)));
+			}
+
+			//Oversized record
+			try(EncryptedStore store = new EncryptedStore(directory, sem, this.SEGMENT_SIZE, 0)) {
+				store.put("large", new EncryptableString(new String(new char[this.SEGMENT_SIZE])));
+				passed = false;
+			} catch (IllegalArgumentException e) {
+				//Expected
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		} finally {
+			try {
+				if(directory != null) delete(directory);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new EncryptedStoreTest()).run();
+	}
+}
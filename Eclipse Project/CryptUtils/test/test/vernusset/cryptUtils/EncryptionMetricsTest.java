@@ -0,0 +1,168 @@
+package test.vernusset.cryptUtils;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import vernusset.cryptUtils.AlgorithmMetrics;
+import vernusset.cryptUtils.EncryptionMetrics;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+import vernusset.cryptUtils.encryptableObjects.*;
+
+
+/**
+ *
+ * Encryption metrics tests: phases recorded and exposed through JMX, JFR events emitted (when available),
+ * and cost of instrumentation.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class EncryptionMetricsTest {
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_128;
+
+	/**
+	 * Number of round trips timed.
+	 */
+	private final int ROUND_TRIPS = 20000;
+
+
+	/**
+	 * Times round trips.
+	 * @param sem encryption method
+	 * @param input object to encrypt
+	 * @return mean round trip time, in nanoseconds
+	 */
+	private long time(SymmetricEncryptionMethod sem, Encryptable input) throws Exception {
+		long start = System.nanoTime();
+		for(int i = 0; i < this.ROUND_TRIPS; i++) {
+			sem.decryptFromBase64String(sem.encryptToBase64String(input));
+		}
+		return (System.nanoTime() - start) / this.ROUND_TRIPS;
+	}
+
+	/**
+	 * Starts a flight recording of phase events, through reflection (JFR API being unavailable to Java 8 code).
+	 * @return recording, or null if JFR is not available
+	 */
+	private Object startRecording() {
+		try {
+			Object recording = Class.forName("jdk.jfr.Recording").getConstructor().newInstance();
+			recording.getClass().getMethod("enable", String.class).invoke(recording, "vernusset.cryptUtils.Phase");
+			recording.getClass().getMethod("start").invoke(recording);
+			return recording;
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stops a flight recording.
+	 * @param recording recording
+	 * @return number of recorded phase events
+	 */
+	private int stopRecording(Object recording) throws Exception {
+		Path file = Files.createTempFile("cryptUtils", ".jfr");
+		try {
+			recording.getClass().getMethod("stop").invoke(recording);
+			recording.getClass().getMethod("dump", Path.class).invoke(recording, file);
+			recording.getClass().getMethod("close").invoke(recording);
+			return ((List<?>)Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class).invoke(null, file)).size();
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Function to launch the encryption metrics test.
+	 * @return true if test passed, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+
+		try {
+			System.out.println("Encryption metrics using " + this.SYMETRIC_ENCRYPTION_ALGO.toString());
+			Encryptable input = new EncryptableString("String to encrypt");
+			SymmetricEncryptionMethod sem = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO));
+			this.time(sem, input); //Warm up
+			long disabled = this.time(sem, input);
+
+			EncryptionMetrics metrics = EncryptionMetrics.enable(false);
+			long enabled = this.time(sem, input);
+			System.out.println(String.format("\tRound trip: %d ns disabled, %d ns enabled", disabled, enabled));
+			metrics.reset();
+
+			EncryptionMetrics.disable();
+			metrics = EncryptionMetrics.enable(true);
+			Object recording = null;
+			System.out.println("\tJFR events: " + (metrics.isEmittingEvents() ? "available" : "not available"));
+			if(metrics.isEmittingEvents()) {
+				recording = this.startRecording();
+			}
+
+			sem = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO));
+			for(int i = 0; i < 10; i++) {
+				passed &= input.equals(sem.decryptFromBase64String(sem.encryptToBase64String(input)));
+			}
+			byte[] encrypted = sem.encryptToBytesArray(input);
+			encrypted[encrypted.length - 1] ^= 1;
+			try {
+				sem.decryptFromBytesArray(encrypted);
+				passed = false;
+			} catch (Exception e) {
+				//Expected
+			}
+
+			AlgorithmMetrics algoMetrics = metrics.getMetrics(this.SYMETRIC_ENCRYPTION_ALGO);
+			System.out.println("\t" + algoMetrics);
+			passed &= algoMetrics.getEncryptions() == 11 && algoMetrics.getDecryptions() == 10 && algoMetrics.getFailures() == 1;
+			passed &= algoMetrics.getPhase(EncryptionMetrics.Phase.CIPHER_CREATION).getCount() == 1;
+			passed &= algoMetrics.getPhase(EncryptionMetrics.Phase.CIPHER_INIT).getCount() == 22;
+			passed &= algoMetrics.getPhase(EncryptionMetrics.Phase.BASE64_DECODING).getCount() == 10;
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = EncryptionMetrics.objectName(this.SYMETRIC_ENCRYPTION_ALGO);
+			passed &= Long.valueOf(11).equals(server.getAttribute(name, "Encryptions"));
+			TabularData phases = (TabularData)server.getAttribute(name, "Phases");
+			System.out.println("\tJMX: " + name + " - " + phases.size() + " phases");
+			passed &= phases.size() == EncryptionMetrics.Phase.values().length;
+
+			if(recording != null) {
+				int events = this.stopRecording(recording);
+				System.out.println("\tJFR: " + events + " phase events");
+				passed &= events >= 10 * 6;
+			}
+
+			EncryptionMetrics.disable();
+			passed &= EncryptionMetrics.getInstance() == null && !server.isRegistered(name);
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		} finally {
+			EncryptionMetrics.disable();
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new EncryptionMetricsTest()).run();
+	}
+}
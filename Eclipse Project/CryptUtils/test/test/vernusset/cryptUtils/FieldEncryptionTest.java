@@ -0,0 +1,154 @@
+package test.vernusset.cryptUtils;
+
+import java.io.InvalidClassException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.BadPaddingException;
+
+import test.vernusset.cryptUtils.sampleEncryptableObjects.SampleEncryptableObject;
+import test.vernusset.cryptUtils.sampleEncryptableObjects.SampleRecord;
+import vernusset.cryptUtils.FieldEncryption;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+
+
+/**
+ *
+ * Field level encryption tests: round trip, sensitive values only being encrypted, alteration detection, plain field types,
+ * and size and cost compared to whole object encryption of a large record.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class FieldEncryptionTest {
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_128;
+
+	/**
+	 * Number of records timed.
+	 */
+	private final int RECORDS = 5000;
+
+	/**
+	 * Record MAC size (HMAC-SHA256).
+	 */
+	private final int MAC_SIZE = 32;
+
+
+	/**
+	 * Record with a plain field of a type not written directly.
+	 */
+	private static class PlainListRecord implements Encryptable {
+		private static final long serialVersionUID = 1L;
+		@SuppressWarnings("unused")
+		private List<String> tags = new ArrayList<>();
+	}
+
+
+	/**
+	 * Times an operation.
+	 * @param operation operation
+	 * @return mean operation time, in microseconds
+	 */
+	private double time(Timing.Operation operation) throws Exception {
+		return Timing.meanNanos(operation, this.RECORDS, this.RECORDS) / 1000;
+	}
+
+	/**
+	 * Tells if an array contains another one.
+	 */
+	private static boolean contains(byte[] array, byte[] part) {
+		for(int i = 0; i + part.length <= array.length; i++) {
+			if(Arrays.equals(Arrays.copyOfRange(array, i, i + part.length), part)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Function to launch the field level encryption test.
+	 * @return true if test passed, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+
+		try {
+			System.out.println("Field level encryption using " + this.SYMETRIC_ENCRYPTION_ALGO.toString());
+			SymmetricEncryptionMethod sem = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO));
+			FieldEncryption fieldEncryption = new FieldEncryption(sem);
+			String notes = String.join(" ", Collections.nCopies(500, "Large plain text notes."));
+			SampleRecord input = new SampleRecord(42, "John Doe", "1-23-45-67-890-123", "secret".getBytes(StandardCharsets.UTF_8), notes);
+
+			//Round trip
+			byte[] record = fieldEncryption.encrypt(input);
+			passed &= input.equals(fieldEncryption.decrypt(record));
+			passed &= new SampleRecord(1, "", "", new byte[0], "").equals(fieldEncryption.decrypt(fieldEncryption.encrypt(new SampleRecord(1, "", "", new byte[0], ""))));
+
+			//Sensitive values only are encrypted
+			passed &= contains(record, "John Doe".getBytes(StandardCharsets.UTF_8)) && contains(record, notes.getBytes(StandardCharsets.UTF_8));
+			passed &= !contains(record, "1-23-45-67-890-123".getBytes(StandardCharsets.UTF_8)) && !contains(record, "secret".getBytes(StandardCharsets.UTF_8));
+
+			//Altered sensitive value, plain value, or encrypted values swapped between records
+			byte[] altered = record.clone();
+			altered[record.length - this.MAC_SIZE - notes.length() - 4 - 20] ^= 1; //Inside encrypted secret, preceding plain notes, their length and MAC
+			byte[] alteredPlain = record.clone();
+			alteredPlain[record.length - this.MAC_SIZE - 1] ^= 1; //Last char of plain notes
+			SampleRecord other = new SampleRecord(42, "John Doe", "9-87-65-43-210-987", "secret".getBytes(StandardCharsets.UTF_8), notes);
+			byte[] swapped = fieldEncryption.encrypt(other);
+			System.arraycopy(record, 0, swapped, 0, record.length - this.MAC_SIZE); //Same layout, other encrypted values
+			for(byte[] r : Arrays.asList(altered, alteredPlain, swapped)) {
+				try {
+					fieldEncryption.decrypt(r);
+					passed = false;
+				} catch (BadPaddingException e) {
+					//Expected
+				}
+			}
+
+			//Plain fields of types not written directly are rejected
+			try {
+				fieldEncryption.encrypt(new PlainListRecord());
+				passed = false;
+			} catch (InvalidClassException e) {
+				//Expected
+			}
+
+			//Objects without no-arg constructor are written, not read
+			try {
+				fieldEncryption.decrypt(fieldEncryption.encrypt(new SampleEncryptableObject(1, "No no-arg constructor")));
+				passed = false;
+			} catch (InvalidClassException e) {
+				//Expected
+			}
+
+			//Compared to whole object encryption
+			byte[] whole = sem.encryptToBytesArray(input);
+			System.out.println("\tField level encryption:   " + record.length + " bytes, " + String.format("%6.1f µs per round trip", this.time(() -> fieldEncryption.decrypt(fieldEncryption.encrypt(input)))));
+			System.out.println("\tWhole object encryption:  " + whole.length + " bytes, " + String.format("%6.1f µs per round trip", this.time(() -> sem.decryptFromBytesArray(sem.encryptToBytesArray(input)))));
+			passed &= record.length < whole.length;
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new FieldEncryptionTest()).run();
+	}
+}
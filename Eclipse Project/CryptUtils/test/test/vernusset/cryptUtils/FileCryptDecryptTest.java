@@ -0,0 +1,213 @@
+package test.vernusset.cryptUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.crypto.BadPaddingException;
+
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+
+
+/**
+ *
+ * File encryption/decryption tests.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class FileCryptDecryptTest {
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_256;
+
+	/**
+	 * Segment size used for testing (small, so that test files have many segments).
+	 */
+	private final int SEGMENT_SIZE = 64 * 1024;
+
+
+	/**
+	 * Symmetric encryption method used for testing.
+	 */
+	private SymmetricEncryptionMethod sem;
+
+	/**
+	 * Temporary directory holding test files.
+	 */
+	private Path directory;
+
+
+	/**
+	 * Constructor.
+	 * Builds encryption method and temporary directory used for testing.
+	 */
+	public FileCryptDecryptTest() {
+		try {
+			this.sem = new SymmetricEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO));
+			this.directory = Files.createTempDirectory("cryptUtils");
+		} catch (Exception e) {
+			System.out.println("[failed] Test setup");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
+
+	/**
+	 * Parallel file encryption round trip, then decryption of an altered copy.
+	 * @param testNumber
+	 * @param size plain file size in bytes
+	 * @return true if test passed, false otherwise
+	 */
+	private boolean testParallelFile(int testNumber, int size) {
+		boolean passed = false;
+
+		try {
+			System.out.println("Test n°" + testNumber + " - parallel file encryption - " + size + " bytes");
+			byte[] content = new byte[size];
+			new Random(size).nextBytes(content);
+			Path plain = Files.write(this.directory.resolve("plain" + testNumber), content);
+			Path encrypted = this.directory.resolve("encrypted" + testNumber);
+			Path decrypted = this.directory.resolve("decrypted" + testNumber);
+
+			this.sem.encryptFile(plain, encrypted, this.SEGMENT_SIZE, ForkJoinPool.commonPool());
+			System.out.println("\tEncrypted: " + Files.size(encrypted) + " bytes");
+			this.sem.decryptFile(encrypted, decrypted);
+			passed = Arrays.equals(content, Files.readAllBytes(decrypted));
+
+			//Altering last byte must be detected, and must not leave any decrypted file
+			try (FileChannel channel = FileChannel.open(encrypted, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+				ByteBuffer last = ByteBuffer.allocate(1);
+				channel.read(last, channel.size() - 1);
+				last.put(0, (byte)(last.get(0) ^ 1));
+				last.rewind();
+				channel.write(last, channel.size() - 1);
+			}
+			try {
+				this.sem.decryptFile(encrypted, decrypted);
+				System.out.println("\tAltered file decrypted");
+				passed = false;
+			} catch (BadPaddingException e) {
+				System.out.println("\tAltered file rejected: " + e.getMessage());
+				passed &= !Files.exists(decrypted);
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+		finally {
+			System.out.println(passed ? "PASSED" : "FAILED");
+			System.out.println("\n");
+		}
+
+		return passed;
+	}
+
+
+	/**
+	 * Seekable container: random range reads against plain data, then read of an altered chunk.
+	 * @param testNumber
+	 * @param size plain data size in bytes
+	 * @param chunkSize container chunk size in bytes
+	 * @return true if test passed, false otherwise
+	 */
+	private boolean testContainer(int testNumber, int size, int chunkSize) {
+		boolean passed = false;
+
+		try {
+			System.out.println("Test n°" + testNumber + " - seekable container - " + size + " bytes - " + chunkSize + " bytes chunks");
+			byte[] content = new byte[size];
+			Random random = new Random(size);
+			random.nextBytes(content);
+			Path container = this.directory.resolve("container" + testNumber);
+			this.sem.encryptToContainer(new ByteArrayInputStream(content), container, chunkSize);
+			System.out.println("\tContainer: " + Files.size(container) + " bytes");
+
+			try (SeekableByteChannel channel = this.sem.openContainer(container)) {
+				passed = channel.size() == size;
+				ByteBuffer all = ByteBuffer.allocate(size);
+				while(all.hasRemaining() && channel.read(all) >= 0);
+				passed &= Arrays.equals(content, all.array()) && channel.read(ByteBuffer.allocate(1)) == -1;
+
+				for(int i = 0; i < 100 && size > 0; i++) {
+					int from = random.nextInt(size), length = Math.min(random.nextInt(3 * chunkSize), size - from);
+					ByteBuffer range = ByteBuffer.allocate(length);
+					channel.position(from);
+					while(range.hasRemaining() && channel.read(range) >= 0);
+					passed &= Arrays.equals(Arrays.copyOfRange(content, from, from + length), range.array());
+				}
+			}
+
+			//Altering first chunk must be detected when reading it
+			try (FileChannel channel = FileChannel.open(container, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+				ByteBuffer first = ByteBuffer.allocate(1);
+				channel.read(first, 16);
+				first.put(0, (byte)(first.get(0) ^ 1));
+				first.rewind();
+				channel.write(first, 16);
+			}
+			try (SeekableByteChannel channel = this.sem.openContainer(container)) {
+				channel.read(ByteBuffer.allocate(1));
+				System.out.println("\tAltered container read");
+				passed = false;
+			} catch (BadPaddingException e) { //Only chunk, authenticated when opening
+				System.out.println("\tAltered container rejected: " + e.getMessage());
+			} catch (IOException e) {
+				System.out.println("\tAltered container rejected: " + e.getCause());
+				passed &= e.getCause() instanceof BadPaddingException;
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+		finally {
+			System.out.println(passed ? "PASSED" : "FAILED");
+			System.out.println("\n");
+		}
+
+		return passed;
+	}
+
+
+	/**
+	 * Function to launch series of units tests.
+	 * @return true if all tests passed, false otherwise
+	 */
+	public boolean run() {
+		int ran = 0, passed = 0;
+
+		passed += this.testParallelFile(++ran, 0) ? 1 : 0;
+		passed += this.testParallelFile(++ran, 1000) ? 1 : 0;
+		passed += this.testParallelFile(++ran, this.SEGMENT_SIZE) ? 1 : 0;
+		passed += this.testParallelFile(++ran, 5 * 1024 * 1024 + 7) ? 1 : 0;
+		passed += this.testContainer(++ran, 0, 4096) ? 1 : 0;
+		passed += this.testContainer(++ran, 4096, 4096) ? 1 : 0;
+		passed += this.testContainer(++ran, 1000 * 1000 + 3, 4096) ? 1 : 0;
+
+		System.out.println("--- " + passed + " out " + ran + " test" + (ran>1 ? "s" : "") + " passed ---\n");
+
+		return passed == ran;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new FileCryptDecryptTest()).run();
+	}
+}
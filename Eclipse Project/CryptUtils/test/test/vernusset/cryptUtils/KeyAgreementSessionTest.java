@@ -0,0 +1,172 @@
+package test.vernusset.cryptUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.KeyPair;
+
+import javax.crypto.BadPaddingException;
+
+import vernusset.cryptUtils.AsymmetricEncryptionMethod;
+import vernusset.cryptUtils.KeyAgreementSession;
+import vernusset.cryptUtils.encryptableObjects.*;
+
+
+/**
+ *
+ * Key agreement session tests: round trips in both directions between two correspondents,
+ * epoch changes after a number of messages or bytes, session renewal, streamed messages, and cost of session messages compared to per message ECIES.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class KeyAgreementSessionTest {
+
+	/**
+	 * Key agreement algorithm to use.
+	 */
+	private final AsymmetricEncryptionMethod.AsymmetricAlgorithm ENCRYPTION_ALGO = AsymmetricEncryptionMethod.AsymmetricAlgorithm.ECIES_X25519_HKDF_SHA256_AES_GCM;
+
+	/**
+	 * Number of messages timed.
+	 */
+	private final int MESSAGES = 2000;
+
+
+	/**
+	 * Times messages sent from a correspondent to another.
+	 * @param sender sender method
+	 * @param recipient recipient method
+	 * @param input message
+	 * @return mean round trip time, in microseconds
+	 */
+	private double time(AsymmetricEncryptionMethod sender, AsymmetricEncryptionMethod recipient, Encryptable input) throws Exception {
+		return Timing.meanNanos(() -> recipient.decryptFromBytesArray(sender.encryptToBytesArray(input)), this.MESSAGES / 10, this.MESSAGES) / 1000;
+	}
+
+	/**
+	 * Function to launch the key agreement session test.
+	 * @return true if test passed, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+
+		try {
+			System.out.println("Key agreement sessions using " + this.ENCRYPTION_ALGO.toString());
+			KeyPair aliceKeyPair = AsymmetricEncryptionMethod.buildKeyPair(this.ENCRYPTION_ALGO), bobKeyPair = AsymmetricEncryptionMethod.buildKeyPair(this.ENCRYPTION_ALGO);
+			AsymmetricEncryptionMethod alice = new AsymmetricEncryptionMethod(this.ENCRYPTION_ALGO, aliceKeyPair, bobKeyPair.getPublic());
+			AsymmetricEncryptionMethod bob = new AsymmetricEncryptionMethod(this.ENCRYPTION_ALGO, bobKeyPair, aliceKeyPair.getPublic());
+			Encryptable input = new EncryptableString("Message to encrypt");
+
+			//Per message ECIES, as reference
+			double eciesTime = this.time(alice, bob, input);
+
+			alice.setSessionMode(true);
+			bob.setSessionMode(true);
+			alice.setSessionLimits(3, 1 << 20, 0);
+
+			//Both directions
+			passed &= input.equals(bob.decryptFromBytesArray(alice.encryptToBytesArray(input)));
+			passed &= input.equals(alice.decryptFromBase64String(bob.encryptToBase64String(input)));
+
+			//New epoch after 3 messages
+			KeyAgreementSession session = alice.getSession(bobKeyPair.getPublic());
+			for(int i = 1; i < 4; i++) {
+				passed &= input.equals(bob.decryptFromBytesArray(alice.encryptToBytesArray(input)));
+			}
+			System.out.println("\tAfter 4 messages: " + session);
+			passed &= session.getEpoch() == 1 && session.getMessageCount() == 1;
+
+			//New epoch when exceeding bytes
+			alice.setSessionLimits(1000, 64, 0);
+			session = alice.getSession(bobKeyPair.getPublic());
+			Encryptable bigInput = new EncryptableString(new String(new char[100]).replace('\0', 'x'));
+			passed &= bigInput.equals(bob.decryptFromBytesArray(alice.encryptToBytesArray(bigInput)));
+			passed &= bigInput.equals(bob.decryptFromBytesArray(alice.encryptToBytesArray(bigInput)));
+			System.out.println("\tAfter 2 messages bigger than byte limit: " + session);
+			passed &= session.getEpoch() == 1;
+
+			//Old epoch messages still decrypted
+			alice.setSessionLimits(1, 1 << 20, 0);
+			session = alice.getSession(bobKeyPair.getPublic());
+			byte[] firstEpoch = alice.encryptToBytesArray(input);
+			byte[] secondEpoch = alice.encryptToBytesArray(input);
+			passed &= input.equals(bob.decryptFromBytesArray(secondEpoch)) && input.equals(bob.decryptFromBytesArray(firstEpoch));
+
+			//Streamed in chunks, in the same format as bytes arrays, and counted in epoch bytes
+			alice.setSessionLimits(1000, 1 << 20, 0);
+			session = alice.getSession(bobKeyPair.getPublic());
+			Encryptable streamedInput = new EncryptableString(new String(new char[1 << 19]).replace('\0', 'x'));
+			int[] writes = new int[1];
+			ByteArrayOutputStream streamed = new ByteArrayOutputStream() {
+				@Override
+				public synchronized void write(byte[] b, int off, int len) {
+					super.write(b, off, len);
+					writes[0]++;
+				}
+			};
+			alice.encryptTo(streamedInput, streamed);
+			System.out.println("\tStreamed message: " + streamed.size() + " bytes in " + writes[0] + " writes, " + session);
+			passed &= writes[0] > 2 && session.getEpoch() == 0;
+			passed &= streamedInput.equals(bob.decryptFromBytesArray(streamed.toByteArray()));
+			passed &= streamedInput.equals(bob.decryptFrom(new ByteArrayInputStream(alice.encryptToBytesArray(streamedInput))));
+			passed &= session.getEpoch() == 1; //Second half of byte limit exceeded
+
+			//New session after expiration
+			alice.setSessionLimits(1000, 1 << 20, 1);
+			long sessionId = alice.getSession(bobKeyPair.getPublic()).getSessionId();
+			Thread.sleep(5);
+			passed &= input.equals(bob.decryptFromBytesArray(alice.encryptToBytesArray(input)));
+			passed &= sessionId != alice.getSession(bobKeyPair.getPublic()).getSessionId();
+
+			//Altered message
+			byte[] encrypted = alice.encryptToBytesArray(input);
+			encrypted[encrypted.length - 1] ^= 1;
+			try {
+				bob.decryptFromBytesArray(encrypted);
+				passed = false;
+			} catch (BadPaddingException e) {
+				//Expected
+			}
+
+			//Not for correspondent (own messages, other direction keys)
+			try {
+				alice.decryptFromBytesArray(alice.encryptToBytesArray(input));
+				passed = false;
+			} catch (BadPaddingException e) {
+				//Expected
+			}
+
+			//Key agreement algorithms only
+			try {
+				KeyPair rsaKeyPair = AsymmetricEncryptionMethod.buildKeyPair(AsymmetricEncryptionMethod.AsymmetricAlgorithm.RSA_ECB_PKCS1Padding_1024);
+				new AsymmetricEncryptionMethod(AsymmetricEncryptionMethod.AsymmetricAlgorithm.RSA_ECB_PKCS1Padding_1024, rsaKeyPair, rsaKeyPair.getPublic()).setSessionMode(true);
+				passed = false;
+			} catch (IllegalStateException e) {
+				//Expected
+			}
+
+			alice.setSessionLimits(AsymmetricEncryptionMethod.DEFAULT_SESSION_MAX_MESSAGES, AsymmetricEncryptionMethod.DEFAULT_SESSION_MAX_BYTES, AsymmetricEncryptionMethod.DEFAULT_SESSION_MAX_AGE_MILLIS);
+			double sessionTime = this.time(alice, bob, input);
+			System.out.println(String.format("\tPer message ECIES: %8.1f µs per message", eciesTime));
+			System.out.println(String.format("\tSession:           %8.1f µs per message", sessionTime));
+			passed &= sessionTime < eciesTime;
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new KeyAgreementSessionTest()).run();
+	}
+}
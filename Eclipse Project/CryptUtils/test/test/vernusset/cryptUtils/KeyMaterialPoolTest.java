@@ -0,0 +1,126 @@
+package test.vernusset.cryptUtils;
+
+import java.security.KeyPair;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKey;
+
+import vernusset.cryptUtils.AsymmetricEncryptionMethod;
+import vernusset.cryptUtils.EncryptionAlgorithm;
+import vernusset.cryptUtils.KeyMaterialPool;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+
+
+/**
+ *
+ * Key material pool tests: latency of key pairs taken from a prefilled pool, against on demand generation,
+ * and refilling after the executor rejected a refilling task.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class KeyMaterialPoolTest {
+
+	/**
+	 * Asymmetric algorithm to use.
+	 */
+	private final AsymmetricEncryptionMethod.AsymmetricAlgorithm ASYMETRIC_ENCRYPTION_ALGO = AsymmetricEncryptionMethod.AsymmetricAlgorithm.RSA_ECB_PKCS1Padding_2048;
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_256;
+
+	/**
+	 * Pool water marks used for testing.
+	 */
+	private final int LOW_WATER_MARK = 2, HIGH_WATER_MARK = 4;
+
+
+	/**
+	 * Waits until a pool holds the given number of keys.
+	 * @param pool key material pool
+	 * @param algo algorithm
+	 * @param count expected number of available keys
+	 * @return true if reached within 60 seconds
+	 */
+	private boolean awaitAvailable(KeyMaterialPool pool, EncryptionAlgorithm algo, int count) throws InterruptedException {
+		long end = System.currentTimeMillis() + 60000;
+		while(pool.getAvailableCount(algo) < count) {
+			if(System.currentTimeMillis() > end) return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	/**
+	 * Function to launch the key material pool test.
+	 * @return true if test passed, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+
+		try {
+			System.out.println("Key pairs using " + this.ASYMETRIC_ENCRYPTION_ALGO.toString() + " - pool water marks " + this.LOW_WATER_MARK + "/" + this.HIGH_WATER_MARK);
+			long start = System.nanoTime();
+			AsymmetricEncryptionMethod.buildKeyPair(this.ASYMETRIC_ENCRYPTION_ALGO);
+			System.out.println(String.format("\tWithout pool: %8.3f ms", (System.nanoTime() - start) / 1e6));
+
+			KeyMaterialPool pool = new KeyMaterialPool(this.LOW_WATER_MARK, this.HIGH_WATER_MARK);
+			pool.prefill(this.ASYMETRIC_ENCRYPTION_ALGO);
+			passed &= this.awaitAvailable(pool, this.ASYMETRIC_ENCRYPTION_ALGO, this.HIGH_WATER_MARK);
+
+			KeyMaterialPool.setDefault(pool);
+			try {
+				for(int i = 0; i <= this.HIGH_WATER_MARK - this.LOW_WATER_MARK; i++) { //Down under low water mark
+					start = System.nanoTime();
+					KeyPair keyPair = AsymmetricEncryptionMethod.buildKeyPair(this.ASYMETRIC_ENCRYPTION_ALGO);
+					System.out.println(String.format("\tFrom pool:    %8.3f ms", (System.nanoTime() - start) / 1e6));
+					passed &= keyPair != null;
+				}
+				SecretKey secretKey = SymmetricEncryptionMethod.buildSecretKey(this.SYMETRIC_ENCRYPTION_ALGO); //Miss, pool created
+				passed &= secretKey != null && pool.getMissCount(this.SYMETRIC_ENCRYPTION_ALGO) == 1;
+			} finally {
+				KeyMaterialPool.setDefault(null);
+			}
+
+			passed &= pool.getHitCount(this.ASYMETRIC_ENCRYPTION_ALGO) == this.HIGH_WATER_MARK - this.LOW_WATER_MARK + 1;
+			passed &= pool.getMissCount(this.ASYMETRIC_ENCRYPTION_ALGO) == 0;
+			passed &= this.awaitAvailable(pool, this.ASYMETRIC_ENCRYPTION_ALGO, this.HIGH_WATER_MARK); //Refilled after falling under low water mark
+			System.out.println("\t" + pool);
+
+			//First refilling task rejected (as by a shut down executor), next one accepted
+			AtomicInteger executions = new AtomicInteger();
+			Executor rejectingOnce = task -> {
+				if(executions.getAndIncrement() == 0) {
+					throw new RejectedExecutionException("Rejected for testing");
+				}
+				new Thread(task).start();
+			};
+			KeyMaterialPool rejecting = new KeyMaterialPool(this.LOW_WATER_MARK, this.HIGH_WATER_MARK, rejectingOnce);
+			passed &= rejecting.takeSecretKey(this.SYMETRIC_ENCRYPTION_ALGO) != null; //Miss, refilling rejected
+			passed &= rejecting.takeSecretKey(this.SYMETRIC_ENCRYPTION_ALGO) != null; //Miss, refilling accepted
+			passed &= this.awaitAvailable(rejecting, this.SYMETRIC_ENCRYPTION_ALGO, this.HIGH_WATER_MARK);
+			System.out.println("\tAfter a rejected refilling: " + rejecting);
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new KeyMaterialPoolTest()).run();
+	}
+}
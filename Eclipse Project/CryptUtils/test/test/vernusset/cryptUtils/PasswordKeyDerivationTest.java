@@ -0,0 +1,103 @@
+package test.vernusset.cryptUtils;
+
+import vernusset.cryptUtils.PasswordKeyDerivation;
+import vernusset.cryptUtils.SymmetricEncryptionMethod;
+import vernusset.cryptUtils.encryptableObjects.*;
+
+
+/**
+ *
+ * Password based key derivation tests: cached derivations, and eviction (least recently used, and expired keys).
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+public class PasswordKeyDerivationTest {
+
+	/**
+	 * Symmetric algorithm to use.
+	 */
+	private final SymmetricEncryptionMethod.SymmetricAlgorithm SYMETRIC_ENCRYPTION_ALGO = SymmetricEncryptionMethod.SymmetricAlgorithm.AES_GCM_NOPADDING_256;
+
+	/**
+	 * Number of cached derived keys.
+	 */
+	private final int MAX_CACHED_KEYS = 2;
+
+	/**
+	 * Time to live of keys in expiry test, in milliseconds.
+	 */
+	private final long TTL_MILLIS = 200;
+
+
+	/**
+	 * Derives an encryption method, printing the time taken.
+	 * @param kdf key derivation
+	 * @param password password
+	 * @param salt salt
+	 * @return derived encryption method
+	 */
+	private SymmetricEncryptionMethod derive(PasswordKeyDerivation kdf, String password, byte[] salt) throws Exception {
+		long start = System.nanoTime();
+		SymmetricEncryptionMethod sem = kdf.deriveEncryptionMethod(this.SYMETRIC_ENCRYPTION_ALGO, password.toCharArray(), salt);
+		System.out.println(String.format("\tDerivation for \"%s\": %8.3f ms", password, (System.nanoTime() - start) / 1e6));
+		return sem;
+	}
+
+	/**
+	 * Function to launch the key derivation test.
+	 * @return true if test passed, false otherwise
+	 */
+	public boolean run() {
+		boolean passed = true;
+
+		try {
+			System.out.println("Password based key derivation using " + this.SYMETRIC_ENCRYPTION_ALGO.toString() + " - " + this.MAX_CACHED_KEYS + " cached keys");
+			PasswordKeyDerivation kdf = new PasswordKeyDerivation(this.MAX_CACHED_KEYS, 60000);
+			byte[] salt = PasswordKeyDerivation.buildSalt();
+			Encryptable input = new EncryptableString("String to encrypt");
+
+			byte[] encrypted = this.derive(kdf, "tenant password", salt).encryptToBytesArray(input);
+			passed &= input.equals(this.derive(kdf, "tenant password", salt).decryptFromBytesArray(encrypted)); //Cached
+
+			try {
+				this.derive(kdf, "wrong password", salt).decryptFromBytesArray(encrypted);
+				passed = false;
+			} catch (Exception e) {
+				System.out.println("\tWrong password rejected: " + e);
+			}
+			passed &= kdf.getCachedKeyCount() == 2;
+
+			this.derive(kdf, "another password", salt); //Evicts least recently used key
+			passed &= kdf.getCachedKeyCount() == this.MAX_CACHED_KEYS;
+
+			kdf.clear();
+			passed &= kdf.getCachedKeyCount() == 0;
+			passed &= input.equals(this.derive(kdf, "tenant password", salt).decryptFromBytesArray(encrypted)); //Derived again
+
+			//Expired key never read again, evicted by an access to another key
+			PasswordKeyDerivation expiring = new PasswordKeyDerivation(10000, this.MAX_CACHED_KEYS, this.TTL_MILLIS);
+			this.derive(expiring, "expiring password", salt);
+			Thread.sleep(2 * this.TTL_MILLIS);
+			this.derive(expiring, "another password", salt);
+			passed &= expiring.getCachedKeyCount() == 1;
+		} catch (Exception e) {
+			e.printStackTrace();
+			passed = false;
+		}
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.out.println("\n");
+
+		return passed;
+	}
+
+
+	/**
+	 * Class entry point.
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		(new PasswordKeyDerivationTest()).run();
+	}
+}
@@ -0,0 +1,41 @@
+package test.vernusset.cryptUtils;
+
+
+/**
+ *
+ * Timing of operations measured by tests: each operation is run a number of times to warm up, then timed over a number of runs.
+ *
+ * @author Maxime VERNUSSET
+ *
+ */
+final class Timing {
+
+	/**
+	 * Timed operation.
+	 */
+	interface Operation {
+		void run() throws Exception;
+	}
+
+
+	private Timing() {
+	}
+
+	/**
+	 * Times an operation.
+	 * @param operation operation
+	 * @param warmups number of runs before timing
+	 * @param runs number of timed runs
+	 * @return mean operation time, in nanoseconds
+	 */
+	static double meanNanos(Operation operation, int warmups, int runs) throws Exception {
+		for(int i = 0; i < warmups; i++) {
+			operation.run();
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < runs; i++) {
+			operation.run();
+		}
+		return (double)(System.nanoTime() - start) / runs;
+	}
+}
@@ -0,0 +1,21 @@
+package test.vernusset.cryptUtils.sampleEncryptableObjects;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import vernusset.cryptUtils.serialization.EncryptableCodec;
+
+public class SampleEncryptableObjectCodec implements EncryptableCodec<SampleEncryptableObject> {
+
+	@Override
+	public void write(SampleEncryptableObject object, DataOutput out) throws IOException {
+		out.writeInt(object.getI());
+		out.writeUTF(object.getJ());
+	}
+
+	@Override
+	public SampleEncryptableObject read(DataInput in) throws IOException {
+		return new SampleEncryptableObject(in.readInt(), in.readUTF());
+	}
+}
@@ -0,0 +1,66 @@
+package test.vernusset.cryptUtils.sampleEncryptableObjects;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import vernusset.cryptUtils.encryptableObjects.Encryptable;
+import vernusset.cryptUtils.encryptableObjects.Encrypted;
+
+public class SampleRecord implements Encryptable {
+
+	private static final long serialVersionUID = 1L;
+	private long id;
+	private String name;
+	@Encrypted
+	private String socialSecurityNumber;
+	@Encrypted
+	private byte[] secret;
+	private String notes;
+	private transient int hash;
+
+	private SampleRecord() {
+	}
+
+	public SampleRecord(long id, String name, String socialSecurityNumber, byte[] secret, String notes) {
+		this.id = id;
+		this.name = name;
+		this.socialSecurityNumber = socialSecurityNumber;
+		this.secret = secret;
+		this.notes = notes;
+		this.hash = Long.hashCode(id);
+	}
+
+	public long getId() {
+		return id;
+	}
+	public String getName() {
+		return name;
+	}
+	public String getSocialSecurityNumber() {
+		return socialSecurityNumber;
+	}
+	public byte[] getSecret() {
+		return secret;
+	}
+	public String getNotes() {
+		return notes;
+	}
+
+	@Override
+	public String toString() {
+		return ("[" + this.getClass().getSimpleName() + "]{id=" + this.id + ", name=\"" + this.name + "\", notes=" + (this.notes != null ? this.notes.length() + " chars" : null) + "}");
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(obj == null || !this.getClass().equals(obj.getClass())) return false;
+		SampleRecord other = (SampleRecord)obj;
+		return this.id == other.id && Objects.equals(this.name, other.name) && Objects.equals(this.socialSecurityNumber, other.socialSecurityNumber)
+				&& Arrays.equals(this.secret, other.secret) && Objects.equals(this.notes, other.notes);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.id, this.name, this.socialSecurityNumber, Arrays.hashCode(this.secret), this.notes);
+	}
+}